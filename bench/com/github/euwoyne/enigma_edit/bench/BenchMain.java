@@ -0,0 +1,79 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmark launcher.
+ * Runs all benchmarks of this package (or those matching the regular
+ * expression given as first argument) and writes the results as JSON to
+ * {@code bench/results/<date>-<time>.json} (or the file given as second
+ * argument), so that runs on different commits can be compared.
+ * <p>
+ * The benchmarks need JMH ({@code jmh-core} and {@code jmh-generator-annprocess})
+ * on the class path, in addition to the editor classes and the libraries in
+ * {@code jar/}. They are run from the project root, since the fixtures are
+ * read from {@code data/}:
+ * <pre>
+ * javac -cp "class:jar/*:$JMH/*" -d bench-class $(find bench -name '*.java')
+ * java  -cp "bench-class:class:jar/*:$JMH/*" com.github.euwoyne.enigma_edit.bench.BenchMain [regex [result.json]]
+ * </pre>
+ * Rendering benchmarks additionally need the Enigma sprites (see {@link RenderBenchmark}).
+ * Changes of the resolvers should be verified by {@link ResolveCheck} first,
+ * since faster results are only comparable, if the resolved tiles are equal.
+ * <p>
+ * The forked benchmark JVMs are started without the analysis dump
+ * ({@code enigma_edit.dump}), so that its output is not measured.
+ */
+public class BenchMain
+{
+	public static void main(String[] args) throws Exception
+	{
+		final String include = args.length > 0 ? args[0] : BenchMain.class.getPackage().getName() + ".*";
+		final Path   result  = args.length > 1 ? Paths.get(args[1])
+		                     : Paths.get("bench", "results", new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+		
+		if (result.getParent() != null)
+			Files.createDirectories(result.getParent());
+		
+		final Options options = new OptionsBuilder()
+			.include(include)
+			.resultFormat(ResultFormatType.JSON)
+			.result(result.toString())
+			.jvmArgsAppend("-Denigma_edit.dump=false")
+			.build();
+		new Runner(options).run();
+		System.out.println("Results written to " + result);
+	}
+}
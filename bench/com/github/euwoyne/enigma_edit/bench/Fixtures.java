@@ -0,0 +1,190 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.github.euwoyne.enigma_edit.model.Tileset;
+import com.github.euwoyne.enigma_edit.model.TilesetCache;
+
+/**
+ * Benchmark fixtures.
+ * Levels are generated deterministically for a given resolver and size, so
+ * that results of different commits are comparable. The tileset is read from
+ * {@code data/tileset.xml} (or the file given by the system property
+ * {@code enigma_edit.tileset}) once per JVM.
+ */
+public final class Fixtures
+{
+	private static Tileset tileset;
+	
+	private Fixtures() {}
+	
+	/**
+	 * @return  The tileset shared by all benchmarks.
+	 * @throws Exception  if the tileset could not be loaded.
+	 */
+	public static synchronized Tileset tileset() throws Exception
+	{
+		if (tileset == null)
+			tileset = TilesetCache.load(System.getProperty("enigma_edit.tileset", "data/tileset.xml"));
+		return tileset;
+	}
+	
+	/**
+	 * Parse a size specification.
+	 * 
+	 * @param size  Size as {@code "<width>x<height>"}.
+	 * @return      Width and height.
+	 */
+	public static int[] size(String size)
+	{
+		final int sep = size.indexOf('x');
+		return new int[] {Integer.parseInt(size.substring(0, sep)), Integer.parseInt(size.substring(sep + 1))};
+	}
+	
+	/**
+	 * Generate the lua code of a level.
+	 * 
+	 * @param resolver  Resolver to use ({@code "ti"}, {@code "autotile"}, {@code "composer"} or {@code "puzzle"}).
+	 * @param size      Level size (see {@link #size}).
+	 * @return          Lua code of the level.
+	 */
+	public static String code(String resolver, String size)
+	{
+		return code(resolver, size, false);
+	}
+	
+	/**
+	 * Generate the lua code of a level.
+	 * 
+	 * @param resolver  Resolver to use ({@code "ti"}, {@code "autotile"}, {@code "composer"} or {@code "puzzle"}).
+	 * @param size      Level size (see {@link #size}).
+	 * @param changed   Use a different key for the first cell (to test incremental analysis).
+	 * @return          Lua code of the level.
+	 */
+	public static String code(String resolver, String size, boolean changed)
+	{
+		final int[]         dim  = size(size);
+		final StringBuilder code = new StringBuilder();
+		final String[]      keys;
+		final String        res;
+		
+		switch (resolver)
+		{
+		case "ti":
+			code.append("ti[\" \"] = {\"fl_sahara\"}\n");
+			code.append("ti[\"#\"] = {\"st_granite\"}\n");
+			code.append("ti[\"o\"] = {\"st_box\"}\n");
+			code.append("ti[\"x\"] = {\"it_floppy\"}\n");
+			code.append("ti[\"c\"] = {\"fl_wood\"} .. ti({\"it_cherry\"})\n");
+			keys = new String[] {" ", " ", " ", "#", "o", "x", "c"};
+			res  = "ti";
+			break;
+			
+		case "autotile":
+			code.append("ti[\" \"] = {\"fl_sahara\"}\n");
+			code.append("ti[\"template_a\"] = {\"st_floppy\", target={\"door%%#*\", \"laser%%\"}}\n");
+			code.append("ti[\"template_A\"] = {\"st_blocker\", \"door%%#\"}\n");
+			code.append("ti[\"template_1\"] = {\"st_laser_s\", \"laser%%\"}\n");
+			code.append("ti[\"x\"] = {\"#ac_marble\"} .. ti({\"it_floppy\"})\n");
+			keys = new String[] {" ", " ", " ", "a", "b", "c", "d", "e", "A", "B", "C", "D", "E", "1", "2", "3", "4", "5", "x"};
+			res  = "res.autotile(ti, {\"a\", \"e\", \"template_a\"}, {\"A\", \"E\", \"template_A\"}, {\"1\", \"5\", \"template_1\"})";
+			break;
+			
+		case "composer":
+			code.append("ti[\"  \"] = {\"fl_sahara\"}\n");
+			code.append("ti[\"w \"] = {\"fl_wood\"}\n");
+			code.append("ti[\"# \"] = {\"st_granite\"}\n");
+			code.append("ti[\"o \"] = {\"st_box\"}\n");
+			code.append("ti[\" x\"] = {\"it_floppy\"}\n");
+			code.append("ti[\" c\"] = {\"it_cherry\"}\n");
+			keys = new String[] {"  ", "  ", "# ", "o ", " x", " c", "#x", "oc", "wx", "wc"};
+			res  = "res.composer(ti)";
+			break;
+			
+		case "puzzle":
+			code.append("ti[\"  \"] = {\"fl_sahara\"}\n");
+			code.append("ti[\"# \"] = {\"st_granite\"}\n");
+			code.append("ti[\"Q\"] = {\"st_puzzle\"}\n");
+			keys = new String[] {"  ", "  ", "# ", "Qa", "Qb", "Qc", "Qe", "Qj", "Qo", "QA", "QE", "QO", "Q1", "Q6", "Qp"};
+			res  = "res.puzzle(ti, \"Q\")";
+			break;
+			
+		default:
+			throw new IllegalArgumentException(resolver);
+		}
+		
+		code.append("wo(").append(res).append(", \"").append(keys[0]).append("\", {\n");
+		long seed = 0x5DEECE66DL;
+		for (int y = 0; y < dim[1]; ++y)
+		{
+			code.append("\"");
+			for (int x = 0; x < dim[0]; ++x)
+			{
+				seed = seed * 6364136223846793005L + 1442695040888963407L;
+				final int key = (int)((seed >>> 33) % keys.length);
+				code.append(keys[changed && x == 0 && y == 0 ? (key + 3) % keys.length : key]);
+			}
+			code.append(y < dim[1] - 1 ? "\",\n" : "\"\n");
+		}
+		code.append("})\n");
+		return code.toString();
+	}
+	
+	/**
+	 * Write a level file containing the given code.
+	 * 
+	 * @param code  Lua code of the level.
+	 * @return      Temporary level file (deleted on exit).
+	 * @throws IOException  if the file could not be written.
+	 */
+	public static Path writeLevel(String code) throws IOException
+	{
+		final Path file = Files.createTempFile("enigma-bench", ".xml");
+		file.toFile().deleteOnExit();
+		Files.write(file, (
+			"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\" ?>\n" +
+			"<el:level xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://enigma-game.org/schema/level/1 level.xsd\" xmlns:el=\"http://enigma-game.org/schema/level/1\">\n" +
+			"<el:protected>\n" +
+			"<el:info el:type=\"level\">\n" +
+			"<el:identity el:title=\"Benchmark\" el:id=\"bench\"/>\n" +
+			"<el:version el:score=\"1\" el:release=\"1\" el:revision=\"1\" el:status=\"experimental\"/>\n" +
+			"<el:author el:name=\"bench\"/>\n" +
+			"<el:copyright></el:copyright>\n" +
+			"<el:license el:type=\"GPL v2.0 or above\" el:open=\"true\"/>\n" +
+			"<el:compatibility el:enigma=\"1.20\"/>\n" +
+			"<el:modes el:easy=\"false\" el:single=\"true\" el:network=\"false\"/>\n" +
+			"<el:score el:easy=\"-\" el:difficult=\"-\"/>\n" +
+			"</el:info>\n" +
+			"<el:luamain><![CDATA[\n" + code + "]]></el:luamain>\n" +
+			"<el:i18n/>\n" +
+			"</el:protected>\n" +
+			"</el:level>\n").getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,89 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.bench;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.euwoyne.enigma_edit.lua.CodeAnalyser;
+import com.github.euwoyne.enigma_edit.lua.CodeData;
+import com.github.euwoyne.enigma_edit.model.Level;
+import com.github.euwoyne.enigma_edit.model.LevelReader;
+
+/**
+ * Level parsing: reading the level XML and analysing the lua code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark
+{
+	@Param({"ti", "autotile", "composer", "puzzle"})
+	public String resolver;
+	
+	@Param({"20x13", "60x40", "200x200", "500x500"})
+	public String size;
+	
+	private String      code;
+	private Path        file;
+	private LevelReader reader;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		code   = Fixtures.code(resolver, size);
+		file   = Fixtures.writeLevel(code);
+		reader = new LevelReader();
+	}
+	
+	@Benchmark
+	public Level parseXml() throws Exception
+	{
+		final Level level = new Level();
+		reader.setTarget(level);
+		reader.parse(file.toString());
+		return level;
+	}
+	
+	@Benchmark
+	public CodeData analyseCode() throws Exception
+	{
+		return CodeAnalyser.analyse(code);
+	}
+}
@@ -0,0 +1,122 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.bench;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.euwoyne.enigma_edit.lua.data.Mode;
+import com.github.euwoyne.enigma_edit.model.ImageTile;
+import com.github.euwoyne.enigma_edit.model.RenderingAgent;
+import com.github.euwoyne.enigma_edit.model.Sprite;
+import com.github.euwoyne.enigma_edit.model.SpriteFolder;
+import com.github.euwoyne.enigma_edit.model.Tileset;
+import com.github.euwoyne.enigma_edit.model.World;
+import com.github.euwoyne.enigma_edit.view.swing.AwtSpriteSet;
+
+/**
+ * Headless rendering of an analysed world into an off-screen buffer.
+ * Requires the Enigma sprite folder, which is taken from the system property
+ * {@code enigma_edit.gfx} (default {@code /usr/local/share/enigma}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark implements RenderingAgent
+{
+	private static final int SIZE = 32;
+	
+	@Param({"ti", "autotile", "composer", "puzzle"})
+	public String resolver;
+	
+	@Param({"20x13", "60x40", "200x200"})
+	public String size;
+	
+	private World         world;
+	private BufferedImage buffer;
+	private Graphics2D    graphics;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		final Tileset tileset = Fixtures.tileset();
+		if (!tileset.isLoaded())
+		{
+			tileset.loadSprites(new AwtSpriteSet(
+				new SpriteFolder(Paths.get(System.getProperty("enigma_edit.gfx", "/usr/local/share/enigma"))),
+				new Font("normal", Font.PLAIN, 10)));
+		}
+		world = new World(Fixtures.code(resolver, size));
+		world.analyse(tileset);
+		buffer   = new BufferedImage(world.getWidth() * SIZE, world.getHeight() * SIZE, BufferedImage.TYPE_INT_ARGB);
+		graphics = buffer.createGraphics();
+	}
+	
+	@TearDown
+	public void tearDown()
+	{
+		graphics.dispose();
+	}
+	
+	@Override
+	public void draw(Sprite.Image sprite, int x, int y)
+	{
+		graphics.drawImage((BufferedImage)sprite, x * SIZE, y * SIZE, null);
+	}
+	
+	@Benchmark
+	public BufferedImage render() throws Exception
+	{
+		for (int x = 1; x <= world.getWidth(); ++x)
+		{
+			for (int y = 1; y <= world.getHeight(); ++y)
+			{
+				final ImageTile tile = world.getTile(x, y);
+				tile.draw_fl(this, x-1, y-1, SIZE, Mode.DIFFICULT);
+				tile.draw_it(this, x-1, y-1, SIZE, Mode.DIFFICULT);
+				tile.draw_ac(this, x-1, y-1, SIZE, Mode.DIFFICULT);
+				tile.draw_st(this, x-1, y-1, SIZE, Mode.DIFFICULT);
+			}
+		}
+		return buffer;
+	}
+}
@@ -0,0 +1,221 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.euwoyne.enigma_edit.lua.CodeAnalyser;
+import com.github.euwoyne.enigma_edit.lua.CodeData;
+import com.github.euwoyne.enigma_edit.lua.data.Mode;
+import com.github.euwoyne.enigma_edit.lua.data.Mode2;
+import com.github.euwoyne.enigma_edit.lua.data.Resolver;
+import com.github.euwoyne.enigma_edit.lua.data.Tile;
+import com.github.euwoyne.enigma_edit.lua.data.WoCallAPI20;
+
+/**
+ * Resolution check.
+ * Compares the tiles of every cell of the benchmark fixtures, as resolved by
+ * the world call (i.e. using the {@link com.github.euwoyne.enigma_edit.lua.data.ResolverCache
+ * resolver cache} and the memoization of the resolvers), with
+ * <ul>
+ * <li>the tiles resolved directly by a resolver of a fresh analysis for every key and</li>
+ * <li>the tiles stored in {@code <golden>/<resolver>-<size>.txt} (if present).</li>
+ * </ul>
+ * The golden files in {@code bench/golden} have been written by the resolvers
+ * before their fast paths were introduced (equal easy and difficult keys,
+ * autotile templates, composer layers and puzzle descriptors), so they detect
+ * any change of the resolved tiles, that the first comparison can not see
+ * (as both sides use the same fast paths). The only change applied to these
+ * resolvers before writing the files is the substitution of nested autotile
+ * template tables on a copy. The exit code is {@code 1}, if any cell differs.
+ * <pre>
+ * java -cp "bench-class:class:jar/*" com.github.euwoyne.enigma_edit.bench.ResolveCheck [-g golden] [size [resolver...]]
+ * </pre>
+ * Run it from the project root, before comparing benchmark results of resolver changes.
+ */
+public class ResolveCheck
+{
+	public static void main(String[] args) throws Exception
+	{
+		int arg = 0;
+		Path golden = Paths.get("bench", "golden");
+		if (args.length > 1 && args[0].equals("-g"))
+		{
+			golden = Paths.get(args[1]);
+			arg = 2;
+		}
+		final String   size      = args.length > arg     ? args[arg] : "20x13";
+		final String[] resolvers = args.length > arg + 1 ? Arrays.copyOfRange(args, arg + 1, args.length)
+		                                                 : new String[] {"ti", "autotile", "composer", "puzzle"};
+		int failed = 0;
+		for (String resolver : resolvers)
+		{
+			final String code = Fixtures.code(resolver, size);
+			final int    diff = check(code);
+			System.out.println((diff == 0 ? "OK    " : "FAIL  ") + resolver + " " + size + (diff == 0 ? "" : ": " + diff + " cells differ"));
+			failed += diff;
+			
+			final Path file = golden.resolve(resolver + "-" + size + ".txt");
+			if (!Files.isReadable(file))
+			{
+				System.out.println("SKIP  " + resolver + " " + size + " (golden): no file " + file);
+				continue;
+			}
+			final int goldenDiff = compare(code, Files.readAllLines(file, StandardCharsets.UTF_8));
+			System.out.println((goldenDiff == 0 ? "OK    " : "FAIL  ") + resolver + " " + size + " (golden)" + (goldenDiff == 0 ? "" : ": " + goldenDiff + " cells differ"));
+			failed += goldenDiff;
+		}
+		System.exit(failed > 0 ? 1 : 0);
+	}
+	
+	/**
+	 * Check all cells of a level.
+	 * 
+	 * @param code  Lua code of the level.
+	 * @return      Number of cells, that are resolved differently.
+	 * @throws Exception  if the code could not be analysed.
+	 */
+	private static int check(String code) throws Exception
+	{
+		final CodeData    data     = CodeAnalyser.analyse(code);
+		final WoCallAPI20 easyCall = data.getWorldCall(Mode2.EASY);
+		final WoCallAPI20 diffCall = data.getWorldCall(Mode2.DIFFICULT);
+		final int         width    = Math.max(easyCall.getWidth(Mode.EASY),  diffCall.getWidth(Mode.DIFFICULT));
+		final int         height   = Math.max(easyCall.getHeight(Mode.EASY), diffCall.getHeight(Mode.DIFFICULT));
+		
+		final Map<String, String> reference = new HashMap<String, String>();
+		int diff = 0;
+		for (int y = 1; y <= height; ++y)
+		{
+			for (int x = 1; x <= width; ++x)
+			{
+				final String easyKey = easyCall.getKey(x, y, Mode2.EASY);
+				final String diffKey = diffCall.getKey(x, y, Mode2.DIFFICULT);
+				final Tile   tile    = getTile(easyCall, diffCall, x, y);
+				final String expect  = reference.computeIfAbsent(easyKey + '\n' + diffKey, k ->
+				{
+					try
+					{
+						return signature(resolve(CodeAnalyser.analyse(code), easyKey, diffKey));
+					}
+					catch (Exception e)
+					{
+						throw new IllegalStateException(e);
+					}
+				});
+				if (!expect.equals(signature(tile)))
+				{
+					if (diff++ == 0)
+						System.out.println(x + "," + y + " (" + easyKey + "/" + diffKey + "):\n  expected " + expect + "\n  found    " + signature(tile));
+				}
+			}
+		}
+		return diff;
+	}
+	
+	/**
+	 * Compare all cells of a level with a golden file.
+	 * 
+	 * @param code    Lua code of the level.
+	 * @param golden  Lines of the golden file ({@code "<x>,<y> <signature>"} in row-major order).
+	 * @return        Number of cells, that are resolved differently.
+	 * @throws Exception  if the code could not be analysed.
+	 */
+	private static int compare(String code, List<String> golden) throws Exception
+	{
+		final CodeData    data     = CodeAnalyser.analyse(code);
+		final WoCallAPI20 easyCall = data.getWorldCall(Mode2.EASY);
+		final WoCallAPI20 diffCall = data.getWorldCall(Mode2.DIFFICULT);
+		final int         width    = Math.max(easyCall.getWidth(Mode.EASY),  diffCall.getWidth(Mode.DIFFICULT));
+		final int         height   = Math.max(easyCall.getHeight(Mode.EASY), diffCall.getHeight(Mode.DIFFICULT));
+		if (golden.size() != width * height)
+		{
+			System.out.println("golden file has " + golden.size() + " cells, level has " + width * height);
+			return Math.max(golden.size(), width * height);
+		}
+		
+		int diff = 0;
+		for (int y = 1; y <= height; ++y)
+		{
+			for (int x = 1; x <= width; ++x)
+			{
+				final String expect = golden.get((y-1) * width + (x-1));
+				final String found  = x + "," + y + " " + signature(getTile(easyCall, diffCall, x, y));
+				if (!expect.equals(found))
+				{
+					if (diff++ == 0)
+						System.out.println("golden:\n  expected " + expect + "\n  found    " + found);
+				}
+			}
+		}
+		return diff;
+	}
+	
+	/**
+	 * Get the tile of a cell from the world calls.
+	 * 
+	 * @param easyCall  World call of the easy mode.
+	 * @param diffCall  World call of the difficult mode.
+	 * @param x         X coordinate of the field ({@code 1 <= x <= width})
+	 * @param y         Y coordinate of the field ({@code 1 <= y <= height})
+	 * @return          Tile of the cell (both modes).
+	 */
+	private static Tile getTile(WoCallAPI20 easyCall, WoCallAPI20 diffCall, int x, int y)
+	{
+		return easyCall == diffCall ? easyCall.getTile(x, y)
+		     : Tile.composeMode(easyCall.getTile(x, y, Mode.EASY), diffCall.getTile(x, y, Mode.DIFFICULT));
+	}
+	
+	/**
+	 * Resolve a cell without any cache (as done before the resolver cache was introduced).
+	 * 
+	 * @param data     Fresh analysis of the level.
+	 * @param easyKey  Key of the cell in easy mode.
+	 * @param diffKey  Key of the cell in difficult mode.
+	 * @return         Tile of the cell.
+	 */
+	private static Tile resolve(CodeData data, String easyKey, String diffKey)
+	{
+		final Resolver easy = data.getWorldCall(Mode2.EASY).getResolver();
+		final Resolver diff = data.getWorldCall(Mode2.DIFFICULT).getResolver();
+		return Tile.composeMode(easyKey != null ? easy.resolve(easyKey, Mode.EASY)      : new Tile(),
+		                        diffKey != null ? diff.resolve(diffKey, Mode.DIFFICULT) : new Tile());
+	}
+	
+	private static String signature(Tile tile)
+	{
+		final StringBuilder s = new StringBuilder();
+		for (Tile.Part part : new Tile.Part[] {tile.fl(), tile.it(), tile.ac(), tile.st()})
+			for (Mode2 mode : Mode2.values())
+				s.append(part.getKey(mode)).append('=').append(part.get(mode)).append(' ');
+		return s.toString();
+	}
+}
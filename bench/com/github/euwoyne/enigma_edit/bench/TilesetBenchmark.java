@@ -0,0 +1,145 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.euwoyne.enigma_edit.model.SpriteStack;
+import com.github.euwoyne.enigma_edit.model.Tileset;
+import com.github.euwoyne.enigma_edit.model.Tileset.Attribute;
+import com.github.euwoyne.enigma_edit.model.Tileset.Group;
+import com.github.euwoyne.enigma_edit.model.Tileset.Kind;
+import com.github.euwoyne.enigma_edit.model.Tileset.ObjectProvider;
+import com.github.euwoyne.enigma_edit.model.Tileset.Page;
+import com.github.euwoyne.enigma_edit.model.Tileset.Variant;
+
+/**
+ * Tileset access: name lookup and attribute based variant selection.
+ * The objects used for variant selection are generated from the tileset:
+ * every kind with its default attributes, and with every enumeration value
+ * and the bounds of every numeric attribute set explicitly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TilesetBenchmark
+{
+	/** object with explicitly set attributes */
+	private static class Instance implements ObjectProvider
+	{
+		private final Kind                kind;
+		private final Map<String, String> attributes;
+		
+		Instance(Kind kind, String attrName, String value)
+		{
+			this.kind       = kind;
+			this.attributes = new HashMap<String, String>();
+			if (attrName != null) attributes.put(attrName, value);
+		}
+		
+		@Override public Kind          getKind()     {return kind;}
+		@Override public Group         getGroup()    {return kind.getGroup();}
+		@Override public String        getKindName() {return kind.getKindName();}
+		@Override public List<Variant> getVariant()  {return kind.getVariant(this);}
+		@Override public SpriteStack   getImage()    {return kind.getImage(this);}
+		
+		@Override
+		public String getAttribute(String attrName)
+		{
+			final String value = attributes.get(attrName);
+			return value != null ? value : kind.getAttribute(attrName);
+		}
+		
+		@Override
+		public boolean hasAttribute(String attrName)
+		{
+			return attributes.containsKey(attrName) || kind.hasAttribute(attrName);
+		}
+	}
+	
+	private Tileset              tileset;
+	private List<String>         names;
+	private List<ObjectProvider> objects;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		tileset = Fixtures.tileset();
+		names   = new ArrayList<String>();
+		objects = new ArrayList<ObjectProvider>();
+		for (Group group : tileset)
+		{
+			for (Page page : group)
+			{
+				for (Kind kind : page)
+				{
+					names.add(kind.getKindName());
+					names.add("#" + kind.getKindName());
+					objects.add(new Instance(kind, null, null));
+					for (Attribute attr : kind.getAttributes().values())
+					{
+						for (String value : attr.getEnums())
+							objects.add(new Instance(kind, attr.getName(), value));
+						if (attr.getMin() != null) objects.add(new Instance(kind, attr.getName(), attr.getMin().toString()));
+						if (attr.getMax() != null) objects.add(new Instance(kind, attr.getName(), attr.getMax().toString()));
+					}
+				}
+			}
+		}
+		names.add("no_such_kind");
+	}
+	
+	@Benchmark
+	public void lookup(Blackhole bh)
+	{
+		for (String name : names)
+			bh.consume(tileset.get(name));
+	}
+	
+	@Benchmark
+	public void selectVariant(Blackhole bh)
+	{
+		for (ObjectProvider obj : objects)
+			bh.consume(obj.getVariant());
+	}
+}
@@ -0,0 +1,98 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.euwoyne.enigma_edit.model.Tileset;
+import com.github.euwoyne.enigma_edit.model.World;
+
+/**
+ * World analysis: code analysis, tile resolution and cluster resolution,
+ * both complete and incremental (a single changed cell).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorldBenchmark
+{
+	@Param({"ti", "autotile", "composer", "puzzle"})
+	public String resolver;
+	
+	@Param({"20x13", "60x40", "200x200", "500x500"})
+	public String size;
+	
+	@Param({"true", "false"})
+	public boolean parallel;
+	
+	private Tileset tileset;
+	private String  code;
+	private String  changed;
+	private World   world;
+	private boolean toggle;
+	
+	@Setup
+	public void setup() throws Exception
+	{
+		World.setParallel(parallel);
+		tileset = Fixtures.tileset();
+		code    = Fixtures.code(resolver, size);
+		changed = Fixtures.code(resolver, size, true);
+		world   = new World(code);
+		world.analyse(tileset);
+	}
+	
+	@Benchmark
+	public World analyse() throws Exception
+	{
+		final World world = new World(code);
+		world.analyse(tileset);
+		return world;
+	}
+	
+	@Benchmark
+	public World update() throws Exception
+	{
+		toggle = !toggle;
+		world.resetCode(toggle ? changed : code);
+		world.update(tileset);
+		world.takeChanges();
+		return world;
+	}
+}
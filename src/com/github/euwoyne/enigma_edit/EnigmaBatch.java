@@ -0,0 +1,457 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.luaj.vm2.parser.ParseException;
+import org.xml.sax.SAXParseException;
+
+import com.github.euwoyne.enigma_edit.error.LevelLuaException;
+import com.github.euwoyne.enigma_edit.error.MissingImageException;
+import com.github.euwoyne.enigma_edit.error.WrongSpriteDirException;
+import com.github.euwoyne.enigma_edit.lua.data.Mode;
+import com.github.euwoyne.enigma_edit.model.ImageTile;
+import com.github.euwoyne.enigma_edit.model.Level;
+import com.github.euwoyne.enigma_edit.model.LevelReader;
+import com.github.euwoyne.enigma_edit.model.RenderingAgent;
+import com.github.euwoyne.enigma_edit.model.Sprite;
+import com.github.euwoyne.enigma_edit.model.SpriteFolder;
+import com.github.euwoyne.enigma_edit.model.Tileset;
+import com.github.euwoyne.enigma_edit.model.TilesetCache;
+import com.github.euwoyne.enigma_edit.model.World;
+import com.github.euwoyne.enigma_edit.view.swing.AwtSpriteSet;
+
+/**
+ * Headless batch validator.
+ * Reads and analyses all level files ({@code *.xml}) of a directory in
+ * parallel, optionally renders a PNG preview of each level, and writes a
+ * JSON report with the errors and timings of every level.
+ * <p>
+ * Usage: {@code EnigmaBatch [options] <level directory>}
+ * <ul>
+ * <li>{@code -o <dir>}      output directory for report and previews (default: {@code batch})</li>
+ * <li>{@code -r}            render previews</li>
+ * <li>{@code -s <size>}     preview field size in pixels (default: 16)</li>
+ * <li>{@code -j <threads>}  number of levels processed in parallel (default: number of cores)</li>
+ * <li>{@code -e <path>}     Enigma data path providing the sprites (default: {@code /usr/local/share/enigma})</li>
+ * </ul>
+ * The exit code is {@code 0}, if all levels are valid, {@code 1} if any level
+ * failed and {@code 2} on usage errors.
+ */
+class EnigmaBatch
+{
+	/**
+	 * Result of a single level.
+	 */
+	private static class Result
+	{
+		final Path   file;
+		boolean      valid     = true;
+		String       error     = null;
+		String       location  = null;
+		int          width     = 0;
+		int          height    = 0;
+		int          missing   = 0;
+		long         parseNs   = 0;
+		long         analyseNs = 0;
+		long         renderNs  = 0;
+		
+		Result(Path file) {this.file = file;}
+		
+		/**
+		 * Mark the level as invalid.
+		 * 
+		 * @param message  Error message (the name of the exception is used, if this is {@code null}).
+		 * @param e        Exception, that caused the failure.
+		 */
+		void fail(String message, Throwable e)
+		{
+			this.valid = false;
+			this.error = message != null ? message : e.getClass().getSimpleName();
+		}
+	}
+	
+	/**
+	 * Rendering agent drawing sprites into an image.
+	 */
+	private static class ImageRenderer implements RenderingAgent
+	{
+		private final Graphics2D g;
+		private final int        size;
+		
+		ImageRenderer(Graphics2D g, int size)
+		{
+			this.g    = g;
+			this.size = size;
+		}
+		
+		@Override
+		public void draw(Sprite.Image sprite, int x, int y)
+		{
+			g.drawImage((BufferedImage)sprite, x * size, y * size, null);
+		}
+	}
+	
+	private final Tileset       tileset;
+	private final Path          output;
+	private final boolean       render;
+	private final int           size;
+	private final AtomicInteger missing;
+	
+	private EnigmaBatch(Tileset tileset, Path output, boolean render, int size)
+	{
+		this.tileset = tileset;
+		this.output  = output;
+		this.render  = render;
+		this.size    = size;
+		this.missing = new AtomicInteger();
+	}
+	
+	public static void main(String[] argv)
+	{
+		if (System.getProperty("java.awt.headless") == null)
+			System.setProperty("java.awt.headless", "true");
+		
+		// parse arguments
+		Path    input   = null;
+		Path    output  = Paths.get("batch");
+		Path    enigma  = Paths.get("/usr/local/share/enigma");
+		boolean render  = false;
+		int     size    = 16;
+		int     threads = Runtime.getRuntime().availableProcessors();
+		try
+		{
+			for (int i = 0; i < argv.length; ++i)
+			{
+				switch (argv[i])
+				{
+				case "-o": output  = Paths.get(argv[++i]);          break;
+				case "-r": render  = true;                          break;
+				case "-s": size    = Integer.parseInt(argv[++i]);   break;
+				case "-j": threads = Integer.parseInt(argv[++i]);   break;
+				case "-e": enigma  = Paths.get(argv[++i]);          break;
+				default:
+					if (input != null || argv[i].startsWith("-")) throw new IllegalArgumentException(argv[i]);
+					input = Paths.get(argv[i]);
+				}
+			}
+			if (input == null || size < 1 || threads < 1) throw new IllegalArgumentException();
+		}
+		catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e)
+		{
+			System.err.println("usage: EnigmaBatch [-o <dir>] [-r] [-s <size>] [-j <threads>] [-e <enigma path>] <level directory>");
+			System.exit(2);
+		}
+		
+		try
+		{
+			// setup tileset
+			System.out.print("Setup tileset...");
+			final Tileset tileset = TilesetCache.load("data/tileset.xml", "data/tileset_de.xml");
+			System.out.println("DONE");
+			
+			// setup sprites
+			if (render)
+			{
+				System.out.print("Setup sprites...");
+				tileset.loadSprites(new AwtSpriteSet(new SpriteFolder(enigma), new Font("normal", Font.PLAIN, 10)));
+				System.out.println("DONE");
+			}
+			
+			// process levels
+			final List<Path> files = new ArrayList<Path>();
+			try (DirectoryStream<Path> dir = Files.newDirectoryStream(input, "*.xml"))
+			{
+				for (Path file : dir) files.add(file);
+			}
+			files.sort(null);
+			Files.createDirectories(output);
+			
+			final List<Result> results = new EnigmaBatch(tileset, output, render, size).run(files, threads);
+			
+			int failed = 0;
+			for (Result result : results)
+				if (!result.valid) ++failed;
+			System.out.println(results.size() + " levels, " + failed + " failed, report written to " + output.resolve("report.json"));
+			System.exit(failed > 0 ? 1 : 0);
+		}
+		catch (WrongSpriteDirException | MissingImageException e)
+		{
+			System.out.println("FAIL");
+			System.err.println("FATAL ERROR: " + e.getMessage());
+			System.exit(2);
+		}
+		catch (Exception e)
+		{
+			System.out.println("FAIL");
+			System.err.println("FATAL ERROR: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(2);
+		}
+	}
+	
+	/**
+	 * Process the given level files and write the report.
+	 * Levels are processed in parallel, each world is resolved sequentially.
+	 * 
+	 * @param files    Level files.
+	 * @param threads  Number of levels processed in parallel.
+	 * @return         Results (in the order of the given files).
+	 * @throws Exception  if the report could not be written.
+	 */
+	private List<Result> run(List<Path> files, int threads) throws Exception
+	{
+		World.setParallel(false);
+		final long                 start   = System.nanoTime();
+		final ExecutorService      pool    = Executors.newFixedThreadPool(threads);
+		final List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		for (Path file : files)
+			futures.add(pool.submit(() -> process(file)));
+		
+		final List<Result> results = new ArrayList<Result>();
+		for (int i = 0; i < futures.size(); ++i)
+		{
+			Result result;
+			try
+			{
+				result = futures.get(i).get();
+			}
+			catch (ExecutionException e)
+			{
+				result = new Result(files.get(i));
+				result.fail(message(e.getCause()), e.getCause());
+			}
+			System.out.println((result.valid ? "OK    " : "FAIL  ") + result.file.getFileName()
+				+ (result.valid ? "" : ": " + (result.location != null ? result.location + ": " : "") + result.error));
+			results.add(result);
+		}
+		pool.shutdown();
+		
+		writeReport(results, System.nanoTime() - start, threads);
+		return results;
+	}
+	
+	/**
+	 * Read, analyse and render a single level.
+	 * 
+	 * @param file  Level file.
+	 * @return      Result of the level.
+	 */
+	private Result process(Path file)
+	{
+		final Result result = new Result(file);
+		try
+		{
+			long time = System.nanoTime();
+			final Level       level  = new Level();
+			final LevelReader reader = new LevelReader();
+			reader.setTarget(level);
+			reader.parse(file.toAbsolutePath().toString());
+			result.parseNs = System.nanoTime() - time;
+			
+			time = System.nanoTime();
+			level.analyse(tileset);
+			result.analyseNs = System.nanoTime() - time;
+			
+			final World world = level.worlds.getLast();
+			result.width  = world.getWidth();
+			result.height = world.getHeight();
+			
+			if (render)
+			{
+				time = System.nanoTime();
+				renderPreview(world, result);
+				result.renderNs = System.nanoTime() - time;
+			}
+		}
+		catch (SAXParseException e)
+		{
+			result.fail(e.getMessage(), e);
+			result.location = e.getLineNumber() + ":" + e.getColumnNumber();
+		}
+		catch (ParseException e)
+		{
+			result.fail(e.getMessage(), e);
+			result.location = e.currentToken != null ? e.currentToken.beginLine + ":" + e.currentToken.beginColumn : null;
+		}
+		catch (LevelLuaException e)
+		{
+			result.fail(e.getLocalizedMessage(), e);
+			result.location = e.code.isNone() ? null : e.code.startString();
+		}
+		catch (Throwable e)
+		{
+			// errors (e.g. a stack overflow in a deeply nested level) only fail this level
+			result.fail(message(e), e);
+		}
+		return result;
+	}
+	
+	/**
+	 * Error message of an unexpected failure.
+	 * 
+	 * @param e  Exception or error, that caused the failure.
+	 * @return   Message including the exception name ({@code null}, if the exception has no message).
+	 */
+	private static String message(Throwable e)
+	{
+		return e.getMessage() != null ? e.getClass().getSimpleName() + ": " + e.getMessage() : null;
+	}
+	
+	/**
+	 * Render a preview image of a world (difficult mode).
+	 * Missing images are counted per layer, so that the other layers of the
+	 * cell are still drawn.
+	 * 
+	 * @param world   Analysed world.
+	 * @param result  Result to record missing images in.
+	 * @throws IOException  if the image could not be written.
+	 */
+	private void renderPreview(World world, Result result) throws IOException
+	{
+		final BufferedImage image    = new BufferedImage(world.getWidth() * size, world.getHeight() * size, BufferedImage.TYPE_INT_ARGB);
+		final Graphics2D    g        = image.createGraphics();
+		final ImageRenderer renderer = new ImageRenderer(g, size);
+		for (int x = 1; x <= world.getWidth(); ++x)
+		{
+			for (int y = 1; y <= world.getHeight(); ++y)
+			{
+				final ImageTile tile = world.getTile(x, y);
+				if (tile == null) continue;
+				for (int layer = 0; layer < 4; ++layer)
+				{
+					try
+					{
+						switch (layer)
+						{
+						case 0: tile.draw_fl(renderer, x-1, y-1, size, Mode.DIFFICULT); break;
+						case 1: tile.draw_it(renderer, x-1, y-1, size, Mode.DIFFICULT); break;
+						case 2: tile.draw_ac(renderer, x-1, y-1, size, Mode.DIFFICULT); break;
+						case 3: tile.draw_st(renderer, x-1, y-1, size, Mode.DIFFICULT); break;
+						}
+					}
+					catch (MissingImageException e)
+					{
+						++result.missing;
+						missing.incrementAndGet();
+					}
+				}
+			}
+		}
+		g.dispose();
+		
+		final String name = result.file.getFileName().toString();
+		ImageIO.write(image, "png", output.resolve(name.substring(0, name.length() - 4) + ".png").toFile());
+	}
+	
+	/**
+	 * Write the JSON report.
+	 * 
+	 * @param results  Results of all levels.
+	 * @param totalNs  Total processing time.
+	 * @param threads  Number of threads used.
+	 * @throws IOException  if the report could not be written.
+	 */
+	private void writeReport(List<Result> results, long totalNs, int threads) throws IOException
+	{
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output.resolve("report.json"), StandardCharsets.UTF_8)))
+		{
+			int failed = 0;
+			for (Result result : results)
+				if (!result.valid) ++failed;
+			
+			out.println("{");
+			out.println("  \"levels\": " + results.size() + ",");
+			out.println("  \"failed\": " + failed + ",");
+			out.println("  \"missingImages\": " + missing.get() + ",");
+			out.println("  \"threads\": " + threads + ",");
+			out.println("  \"totalMs\": " + ms(totalNs) + ",");
+			out.println("  \"results\": [");
+			for (int i = 0; i < results.size(); ++i)
+			{
+				final Result r = results.get(i);
+				out.print("    {\"file\": " + json(r.file.getFileName().toString()));
+				out.print(", \"valid\": " + r.valid);
+				if (!r.valid)
+				{
+					out.print(", \"error\": " + json(r.error));
+					if (r.location != null) out.print(", \"location\": " + json(r.location));
+				}
+				out.print(", \"width\": " + r.width + ", \"height\": " + r.height);
+				if (render) out.print(", \"missingImages\": " + r.missing);
+				out.print(", \"parseMs\": " + ms(r.parseNs) + ", \"analyseMs\": " + ms(r.analyseNs));
+				if (render) out.print(", \"renderMs\": " + ms(r.renderNs));
+				out.println(i < results.size() - 1 ? "}," : "}");
+			}
+			out.println("  ]");
+			out.println("}");
+		}
+	}
+	
+	private static String ms(long ns)
+	{
+		return String.format(Locale.ROOT, "%.3f", ns / 1e6);
+	}
+	
+	private static String json(String s)
+	{
+		final StringBuilder str = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); ++i)
+		{
+			final char c = s.charAt(i);
+			switch (c)
+			{
+			case '"':  str.append("\\\""); break;
+			case '\\': str.append("\\\\"); break;
+			case '\n': str.append("\\n");  break;
+			case '\r': str.append("\\r");  break;
+			case '\t': str.append("\\t");  break;
+			default:
+				if (c < 0x20) str.append(String.format("\\u%04x", (int)c));
+				else          str.append(c);
+			}
+		}
+		return str.append('"').toString();
+	}
+}
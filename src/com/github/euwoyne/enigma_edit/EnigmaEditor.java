@@ -39,6 +39,9 @@ class EnigmaEditor
 		options.binaryPath = Paths.get("/usr/local/bin/enigma");
 		options.enigmaPath = Paths.get("/usr/local/share/enigma");
 		options.userPath   = Paths.get(System.getProperty("user.home")).resolve(".enigma");
+		options.layerCacheSize = Long.getLong("enigma_edit.layercache", 256) << 20;
+		options.spritePack     = Boolean.parseBoolean(System.getProperty("enigma_edit.spritepack", "true"));
+		options.updateRate     = Integer.getInteger("enigma_edit.fps", 60);
 		System.out.println("DONE");
 		
 		// start controller
@@ -0,0 +1,252 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of timing and allocation metrics.
+ * Code sections are measured as named phases, counters record sizes (e.g.
+ * the number of cells or keys processed). Measurement is disabled by default
+ * and enabled by the system property {@code enigma_edit.metrics} or by
+ * {@link #setEnabled}. While disabled, {@link #start} returns a shared timer
+ * doing nothing.
+ * <p>
+ * Usage:
+ * <pre>
+ * try (Metrics.Timer t = Metrics.start("world.resolve"))
+ * {
+ *     ...
+ * }
+ * </pre>
+ * Allocations are those of the measuring thread (as reported by the JVM's
+ * {@link ThreadMXBean}), so work handed to other threads is not included.
+ * Phases distributing their work across threads are therefore started by
+ * {@link #startParallel} and reported without allocations.
+ */
+public final class Metrics
+{
+	/**
+	 * Accumulated measurements of a phase.
+	 */
+	public static final class Phase
+	{
+		/** phase name */
+		public final String name;
+		
+		private final LongAdder       count = new LongAdder();
+		private final LongAdder       nanos = new LongAdder();
+		private final LongAccumulator max   = new LongAccumulator(Math::max, 0);
+		private final LongAdder       bytes = new LongAdder();
+		private volatile boolean      parallel;
+		
+		Phase(String name) {this.name = name;}
+		
+		/** @return  Number of measured runs. */
+		public long getCount()    {return count.sum();}
+		
+		/** @return  Total time of all runs (in nanoseconds). */
+		public long getNanos()    {return nanos.sum();}
+		
+		/** @return  Time of the slowest run (in nanoseconds). */
+		public long getMaxNanos() {return max.get();}
+		
+		/** @return  Total number of bytes allocated by all runs ({@code 0}, if not supported). */
+		public long getBytes()    {return bytes.sum();}
+		
+		/** @return  {@code true}, if any run was distributed across threads (i.e. the allocations are incomplete). */
+		public boolean isParallel() {return parallel;}
+		
+		void add(long time, long allocated)
+		{
+			count.increment();
+			nanos.add(time);
+			max.accumulate(time);
+			if (allocated > 0) bytes.add(allocated);
+		}
+	}
+	
+	/**
+	 * Running measurement of a phase.
+	 * Closing the timer adds the elapsed time to the phase.
+	 */
+	public static class Timer implements AutoCloseable
+	{
+		private final Phase phase;
+		private final long  startNanos;
+		private final long  startBytes;
+		
+		Timer(Phase phase)
+		{
+			this.phase      = phase;
+			this.startBytes = allocatedBytes();
+			this.startNanos = System.nanoTime();
+		}
+		
+		@Override
+		public void close()
+		{
+			final long time = System.nanoTime() - startNanos;
+			phase.add(time, startBytes < 0 ? 0 : allocatedBytes() - startBytes);
+		}
+	}
+	
+	/** timer used while disabled */
+	private static final Timer NONE = new Timer(new Phase("")) {@Override public void close() {}};
+	
+	private static final Map<String, Phase>     phases   = new ConcurrentSkipListMap<String, Phase>();
+	private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<String, LongAdder>();
+	private static final ThreadMXBean           threads  = ManagementFactory.getThreadMXBean();
+	private static volatile boolean             enabled  = Boolean.getBoolean("enigma_edit.metrics");
+	
+	private Metrics() {}
+	
+	/**
+	 * Enable or disable measurement.
+	 * 
+	 * @param enable  {@code true} to record metrics.
+	 */
+	public static void setEnabled(boolean enable)
+	{
+		enabled = enable;
+	}
+	
+	/**
+	 * @return  {@code true}, if metrics are recorded.
+	 */
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+	
+	/**
+	 * Start measuring a phase.
+	 * 
+	 * @param phase  Phase name.
+	 * @return       Timer to be closed at the end of the phase.
+	 */
+	public static Timer start(String phase)
+	{
+		if (!enabled) return NONE;
+		return new Timer(phases.computeIfAbsent(phase, Phase::new));
+	}
+	
+	/**
+	 * Start measuring a phase, whose work is distributed across threads.
+	 * Only the time is meaningful, since the allocations of other threads
+	 * are not visible to the timer. The phase is reported without allocations.
+	 * 
+	 * @param phase  Phase name.
+	 * @return       Timer to be closed at the end of the phase.
+	 */
+	public static Timer startParallel(String phase)
+	{
+		if (!enabled) return NONE;
+		final Phase p = phases.computeIfAbsent(phase, Phase::new);
+		p.parallel = true;
+		return new Timer(p);
+	}
+	
+	/**
+	 * Add to a counter.
+	 * 
+	 * @param counter  Counter name.
+	 * @param n        Value to add.
+	 */
+	public static void count(String counter, long n)
+	{
+		if (!enabled) return;
+		counters.computeIfAbsent(counter, c -> new LongAdder()).add(n);
+	}
+	
+	/**
+	 * @return  All phases measured so far (ordered by name).
+	 */
+	public static Collection<Phase> getPhases()
+	{
+		return new ArrayList<Phase>(phases.values());
+	}
+	
+	/**
+	 * @param counter  Counter name.
+	 * @return         Current value of the counter.
+	 */
+	public static long getCount(String counter)
+	{
+		final LongAdder value = counters.get(counter);
+		return value != null ? value.sum() : 0;
+	}
+	
+	/**
+	 * Discard all measurements.
+	 */
+	public static void reset()
+	{
+		phases.clear();
+		counters.clear();
+	}
+	
+	/**
+	 * Format all measurements as table (one line per phase or counter).
+	 * 
+	 * @return  Metrics report.
+	 */
+	public static String dump()
+	{
+		final List<String> lines = new ArrayList<String>();
+		lines.add(String.format("%-24s %8s %12s %12s %12s %14s", "phase", "runs", "total ms", "avg ms", "max ms", "alloc KiB"));
+		for (Phase phase : phases.values())
+		{
+			final long runs = phase.getCount();
+			lines.add(String.format("%-24s %8d %12.3f %12.3f %12.3f %14s",
+				phase.name, runs,
+				phase.getNanos() / 1e6,
+				runs > 0 ? phase.getNanos() / 1e6 / runs : 0.0,
+				phase.getMaxNanos() / 1e6,
+				phase.isParallel() ? "n/a (parallel)" : Long.toString(phase.getBytes() >> 10)));
+		}
+		for (Map.Entry<String, LongAdder> counter : counters.entrySet())
+			lines.add(String.format("%-24s %8d", counter.getKey(), counter.getValue().sum()));
+		return String.join(System.lineSeparator(), lines);
+	}
+	
+	private static long allocatedBytes()
+	{
+		if (threads instanceof com.sun.management.ThreadMXBean)
+		{
+			final com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)threads;
+			if (mx.isThreadAllocatedMemorySupported() && mx.isThreadAllocatedMemoryEnabled())
+				return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
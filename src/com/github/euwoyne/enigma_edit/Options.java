@@ -30,5 +30,14 @@ public class Options
 	public Path binaryPath;
 	public Path enigmaPath;
 	public Path userPath;
+	
+	/** maximal memory (in bytes) used for cached layer images of the level view */
+	public long layerCacheSize;
+	
+	/** store rendered sprites in the user path, to be reused on the next start */
+	public boolean spritePack;
+	
+	/** maximal number of UI update frames per second */
+	public int updateRate;
 }
 
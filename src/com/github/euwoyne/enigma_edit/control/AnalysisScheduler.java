@@ -0,0 +1,169 @@
+package com.github.euwoyne.enigma_edit.control;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.github.euwoyne.enigma_edit.Metrics;
+import com.github.euwoyne.enigma_edit.model.Level;
+
+/**
+ * Debouncing executor for code analysis.
+ * All analyses are executed on a single background thread. A new request is
+ * only started after the code did not change for a short delay, so that bursts
+ * of changes are coalesced into a single analysis of the latest code. Requests
+ * superseded by a newer one are dropped, and a running analysis of outdated code
+ * is interrupted. The analysis code is expected to check the interrupted flag of
+ * its thread and to abort by throwing a {@link CancellationException}.
+ * Every request is tagged with a generation number, that increases with every
+ * call to {@link #schedule}.
+ */
+class AnalysisScheduler
+{
+	/**
+	 * Analysis job.
+	 */
+	static interface Job
+	{
+		/**
+		 * Run the analysis.
+		 * 
+		 * @param level       Level the code belongs to.
+		 * @param code        Code to be analysed.
+		 * @param generation  Generation number of this request.
+		 * @throws CancellationException  if the analysis has been cancelled.
+		 */
+		void run(Level level, String code, long generation) throws CancellationException;
+	}
+	
+	private final ScheduledExecutorService executor;
+	private final Job                      job;
+	private final long                     delay;
+	
+	private long      generation;
+	private Level     pendingLevel;
+	private String    pendingCode;
+	private Future<?> pending;
+	private Future<?> running;
+	private long      runningGeneration;
+	
+	/**
+	 * Create a scheduler.
+	 * 
+	 * @param job    Analysis to be executed.
+	 * @param delay  Debounce delay in milliseconds.
+	 */
+	AnalysisScheduler(Job job, long delay)
+	{
+		this.executor = Executors.newSingleThreadScheduledExecutor(r ->
+		{
+			final Thread thread = new Thread(r, "analysis");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.job        = job;
+		this.delay      = delay;
+		this.generation = 0;
+	}
+	
+	/**
+	 * Request the analysis of the given code.
+	 * Any pending request is dropped and a running analysis is cancelled.
+	 * 
+	 * @param level  Level the code belongs to.
+	 * @param code   Code to be analysed.
+	 * @return       Generation number of the request.
+	 */
+	synchronized long schedule(Level level, String code)
+	{
+		final long gen = ++generation;
+		pendingLevel = level;
+		pendingCode  = code;
+		if (pending != null)
+			pending.cancel(false);
+		if (running != null && runningGeneration < gen)
+			running.cancel(true);
+		pending = executor.schedule(() -> execute(gen), delay, TimeUnit.MILLISECONDS);
+		return gen;
+	}
+	
+	/**
+	 * Drop any pending request and cancel a running analysis.
+	 * This starts a new generation without scheduling an analysis (e.g.
+	 * because a new level has been loaded).
+	 */
+	synchronized void cancel()
+	{
+		++generation;
+		pendingLevel = null;
+		pendingCode  = null;
+		if (pending != null) pending.cancel(false);
+		if (running != null) running.cancel(true);
+		pending = null;
+	}
+	
+	/**
+	 * Return the generation number of the latest request.
+	 */
+	synchronized long getGeneration()
+	{
+		return generation;
+	}
+	
+	/**
+	 * Check, if the given generation has been superseded by a newer request.
+	 * 
+	 * @param gen  Generation number.
+	 * @return     {@code true}, if there is a newer request.
+	 */
+	synchronized boolean isOutdated(long gen)
+	{
+		return gen < generation;
+	}
+	
+	private void execute(long gen)
+	{
+		final Level  level;
+		final String code;
+		synchronized (this)
+		{
+			if (gen != generation) return;
+			level             = pendingLevel;
+			code              = pendingCode;
+			pendingLevel      = null;
+			pendingCode       = null;
+			running           = pending;
+			runningGeneration = gen;
+			pending           = null;
+		}
+		try
+		{
+			job.run(level, code, gen);
+		}
+		catch (CancellationException e)
+		{
+			Metrics.count("analysis.cancelled", 1);
+		}
+		finally
+		{
+			synchronized (this)
+			{
+				if (runningGeneration == gen)
+					running = null;
+			}
+			Thread.interrupted();
+		}
+	}
+	
+	/**
+	 * Cancel all requests and stop the analysis thread.
+	 */
+	synchronized void stop()
+	{
+		if (pending != null) pending.cancel(false);
+		if (running != null) running.cancel(true);
+		executor.shutdownNow();
+	}
+}
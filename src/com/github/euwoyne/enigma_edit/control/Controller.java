@@ -9,12 +9,14 @@ import java.util.Arrays;
 import javax.swing.Icon;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.luaj.vm2.parser.ParseException;
 import org.xml.sax.SAXException;
 
+import com.github.euwoyne.enigma_edit.Metrics;
 import com.github.euwoyne.enigma_edit.Options;
 import com.github.euwoyne.enigma_edit.error.LevelLuaException;
 import com.github.euwoyne.enigma_edit.error.LevelXMLException;
@@ -26,11 +28,13 @@ import com.github.euwoyne.enigma_edit.lua.data.Tile;
 import com.github.euwoyne.enigma_edit.model.Level;
 import com.github.euwoyne.enigma_edit.model.LevelReader;
 import com.github.euwoyne.enigma_edit.model.SpriteFolder;
+import com.github.euwoyne.enigma_edit.model.SpritePreloader;
 import com.github.euwoyne.enigma_edit.model.Tileset;
-import com.github.euwoyne.enigma_edit.model.TilesetReader;
+import com.github.euwoyne.enigma_edit.model.TilesetCache;
 import com.github.euwoyne.enigma_edit.view.swing.AwtSpriteSet;
 import com.github.euwoyne.enigma_edit.view.swing.FileOpenDialog;
 import com.github.euwoyne.enigma_edit.view.swing.MainWnd;
+import com.github.euwoyne.enigma_edit.view.swing.SpritePack;
 
 import jsyntaxpane.syntaxkits.EnigmaSyntaxKit;
 
@@ -38,10 +42,15 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 {
 	private Options options;
 	private Tileset tileset;
-	private Level   level;
+	private volatile Level level;
 	private MainWnd mainWnd;
 	
-	private UpdateThread updater;
+	private UpdateThread      updater;
+	private AnalysisScheduler analysis;
+	private SpritePreloader   sprites;
+	
+	/** Delay (in milliseconds) between the last code change and the start of its analysis. */
+	private static final long ANALYSIS_DELAY = 250;
 	
 	public Controller(Options options)
 	{
@@ -50,7 +59,9 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 		loadDefaultLevel();
 		setupLookAndFeel();
 		startUpdater();
+		analysis = new AnalysisScheduler(this::analyseCode, ANALYSIS_DELAY);
 		setupUI();
+		startSpriteLoader();
 	}
 	
 	private void loadTileset()
@@ -61,9 +72,16 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 		try
 		{
 			System.out.print("Setup sprites...");
-			spriteset = new AwtSpriteSet(new SpriteFolder(options.enigmaPath),
-			                             new Font("normal", Font.PLAIN, 10));
+			final SpriteFolder folder = new SpriteFolder(options.enigmaPath);
+			final Font         font   = new Font("normal", Font.PLAIN, 10);
+			spriteset = new AwtSpriteSet(folder, font);
 			System.out.println("DONE");
+			if (options.spritePack)
+			{
+				final SpritePack pack = new SpritePack(options.userPath.resolve("editor").resolve("sprites.pack"), folder, font);
+				System.out.println("Sprite pack: " + pack.load() + " images");
+				spriteset.setPack(pack);
+			}
 		}
 		catch (WrongSpriteDirException e)
 		{
@@ -75,11 +93,9 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 		// setup tileset
 		try {
 			System.out.print("Setup tileset...");
-			TilesetReader reader;
-			reader = new TilesetReader();
-			tileset = reader.parse("data/tileset.xml");
-			reader.addI18n("data/tileset_de.xml", tileset);
+			tileset = TilesetCache.load("data/tileset.xml", "data/tileset_de.xml");
 			tileset.loadSprites(spriteset);
+			spriteset.setLoading(true);
 			System.out.println("DONE");
 			tileset.dump();
 		}
@@ -149,7 +165,7 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 	private void startUpdater()
 	{
 		System.out.print("Start UI Updater...");
-		updater = new UpdateThread();
+		updater = new UpdateThread(options.updateRate);
 		updater.start();
 		System.out.println("DONE");
 	}
@@ -181,6 +197,56 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 		}
 	}
 	
+	private void startSpriteLoader()
+	{
+		final AwtSpriteSet spriteset = (AwtSpriteSet)tileset.getSpriteset();
+		final long         start     = System.nanoTime();
+		System.out.println("Load sprites in background...");
+		sprites = new SpritePreloader(tileset, Runtime.getRuntime().availableProcessors());
+		sprites.start(new int[] {MainWnd.LEVEL_SIZE, MainWnd.KIND_SIZE}, new SpritePreloader.Listener()
+		{
+			@Override
+			public void progress(int done, int total)
+			{
+				mainWnd.setSpriteProgress(done, total);
+			}
+			
+			@Override
+			public void finished(int failed)
+			{
+				spriteset.setLoading(false);
+				mainWnd.spritesLoaded();
+				System.out.println("Load sprites in background...DONE (" + (System.nanoTime() - start) / 1000000 + " ms"
+					+ (failed > 0 ? ", " + failed + " missing" : "") + ", " + spriteset.getSheetCache() + ")");
+				saveSpritePack();
+			}
+		});
+	}
+	
+	private void saveSpritePack()
+	{
+		final SpritePack pack = ((AwtSpriteSet)tileset.getSpriteset()).getPack();
+		if (pack == null) return;
+		try
+		{
+			System.out.print("Save sprite pack...");
+			pack.save();
+			System.out.println("DONE (" + pack + ")");
+		}
+		catch (IOException e)
+		{
+			System.out.println("FAIL");
+			System.err.println("ERROR: " + e.getMessage());
+		}
+	}
+	
+	private void dumpMetrics(String title)
+	{
+		if (!Metrics.isEnabled()) return;
+		System.out.println("Metrics (" + title + "):");
+		System.out.println(Metrics.dump());
+	}
+	
 	public void scheduleUpdate(Updateable u)
 	{
 		updater.scheduleUpdate(u);
@@ -194,31 +260,41 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 		}
 		catch (ParseException e)
 		{
-			JOptionPane.showMessageDialog(
-					mainWnd,
-					e.currentToken.beginLine + ":" + e.currentToken.beginColumn + ": ERROR: " + e.getLocalizedMessage(),
-					"Level XML Error",
-					JOptionPane.ERROR_MESSAGE);
-			mainWnd.setCode(level, 0);
+			showError(e);
 		}
 		catch (LevelLuaException e)
 		{
-			e.printStackTrace();
-			JOptionPane.showMessageDialog(
-					mainWnd,
-					(e.code.isNone() ? "" : e.code.startString() + ": ")+ "ERROR: " + e.getLocalizedMessage(),
-					"Level Lua Error",
-					JOptionPane.ERROR_MESSAGE);
-			mainWnd.setCode(level, 0);
-			System.err.println(e.code.startString() + ": ERROR: " + e.getLocalizedMessage());
-			if (!e.code.isNone())
-			{
-				System.err.println("    " + e.code.getLine(level.luamain));
-				for (int i = 0; i < 3 + e.code.getBeginColumn(); ++i)
-					System.err.print(' ');
-				System.err.println('^');
-				mainWnd.moveCursorToSnippet(e.code);
-			}
+			showError(e);
+		}
+	}
+	
+	private void showError(ParseException e)
+	{
+		JOptionPane.showMessageDialog(
+				mainWnd,
+				e.currentToken.beginLine + ":" + e.currentToken.beginColumn + ": ERROR: " + e.getLocalizedMessage(),
+				"Level XML Error",
+				JOptionPane.ERROR_MESSAGE);
+		mainWnd.setCode(level, 0);
+	}
+	
+	private void showError(LevelLuaException e)
+	{
+		e.printStackTrace();
+		JOptionPane.showMessageDialog(
+				mainWnd,
+				(e.code.isNone() ? "" : e.code.startString() + ": ")+ "ERROR: " + e.getLocalizedMessage(),
+				"Level Lua Error",
+				JOptionPane.ERROR_MESSAGE);
+		mainWnd.setCode(level, 0);
+		System.err.println(e.code.startString() + ": ERROR: " + e.getLocalizedMessage());
+		if (!e.code.isNone())
+		{
+			System.err.println("    " + e.getLine(level.luamain));
+			for (int i = 0; i < 3 + e.code.getBeginColumn(); ++i)
+				System.err.print(' ');
+			System.err.println('^');
+			mainWnd.moveCursorToSnippet(e.code);
 		}
 	}
 	
@@ -227,6 +303,8 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 		try
 		{
 			System.out.println("Loading level '" + file.getName() + "'...");
+			analysis.cancel();
+			Metrics.reset();
 			LevelReader reader = new LevelReader();
 			level = new Level();
 			reader.setTarget(level);
@@ -234,6 +312,7 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 			analyseLevel();
 			mainWnd.setWorld(level, 0);
 			System.out.println("Loading level '" + file.getName() + "'... SUCCESS!");
+			dumpMetrics(file.getName());
 		}
 		catch (LevelXMLException e)
 		{
@@ -266,23 +345,62 @@ public class Controller implements CodeChangeListener, LevelClickListener, KindS
 	
 	public void onExit()
 	{
+		analysis.stop();
+		sprites.cancel();
+		saveSpritePack();
+		dumpMetrics("since last level load");
 		updater.stop();
 		System.exit(0);
 	}
 	
-	@Override
-	public void codeChanged(String luacode)
+	/**
+	 * Analyse the code of the given level (on the analysis thread).
+	 * The level is not changed here. The result is published on the event
+	 * dispatch thread, unless a newer analysis has been requested or another
+	 * level has been loaded in the meantime.
+	 * 
+	 * @param target      Level the code belongs to.
+	 * @param luacode     Code to be analysed.
+	 * @param generation  Generation number of the request.
+	 */
+	private void analyseCode(Level target, String luacode, long generation)
 	{
-		new Thread(new Runnable()
+		// TODO: waiting animation in levelview
+		if (analysis.isOutdated(generation)) return;
+		try
 		{
-			@Override public void run()
+			final Runnable result = target.prepare(luacode, tileset);
+			SwingUtilities.invokeLater(() ->
 			{
-				// TODO: waiting animation in levelview
-				level.luamain = luacode;
-				analyseLevel();
-				mainWnd.redrawWorld();
-			}
-		}).start();
+				if (target != level || analysis.isOutdated(generation)) return;
+				result.run();
+				mainWnd.redrawWorld(target, 0, generation);
+			});
+		}
+		catch (ParseException e)
+		{
+			SwingUtilities.invokeLater(() ->
+			{
+				if (target != level || analysis.isOutdated(generation)) return;
+				target.luamain = luacode;
+				showError(e);
+			});
+		}
+		catch (LevelLuaException e)
+		{
+			SwingUtilities.invokeLater(() ->
+			{
+				if (target != level || analysis.isOutdated(generation)) return;
+				target.luamain = luacode;
+				showError(e);
+			});
+		}
+	}
+	
+	@Override
+	public void codeChanged(String luacode)
+	{
+		analysis.schedule(level, luacode);
 	}
 	
 	@Override
@@ -1,19 +1,56 @@
 package com.github.euwoyne.enigma_edit.control;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import javax.swing.SwingUtilities;
+
+/**
+ * Coalescing update scheduler.
+ * Scheduled components are collected in one set per {@link Updateable.Lane lane},
+ * so that a component scheduled several times is updated once. Pending updates
+ * are run as a single frame on the event dispatch thread, at most once per
+ * frame time, and no new frame is dispatched before the previous one has run.
+ */
 class UpdateThread
 {
-	private Thread                          thread;
-	private LinkedBlockingQueue<Updateable> queue;
+	private final Object                          lock;
+	private final List<LinkedHashSet<Updateable>> lanes;
+	private final long                            frameTime;
+	private Thread                                thread;
+	private boolean                               pending;
+	private boolean                               drawing;
 	
-	UpdateThread()
+	/**
+	 * @param fps  Maximal number of frames per second.
+	 */
+	UpdateThread(int fps)
 	{
-		queue = new LinkedBlockingQueue<Updateable>();
+		lock      = new Object();
+		lanes     = new ArrayList<LinkedHashSet<Updateable>>();
+		frameTime = TimeUnit.SECONDS.toNanos(1) / Math.max(fps, 1);
+		pending   = false;
+		drawing   = false;
+		for (int i = 0; i < Updateable.Lane.values().length; ++i)
+			lanes.add(new LinkedHashSet<Updateable>());
 	}
 	
-	public void stop()                       {thread.interrupt();} 
-	public void scheduleUpdate(Updateable u) {queue.offer(u);}
+	public void stop() {thread.interrupt();}
+	
+	public void scheduleUpdate(Updateable u)
+	{
+		synchronized (lock)
+		{
+			lanes.get(u.getLane().ordinal()).add(u);
+			if (!pending)
+			{
+				pending = true;
+				lock.notifyAll();
+			}
+		}
+	}
 	
 	public void start() throws IllegalThreadStateException
 	{
@@ -24,34 +61,35 @@ class UpdateThread
 				@Override
 				public void run()
 				{
-					Updateable[] buffer = new Updateable[8];
+					long lastFrame = System.nanoTime() - frameTime;
 					for (;;)
 					{
 						try
 						{
-							buffer[0] = queue.take();
-							for (int i = 1; i < buffer.length; ++i)
+							synchronized (lock)
 							{
-								if ((buffer[i] = queue.poll()) == null)
-								{
-									break;
-								}
-								
-								for (int j = 0; j < i; ++j)
-								{
-									if (buffer[i] == buffer[j])
-									{
-										--i;
-										break;
-									}
-								}
+								while (!pending || drawing)
+									lock.wait();
 							}
-							for (int i = 0; i < buffer.length; ++i)
+							
+							final long wait = lastFrame + frameTime - System.nanoTime();
+							if (wait > 0)
+								TimeUnit.NANOSECONDS.sleep(wait);
+							
+							final List<Updateable> frame = new ArrayList<Updateable>();
+							synchronized (lock)
 							{
-								if (buffer[i] == null) break;
-								buffer[i].update();
-								buffer[i] = null;
+								for (LinkedHashSet<Updateable> lane : lanes)
+								{
+									frame.addAll(lane);
+									lane.clear();
+								}
+								pending = false;
+								drawing = true;
 							}
+							
+							lastFrame = System.nanoTime();
+							SwingUtilities.invokeLater(() -> runFrame(frame));
 						}
 						catch (InterruptedException e)
 						{
@@ -59,9 +97,34 @@ class UpdateThread
 						}
 					}
 				}
-			});
+			}, "updater");
 		}
 		thread.start();
 	}
+	
+	private void runFrame(List<Updateable> frame)
+	{
+		try
+		{
+			for (Updateable u : frame)
+			{
+				try
+				{
+					u.update();
+				}
+				catch (RuntimeException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+		finally
+		{
+			synchronized (lock)
+			{
+				drawing = false;
+				lock.notifyAll();
+			}
+		}
+	}
 }
-
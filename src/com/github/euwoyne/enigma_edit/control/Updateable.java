@@ -2,6 +2,20 @@ package com.github.euwoyne.enigma_edit.control;
 
 public interface Updateable
 {
+	/**
+	 * Update lanes.
+	 * Within a frame, updates are run lane by lane in declaration order.
+	 */
+	enum Lane {LEVEL, PANEL, STATUS}
+	
+	/**
+	 * Update the component.
+	 * Called on the event dispatch thread.
+	 */
 	void update();
+	
+	/**
+	 * @return  Lane to run the update in.
+	 */
+	default Lane getLane() {return Lane.PANEL;}
 }
-
@@ -2,6 +2,7 @@ package com.github.euwoyne.enigma_edit.error;
 
 import com.github.euwoyne.enigma_edit.Resources;
 import com.github.euwoyne.enigma_edit.lua.data.CodeSnippet;
+import com.github.euwoyne.enigma_edit.lua.data.LineIndex;
 import com.github.euwoyne.enigma_edit.lua.data.Mode;
 
 public class LevelLuaException extends Exception
@@ -75,11 +76,31 @@ public class LevelLuaException extends Exception
 	}
 	
 	public CodeSnippet code;
+	public LineIndex   lines;
 	
 	public LevelLuaException(Runtime runtime)
 	{
 		super(runtime.getMessage(), runtime);
-		code = runtime.code;
+		code  = runtime.code;
+		lines = null;
+	}
+	
+	public LevelLuaException(Runtime runtime, LineIndex lines)
+	{
+		super(runtime.getMessage(), runtime);
+		this.code  = runtime.code;
+		this.lines = lines;
+	}
+	
+	/**
+	 * Get the line of code the error occurred in.
+	 * 
+	 * @param source  Source code (used, if no line index is available).
+	 * @return        The line of code containing the error location.
+	 */
+	public String getLine(String source)
+	{
+		return lines != null ? code.getLine(lines) : code.getLine(source);
 	}
 }
 
@@ -26,6 +26,7 @@ package com.github.euwoyne.enigma_edit.lua;
 import java.util.LinkedList;
 import java.util.List;
 import java.io.StringReader;
+import java.util.concurrent.CancellationException;
 
 import org.luaj.vm2.Lua;
 import org.luaj.vm2.LuaValue;
@@ -45,6 +46,7 @@ import org.luaj.vm2.parser.LuaParser;
 import org.luaj.vm2.parser.ParseException;
 
 import com.github.euwoyne.enigma_edit.Log;
+import com.github.euwoyne.enigma_edit.Metrics;
 import com.github.euwoyne.enigma_edit.error.LevelLuaException;
 import com.github.euwoyne.enigma_edit.lua.data.*;
 import com.github.euwoyne.enigma_edit.lua.res.Tiles;
@@ -67,40 +69,49 @@ public class CodeAnalyser
 	 * @throws ParseException     This indicates a lua syntax error (thrown by the parser).
 	 * @throws LevelLuaException  This indicates special runtime errors or constructs, that are illegal in Enigma levels (thrown by the analyser).
 	 */
+	@SuppressWarnings("try")
 	public static CodeData analyse(String code) throws ParseException, LevelLuaException
 	{
-		return new CodeAnalyser(code, new Log()
+		final LineIndex lines = new LineIndex(code);
+		try (Metrics.Timer t = Metrics.start("code.analyse"))
 		{
-			@Override
-			public void log(Msg msg)
+			return new CodeAnalyser(lines, new Log()
 			{
-				final java.io.PrintStream s;
-				switch (msg.type)
+				@Override
+				public void log(Msg msg)
 				{
-				case ERROR:   s = System.err; s.print("ERROR: ");   break;
-				case WARNING: s = System.err; s.print("WARNING: "); break;
-				case INFO:    s = System.out; s.print("INFO: ");    break;
-				default:      s = System.out;
-				}
-				s.println(msg.message);
-				if (!msg.location.isNone())
-				{
-					s.print("    ");
-					s.println(msg.location.getLine(code));
-					s.print("    ");
-					for (int i = 0; i < msg.location.getBeginColumn(); ++i) System.err.print(' ');
-					s.println('^');
+					final java.io.PrintStream s;
+					switch (msg.type)
+					{
+					case ERROR:   s = System.err; s.print("ERROR: ");   break;
+					case WARNING: s = System.err; s.print("WARNING: "); break;
+					case INFO:    s = System.out; s.print("INFO: ");    break;
+					default:      s = System.out;
+					}
+					s.println(msg.message);
+					if (!msg.location.isNone())
+					{
+						s.print("    ");
+						s.println(msg.location.getLine(lines));
+						s.print("    ");
+						for (int i = 0; i < msg.location.getBeginColumn(); ++i) System.err.print(' ');
+						s.println('^');
+					}
 				}
-			}
-		}).analyse();
+			}).analyse();
+		}
 	}
 	
 	/*
 	 * Private data.
 	 */
-	private final String   code;	// lua source code
-	private final Chunk    chunk;	// parse tree of the code
-	private final CodeData data;	// data constructed by the analyser
+	private final String    code;	// lua source code
+	private final LineIndex lines;	// line start positions of the code
+	private final Chunk     chunk;	// parse tree of the code
+	private final CodeData  data;	// data constructed by the analyser
+	
+	/** Print the analysed data (system property {@code enigma_edit.dump}). */
+	private static final boolean DUMP = Boolean.getBoolean("enigma_edit.dump");
 	
 	// Log
 	private Log log;
@@ -110,12 +121,13 @@ public class CodeAnalyser
 	 * Private constructor.
 	 * On construction the given {@param code} will be parsed.
 	 * 
-	 * @param code             the level's lua code (i.e. the content of the {@code <luamain>} tag)
+	 * @param lines            line index of the level's lua code (i.e. the content of the {@code <luamain>} tag)
 	 * @throws ParseException  This indicates an lua syntax error.
 	 */
-	private CodeAnalyser(String code, Log log) throws ParseException
+	private CodeAnalyser(LineIndex lines, Log log) throws ParseException
 	{
-		this.code  = code;
+		this.code  = lines.getCode();
+		this.lines = lines;
 		this.chunk = new LuaParser(new StringReader(code)).Chunk();
 		this.data  = new CodeData();
 		this.log   = log;
@@ -142,15 +154,28 @@ public class CodeAnalyser
 			}
 			else if (!data.hasWorld(Mode.DIFFICULT))
 				throw new LevelLuaException.Runtime("MissingWoCall", Mode.DIFFICULT, CodeSnippet.NONE);
-			data.dump();
+			if (DUMP) data.dump();
 			return data;
 		}
 		catch (LevelLuaException.Runtime e)
 		{
-			throw new LevelLuaException(e);
+			throw new LevelLuaException(e, lines);
 		}
 	}
 	
+	/**
+	 * Cooperative cancellation check.
+	 * An analysis is cancelled by interrupting the analysing thread. The visitors
+	 * call this method regularly to abort as soon as possible.
+	 * 
+	 * @throws CancellationException  if the current thread has been interrupted.
+	 */
+	private static void checkCancelled() throws CancellationException
+	{
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException("code analysis cancelled");
+	}
+	
 	/**
 	 * A visitor that overwrites the default implementation with 
 	 * empty handlers.
@@ -234,20 +259,25 @@ public class CodeAnalyser
 		public void visit(Block block)
 		{
 			if (block.stats != null)
+			{
 				for (Object stat : block.stats)
+				{
+					checkCancelled();
 					((Stat)stat).accept(this);
+				}
+			}
 		}
 		
 		@Override 
 		public void visit(Stat.FuncDef stat)
 		{
-			data.addFunction(stat.name.name.name, new CodeSnippet(code, stat));
+			data.addFunction(stat.name.name.name, new CodeSnippet(lines, stat));
 		}
 		
 		@Override 
 		public void visit(Stat.LocalFuncDef stat)
 		{
-			data.addFunction(stat.name.name, new CodeSnippet(code, stat));
+			data.addFunction(stat.name.name, new CodeSnippet(lines, stat));
 		}
 		
 		@Override 
@@ -262,19 +292,19 @@ public class CodeAnalyser
 					if (visitor.value instanceof WoCall)
 					{
 						if (iVar < nVar)
-							((Exp.VarExp)stat.vars.get(iVar)).accept(new AssignVisitor(((WoCall)visitor.value).getWidth().toMultiMode(visitor.value.getCode()), new CodeSnippet(code, stat)));
+							((Exp.VarExp)stat.vars.get(iVar)).accept(new AssignVisitor(((WoCall)visitor.value).getWidth().toMultiMode(visitor.value.getCode()), new CodeSnippet(lines, stat)));
 						++iVar;
 						if (iVar < nVar)
-							((Exp.VarExp)stat.vars.get(iVar)).accept(new AssignVisitor(((WoCall)visitor.value).getHeight().toMultiMode(visitor.value.getCode()), new CodeSnippet(code, stat)));
+							((Exp.VarExp)stat.vars.get(iVar)).accept(new AssignVisitor(((WoCall)visitor.value).getHeight().toMultiMode(visitor.value.getCode()), new CodeSnippet(lines, stat)));
 					}
 					else if (iVar < nVar)
 					{
-						((Exp.VarExp)stat.vars.get(iVar)).accept(new AssignVisitor(visitor.value, new CodeSnippet(code, stat)));
+						((Exp.VarExp)stat.vars.get(iVar)).accept(new AssignVisitor(visitor.value, new CodeSnippet(lines, stat)));
 					}
 				}
 				else if (iVar < nVar)
 				{
-					((Exp.VarExp)stat.vars.get(iVar)).accept(new AssignVisitor(new Nil(CodeSnippet.NONE), new CodeSnippet(code, stat)));
+					((Exp.VarExp)stat.vars.get(iVar)).accept(new AssignVisitor(new Nil(CodeSnippet.NONE), new CodeSnippet(lines, stat)));
 				}
 			}
 		}
@@ -293,19 +323,19 @@ public class CodeAnalyser
 					if (visitor.value instanceof WoCall)
 					{
 						if (iName < nVar)
-							data.assign(((Name)stat.names.get(iName)).name, ((WoCall)visitor.value).getWidth().toMultiMode(visitor.value.getCode()), new CodeSnippet(code, stat), mode);
+							data.assign(((Name)stat.names.get(iName)).name, ((WoCall)visitor.value).getWidth().toMultiMode(visitor.value.getCode()), new CodeSnippet(lines, stat), mode);
 						++iName;
 						if (iName < nVar)
-							data.assign(((Name)stat.names.get(iName)).name, ((WoCall)visitor.value).getHeight().toMultiMode(visitor.value.getCode()), new CodeSnippet(code, stat), mode);
+							data.assign(((Name)stat.names.get(iName)).name, ((WoCall)visitor.value).getHeight().toMultiMode(visitor.value.getCode()), new CodeSnippet(lines, stat), mode);
 					}
 					else if (iName < nVar)
 					{
-						data.assign(((Name)stat.names.get(iName)).name, visitor.value, new CodeSnippet(code, stat), mode);
+						data.assign(((Name)stat.names.get(iName)).name, visitor.value, new CodeSnippet(lines, stat), mode);
 					}
 				}
 				else if (iName < nVar)
 				{
-					data.assign(((Name)stat.names.get(iName)).name, new Nil(CodeSnippet.NONE), new CodeSnippet(code, stat), mode);
+					data.assign(((Name)stat.names.get(iName)).name, new Nil(CodeSnippet.NONE), new CodeSnippet(lines, stat), mode);
 				}
 			}
 		}
@@ -400,7 +430,7 @@ public class CodeAnalyser
 			 */
 			public void visit(Exp.Constant exp)
 			{
-				value = new SimpleValue(exp.value, new CodeSnippet(code, exp));
+				value = new SimpleValue(exp.value, new CodeSnippet(lines, exp));
 			}
 			
 			/**
@@ -411,7 +441,7 @@ public class CodeAnalyser
 			 */
 			public void visit(Exp.NameExp exp)
 			{
-				value = data.getReference(exp.name.name, new CodeSnippet(code, exp));
+				value = data.getReference(exp.name.name, new CodeSnippet(lines, exp));
 			}
 			
 			/**
@@ -430,15 +460,15 @@ public class CodeAnalyser
 				if (table.isNull(mode))
 				{
 					log.log(Log.MsgType.WARNING,
-							new LevelLuaException.Runtime("IndexOfNonTable", mode, new CodeSnippet(code, exp.lhs).get(code), visitor.value.typename(mode), CodeSnippet.NONE).getMessage(),
-							new CodeSnippet(code, exp));
-					value = new Nil(new CodeSnippet(code, exp));
+							new LevelLuaException.Runtime("IndexOfNonTable", mode, new CodeSnippet(lines, exp.lhs).get(code), visitor.value.typename(mode), CodeSnippet.NONE).getMessage(),
+							new CodeSnippet(lines, exp));
+					value = new Nil(new CodeSnippet(lines, exp));
 					return;
 				}
 				if (table.hasNormal() && table.easy instanceof Tiles)
-					value = ((Tiles)table.easy).getReference(exp.name.name, new CodeSnippet(code, exp));
+					value = ((Tiles)table.easy).getReference(exp.name.name, new CodeSnippet(lines, exp));
 				else
-					value = table.getReference(exp.name.name, new CodeSnippet(code, exp));
+					value = table.getReference(exp.name.name, new CodeSnippet(lines, exp));
 			}
 			
 			/**
@@ -457,43 +487,43 @@ public class CodeAnalyser
 				if (table.isNull(mode))
 				{
 					log.log(Log.MsgType.WARNING,
-							new LevelLuaException.Runtime("IndexOfNonTable", mode, new CodeSnippet(code, exp.lhs).get(code), visitor.value.typename(mode), CodeSnippet.NONE).getMessage(),
-							new CodeSnippet(code, exp));
-					value = new Nil(new CodeSnippet(code, exp));
+							new LevelLuaException.Runtime("IndexOfNonTable", mode, new CodeSnippet(lines, exp.lhs).get(code), visitor.value.typename(mode), CodeSnippet.NONE).getMessage(),
+							new CodeSnippet(lines, exp));
+					value = new Nil(new CodeSnippet(lines, exp));
 					return;
 				}
 				exp.exp.accept(visitor);
 				final SimpleValue idx = visitor.value.checkSimple(mode).get(mode);
 				if (idx == null)
 				{
-					value = new Nil(new CodeSnippet(code, exp));
+					value = new Nil(new CodeSnippet(lines, exp));
 				}
 				else
 				{	
 					if (idx.value.isstring())
 					{
 						if (table.get(mode) instanceof Tiles)
-							value = ((Tiles)table.get(mode)).getReference(idx.value.checkjstring(), new CodeSnippet(code, exp));
+							value = ((Tiles)table.get(mode)).getReference(idx.value.checkjstring(), new CodeSnippet(lines, exp));
 						else
-							value = table.getReference(idx.value.checkjstring(), new CodeSnippet(code, exp));
+							value = table.getReference(idx.value.checkjstring(), new CodeSnippet(lines, exp));
 					}
 					else if (idx.value.isinttype())
 					{
 						if (table.get(mode) instanceof Tiles)
-							value = ((Tiles)table.get(mode)).getReference(idx.value.checkint(), new CodeSnippet(code, exp));
+							value = ((Tiles)table.get(mode)).getReference(idx.value.checkint(), new CodeSnippet(lines, exp));
 						else
-							value = table.getReference(idx.value.checkint(), new CodeSnippet(code, exp));
+							value = table.getReference(idx.value.checkint(), new CodeSnippet(lines, exp));
 					}
 					else if (idx.value.isnumber())
 					{
 						if (table.get(mode) instanceof Tiles)
-							value = ((Tiles)table.get(mode)).getReferenceI(idx.value.checknumber().checkjstring(), new CodeSnippet(code, exp));
+							value = ((Tiles)table.get(mode)).getReferenceI(idx.value.checknumber().checkjstring(), new CodeSnippet(lines, exp));
 						else
-							value = table.getReferenceI(idx.value.checknumber().checkjstring(), new CodeSnippet(code, exp));
+							value = table.getReferenceI(idx.value.checknumber().checkjstring(), new CodeSnippet(lines, exp));
 					}
 					else
 					{
-						value = new Nil(new CodeSnippet(code, exp));
+						value = new Nil(new CodeSnippet(lines, exp));
 					}
 				}
 			}
@@ -507,7 +537,8 @@ public class CodeAnalyser
 			 */
 			public void visit(TableConstructor table)
 			{
-				final Table      val = new Table(new CodeSnippet(code, table));
+				checkCancelled();
+				final Table      val = new Table(new CodeSnippet(lines, table));
 				final ExpVisitor exp = new ExpVisitor();
 				
 				TableField field;
@@ -582,21 +613,21 @@ public class CodeAnalyser
 			public void visit(Exp.UnopExp exp)
 			{
 				exp.rhs.accept(this);
-				final CodeSnippet codesnippet = new CodeSnippet(code, exp);
+				final CodeSnippet codesnippet = new CodeSnippet(lines, exp);
 				if (exp.op == Lua.OP_NOT)
 				{
 					final MMSimpleValue val = value.checkSimple(mode);
 					if (val.hasNormal() && val.easy.value.isboolean())
 						value = new SimpleValue(LuaValue.valueOf(!val.easy.value.toboolean()), codesnippet);
 					else if (val.isNull(mode))
-						value = new Expression(exp.op, value, new CodeSnippet(code, exp));
+						value = new Expression(exp.op, value, new CodeSnippet(lines, exp));
 					else
 						value = new MultiMode(new SimpleValue(val.hasEasy()      ? LuaValue.valueOf(!val.easy.value.toboolean())      : null, codesnippet),
 						                      new SimpleValue(val.hasDifficult() ? LuaValue.valueOf(!val.difficult.value.toboolean()) : null, codesnippet),
 						                      codesnippet);
 				}
 				else
-					value = new Expression(exp.op, value, new CodeSnippet(code, exp));
+					value = new Expression(exp.op, value, new CodeSnippet(lines, exp));
 			}
 			
 			/**
@@ -640,7 +671,7 @@ public class CodeAnalyser
 								else
 									tile = new MMTileDecl(part1.hasEasy() ? new TileDecl(part1.easy) : null, part1.hasDifficult() ? new TileDecl(part1.difficult) : null);
 								tile.add(part2, mode);
-								value = new MultiMode(tile, new CodeSnippet(code, exp));
+								value = new MultiMode(tile, new CodeSnippet(lines, exp));
  							}
  							else if (rhs.value instanceof MultiMode)
  							{
@@ -657,7 +688,7 @@ public class CodeAnalyser
  									else
  										tile = new MMTileDecl(part1.hasEasy() ? new TileDecl(part1.easy) : null, part1.hasDifficult() ? new TileDecl(part1.difficult) : null);
  									tile.add(new ObjectDecl(rhs.value), mode);
- 									value = new MultiMode(tile, new CodeSnippet(code, exp));
+ 									value = new MultiMode(tile, new CodeSnippet(lines, exp));
  								}
 								value = rhs.value;
  							}
@@ -669,7 +700,7 @@ public class CodeAnalyser
 								else
 									tile = new MMTileDecl(part1.hasEasy() ? new TileDecl(part1.easy) : null, part1.hasDifficult() ? new TileDecl(part1.difficult) : null);
 								tile.add(new ObjectDecl(rhs.value), mode);
-								value = new MultiMode(tile, new CodeSnippet(code, exp));
+								value = new MultiMode(tile, new CodeSnippet(lines, exp));
  							}
 						}
 						else if (lhs.value instanceof MultiMode)
@@ -713,7 +744,7 @@ public class CodeAnalyser
  							{
 								tile.add(new ObjectDecl(rhs.value), mode);
  							}
-							value = new MultiMode(tile, new CodeSnippet(code, exp));
+							value = new MultiMode(tile, new CodeSnippet(lines, exp));
 						}
 					}
 					catch (LevelLuaException.Runtime err)
@@ -721,7 +752,7 @@ public class CodeAnalyser
 						System.err.println(err.toString() + " [" + lhs.value.typename() + "]");
 						System.err.println(err.code.get(code));
 						err.printStackTrace();
-						value = new Expression(Lua.OP_CONCAT, lhs.value, rhs.value, new CodeSnippet(code, exp));
+						value = new Expression(Lua.OP_CONCAT, lhs.value, rhs.value, new CodeSnippet(lines, exp));
 					}
 					break;
 				
@@ -730,7 +761,7 @@ public class CodeAnalyser
 				case Lua.OP_EQ:
 				case Lua.OP_NEQ:
 					
-					final CodeSnippet codesnippet = new CodeSnippet(code, exp);
+					final CodeSnippet codesnippet = new CodeSnippet(lines, exp);
 					
 					final MMSimpleValue val1  = lhs.value.checkSimple(mode);
 					final MMSimpleValue val2  = rhs.value.checkSimple(mode);
@@ -742,7 +773,7 @@ public class CodeAnalyser
 					
 					// generic equality test (return expression object)
 					if ((easyleft == null || easyright == null) && (diffleft == null || diffright == null))
-						value = new Expression(Lua.OP_CONCAT, lhs.value, rhs.value, new CodeSnippet(code, exp));
+						value = new Expression(Lua.OP_CONCAT, lhs.value, rhs.value, new CodeSnippet(lines, exp));
 					
 					// mode independent equality test
 					else if ((easyleft == easyright) == (diffleft == diffright))
@@ -759,7 +790,7 @@ public class CodeAnalyser
 				// all other operators
 				// (just return an expression object)
 				default:
-					value = new Expression(exp.op, lhs.value, rhs.value, new CodeSnippet(code, exp));;
+					value = new Expression(exp.op, lhs.value, rhs.value, new CodeSnippet(lines, exp));;
 				}
 			}
 			
@@ -791,6 +822,7 @@ public class CodeAnalyser
 			 */
 			public void visit(Exp.FuncCall exp)
 			{
+				checkCancelled();
 				// API 2.0 functions
 				if (exp.lhs instanceof Exp.NameExp)
 				{
@@ -875,22 +907,22 @@ public class CodeAnalyser
 											diffval = value;
 										}
 										
-										value = new MultiMode(easyval, diffval, new CodeSnippet(code, exp));
+										value = new MultiMode(easyval, diffval, new CodeSnippet(lines, exp));
 									}
-									else value = new Nil(new CodeSnippet(code, exp));
+									else value = new Nil(new CodeSnippet(lines, exp));
 									break;
 								}
 							}
 							else
 							{
 								System.err.println("WARNING: expected imple value as first argument to 'cond()', got " + visitor.value.typename(mode));
-								value = new Nil(new CodeSnippet(code, exp));
+								value = new Nil(new CodeSnippet(lines, exp));
 							}
 						}
 						else
 						{
 							System.err.println("WARNING: expected 3 arguments to 'cond()', got " + (exp.args.exps == null ? "null" : exp.args.exps.size()));
-							value = new Nil(new CodeSnippet(code, exp));
+							value = new Nil(new CodeSnippet(lines, exp));
 						}
 					}
 					
@@ -900,13 +932,13 @@ public class CodeAnalyser
 					{
 						// check argument count
 						if (exp.args.exps.size() < 2)
-							throw new LevelLuaException.Runtime("IllegalWoCallArgumentCount", Integer.toString(exp.args.exps.size()), new CodeSnippet(code, exp));
+							throw new LevelLuaException.Runtime("IllegalWoCallArgumentCount", Integer.toString(exp.args.exps.size()), new CodeSnippet(lines, exp));
 							
 						// check resolver
 						((Exp)exp.args.exps.get(0)).accept(this);
 						MMResolver res = value.checkResolver(mode);
 						if (res.isNull(mode))
-							throw new LevelLuaException.Runtime("IllegalSubresolver", mode, value.typename(mode), new CodeSnippet(code, (Exp)exp.args.exps.get(0)));
+							throw new LevelLuaException.Runtime("IllegalSubresolver", mode, value.typename(mode), new CodeSnippet(lines, (Exp)exp.args.exps.get(0)));
 						
 						// check other arguments
 						switch (exp.args.exps.size())
@@ -916,7 +948,7 @@ public class CodeAnalyser
 							((Exp)exp.args.exps.get(1)).accept(this);
 							
 							// create world data
-							data.setWorld(res, this.value, mode, new CodeSnippet(code, exp));}
+							data.setWorld(res, this.value, mode, new CodeSnippet(lines, exp));}
 							break;
 							
 						case 3: {
@@ -929,7 +961,7 @@ public class CodeAnalyser
 							final Source map = this.value;
 							
 							// create world data
-							data.setWorld(res, defaultKey, map, mode, new CodeSnippet(code, exp));}
+							data.setWorld(res, defaultKey, map, mode, new CodeSnippet(lines, exp));}
 							break;
 							
 						case 4: {
@@ -944,7 +976,7 @@ public class CodeAnalyser
 							final Source height = this.value;
 							
 							// create world data
-							data.setWorld(res, defaultKey, width, height, mode, new CodeSnippet(code, exp));}
+							data.setWorld(res, defaultKey, width, height, mode, new CodeSnippet(lines, exp));}
 							break;
 						}
 						value = data.getWorldCall(mode == Mode.NORMAL ? Mode2.EASY : mode.mode2());
@@ -970,11 +1002,11 @@ public class CodeAnalyser
 							if (func.easy.value.isuserdata(ApiFunction.class))
 							{
 								ApiFunction apifunc = (ApiFunction)func.easy.value.checkuserdata(ApiFunction.class);
-								value = apifunc.call(args, mode, new CodeSnippet(code, exp));
+								value = apifunc.call(args, mode, new CodeSnippet(lines, exp));
 							}
 							else
 							{
-								value = new Nil(new CodeSnippet(code, exp));
+								value = new Nil(new CodeSnippet(lines, exp));
 							}
 						}
 						else
@@ -987,8 +1019,8 @@ public class CodeAnalyser
 								diffRes = (Resolver.Constructor)func.difficult.value.checkuserdata(Resolver.Constructor.class);
 							if (easyRes != null || diffRes != null)
 							{
-								value = new MMResolver(easyRes != null ? easyRes.call(args, mode, new CodeSnippet(code, exp)) : null,
-								                       diffRes != null ? diffRes.call(args, mode, new CodeSnippet(code, exp)) : null);
+								value = new MMResolver(easyRes != null ? easyRes.call(args, mode, new CodeSnippet(lines, exp)) : null,
+								                       diffRes != null ? diffRes.call(args, mode, new CodeSnippet(lines, exp)) : null);
 							}
 							else
 							{
@@ -1000,7 +1032,7 @@ public class CodeAnalyser
 									diff = (ApiFunction)func.difficult.value.checkuserdata(ApiFunction.class);
 								if (easy != null || diff != null)
 								{
-									final CodeSnippet codesnippet = new CodeSnippet(code, exp);
+									final CodeSnippet codesnippet = new CodeSnippet(lines, exp);
 									value = new MultiMode(easy != null ? easy.call(args, mode, codesnippet) : null,
 									                      diff != null ? diff.call(args, mode, codesnippet) : null,
 									                      codesnippet);
@@ -1009,9 +1041,9 @@ public class CodeAnalyser
 						}
 						
 						if (value == null)
-							value = new Nil(new CodeSnippet(code, exp));
+							value = new Nil(new CodeSnippet(lines, exp));
 					}
-					else value = new Nil(new CodeSnippet(code, exp));
+					else value = new Nil(new CodeSnippet(lines, exp));
 				}
 			}
 		}
@@ -1067,8 +1099,8 @@ public class CodeAnalyser
 				else
 				{
 					log.log(Log.MsgType.WARNING,
-							new LevelLuaException.Runtime("IndexOfNonTable", mode, new CodeSnippet(code, exp.lhs).get(code), (visitor.value == null) ? "null" : visitor.value.typename(mode), CodeSnippet.NONE).getMessage(),
-							new CodeSnippet(code, exp));
+							new LevelLuaException.Runtime("IndexOfNonTable", mode, new CodeSnippet(lines, exp.lhs).get(code), (visitor.value == null) ? "null" : visitor.value.typename(mode), CodeSnippet.NONE).getMessage(),
+							new CodeSnippet(lines, exp));
 				}
 			}
 			
@@ -1088,8 +1120,8 @@ public class CodeAnalyser
 				if (table.isNull(mode))
 				{
 					log.log(Log.MsgType.WARNING,
-							new LevelLuaException.Runtime("IndexOfNonTable", mode, new CodeSnippet(code, exp.lhs).get(code), (visitor.value == null) ? "null" : visitor.value.typename(mode), CodeSnippet.NONE).getMessage(),
-							new CodeSnippet(code, exp));
+							new LevelLuaException.Runtime("IndexOfNonTable", mode, new CodeSnippet(lines, exp.lhs).get(code), (visitor.value == null) ? "null" : visitor.value.typename(mode), CodeSnippet.NONE).getMessage(),
+							new CodeSnippet(lines, exp));
 					return;
 				}
 				exp.exp.accept(visitor);
@@ -30,6 +30,7 @@ import java.util.TreeMap;
 
 import org.luaj.vm2.LuaValue;
 
+import com.github.euwoyne.enigma_edit.Metrics;
 import com.github.euwoyne.enigma_edit.lua.data.*;
 import com.github.euwoyne.enigma_edit.lua.res.Autotile;
 import com.github.euwoyne.enigma_edit.lua.res.Composer;
@@ -48,6 +49,7 @@ public class CodeData implements Iterable<Entry<String, Variable>>
 	private Table                        varMap;
 	private WoCallAPI20                  easyWo;
 	private WoCallAPI20                  difficultWo;
+	private ResolverCache                resolverCache;
 	
 	/**
 	 * Initializes common values.
@@ -109,10 +111,11 @@ public class CodeData implements Iterable<Entry<String, Variable>>
 	 */
 	public CodeData()
 	{
-		this.functionMap  = new TreeMap<String, CodeSnippet>();
-		this.varMap       = new Table(CodeSnippet.NONE);
-		this.easyWo       = null;
-		this.difficultWo  = null;
+		this.functionMap   = new TreeMap<String, CodeSnippet>();
+		this.varMap        = new Table(CodeSnippet.NONE);
+		this.easyWo        = null;
+		this.difficultWo   = null;
+		this.resolverCache = new ResolverCache();
 		initialize();
 	}
 	
@@ -210,6 +213,7 @@ public class CodeData implements Iterable<Entry<String, Variable>>
 	{
 		functionMap.clear();
 		varMap.clear();
+		resolverCache.clear();
 		initialize();
 	}
 	
@@ -272,9 +276,13 @@ public class CodeData implements Iterable<Entry<String, Variable>>
 	 * @param mode        Mode that {@code wo} was called in.
 	 * @param code        Code snippet containing the call.
 	 */
+	@SuppressWarnings("try")
 	public void setWorld(Resolver resolver, Source defaultkey, Source width, Source height, Mode mode, CodeSnippet code)
 	{
-		this.setWorld(new WoCallAPI20(resolver, defaultkey, width, height, mode, code), mode);
+		try (Metrics.Timer t = Metrics.start("code.world"))
+		{
+			this.setWorld(new WoCallAPI20(resolver, resolverCache, defaultkey, width, height, mode, code), mode);
+		}
 	}
 	
 	/**
@@ -287,9 +295,13 @@ public class CodeData implements Iterable<Entry<String, Variable>>
 	 * @param mode        Mode that {@code wo} was called in.
 	 * @param code        Code snippet containing the call.
 	 */
+	@SuppressWarnings("try")
 	public void setWorld(Resolver resolver, Source defaultkey, Source map, Mode mode, CodeSnippet code)
 	{
-		this.setWorld(new WoCallAPI20(resolver, defaultkey, map, mode, code), mode);
+		try (Metrics.Timer t = Metrics.start("code.world"))
+		{
+			this.setWorld(new WoCallAPI20(resolver, resolverCache, defaultkey, map, mode, code), mode);
+		}
 	}
 	
 	/**
@@ -301,9 +313,21 @@ public class CodeData implements Iterable<Entry<String, Variable>>
 	 * @param mode      Mode that {@code wo} was called in.
 	 * @param code      Code snippet containing the call.
 	 */
+	@SuppressWarnings("try")
 	public void setWorld(Resolver resolver, Source libmap, Mode mode, CodeSnippet code)
 	{
-		this.setWorld(new WoCallAPI20(resolver, libmap, mode, code), mode);
+		try (Metrics.Timer t = Metrics.start("code.world"))
+		{
+			this.setWorld(new WoCallAPI20(resolver, resolverCache, libmap, mode, code), mode);
+		}
+	}
+	
+	/**
+	 * Return the resolution cache used by the world calls of this analysis.
+	 */
+	public ResolverCache getResolverCache()
+	{
+		return resolverCache;
 	}
 	
 	/**
@@ -1,5 +1,7 @@
 package com.github.euwoyne.enigma_edit.lua;
 
+import java.util.Objects;
+
 import com.github.euwoyne.enigma_edit.lua.data.Mode;
 
 public class RevId
@@ -11,6 +13,20 @@ public class RevId
 	public void    clear()     {easy = difficult = normal = null;}
 	public boolean empty()     {return easy == null && difficult == null && normal == null;}
 	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof RevId)) return false;
+		final RevId r = (RevId)o;
+		return Objects.equals(easy, r.easy) && Objects.equals(difficult, r.difficult) && Objects.equals(normal, r.normal);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return Objects.hash(easy, difficult, normal);
+	}
+	
 	public String get(Mode mode)
 	{
 		switch (mode)
@@ -3,6 +3,11 @@ package com.github.euwoyne.enigma_edit.lua;
 import com.github.euwoyne.enigma_edit.lua.data.Mode2;
 import com.github.euwoyne.enigma_edit.lua.data.ObjectDecl;
 
+/**
+ * Provider of object reverse IDs.
+ * The reverse ID of an object may only depend on the object declaration and
+ * the mode, so that resolvers may cache the IDs for the whole analysis.
+ */
 public interface ReverseIDProvider
 {
 	String getReverseID(ObjectDecl decl, Mode2 mode);
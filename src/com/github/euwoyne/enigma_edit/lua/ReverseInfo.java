@@ -46,7 +46,22 @@ public interface ReverseInfo extends ReverseIDProvider
 	 * (to be used by the resolver) 
 	 */
 	
+	/**
+	 * Set the key of the requested tile (all parts resolved).
+	 * The key is given as used in the world map, i.e. a tile key of
+	 * {@code ti} (not the quoted internal table key).
+	 * 
+	 * @param key  Tile key.
+	 */
 	public void   setKey(String key);
+	
+	/**
+	 * Set the key of the best approximation of the requested tile.
+	 * The key is given as used in the world map (see {@link #setKey(String)}).
+	 * 
+	 * @param key       Tile key or {@code null}, if no part could be resolved.
+	 * @param typeMask  Type mask of the resolved parts.
+	 */
 	public void   setKey(String key, int typeMask);
 	
 	public int    typeMask();
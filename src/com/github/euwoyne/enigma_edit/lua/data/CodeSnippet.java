@@ -80,6 +80,8 @@ public final class CodeSnippet implements Comparable<CodeSnippet>
 	/**
 	 * Create a code snippet from start- and end-position in the code.
 	 * Line- and column-numbers will be calculated by inspecting the code given.
+	 * If many snippets are created for the same code, consider using
+	 * {@link #CodeSnippet(LineIndex, int, int)} with a shared {@link LineIndex}.
 	 * 
 	 * @param code      Code this snippet is referencing.
 	 * @param startPos  Start position (as character offset).
@@ -87,34 +89,32 @@ public final class CodeSnippet implements Comparable<CodeSnippet>
 	 */
 	public CodeSnippet(String code, int startPos, int endPos)
 	{
-		this.startPos = startPos;
-		this.endPos   = endPos;
-		
-		int startLine   = 1;
-		int startColumn = 1;
-		int endLine     = 1;
-		int endColumn   = 1;
-		
-		int start = 0, end = 0;
-		while ((end = code.indexOf('\n', start)) >= 0)
-		{
-			if      (end   < startPos) ++startLine;
-			else if (start < startPos) startColumn = startPos - start + 1;
-			if      (end   < endPos)   ++endLine;
-			else if (start < endPos)   endColumn = endPos - start;
-			else break;
-			start = end + 1;
-		}
-		
-		this.startLine   = startLine;
-		this.startColumn = startColumn;
-		this.endLine     = endLine;
-		this.endColumn   = endColumn;
+		this(new LineIndex(code), startPos, endPos);
+	}
+	
+	/**
+	 * Create a code snippet from start- and end-position in the code.
+	 * Line- and column-numbers will be looked up in the given line index.
+	 * 
+	 * @param lines     Line index of the code this snippet is referencing.
+	 * @param startPos  Start position (as character offset).
+	 * @param endPos    End position (as character offset).
+	 */
+	public CodeSnippet(LineIndex lines, int startPos, int endPos)
+	{
+		this.startPos    = startPos;
+		this.endPos      = endPos;
+		this.startLine   = lines.getLine(startPos);
+		this.startColumn = startPos - lines.getLineStart(startLine) + 1;
+		this.endLine     = lines.getLine(endPos);
+		this.endColumn   = Math.max(endPos - lines.getLineStart(endLine), 1);
 	}
 	
 	/**
 	 * Create a code snippet from line/column pairs given for start- and end-position.
 	 * The real character offsets will be calculated by inspecting the given code string.
+	 * If many snippets are created for the same code, consider using
+	 * {@link #CodeSnippet(LineIndex, int, int, int, int)} with a shared {@link LineIndex}.
 	 * 
 	 * @param code         Code this snippet is referencing.
 	 * @param startLine    Line number of the start position.
@@ -123,26 +123,28 @@ public final class CodeSnippet implements Comparable<CodeSnippet>
 	 * @param endColumn    Column number of the end position.
 	 */
 	public CodeSnippet(String code, int startLine, int startColumn, int endLine, int endColumn)
+	{
+		this(new LineIndex(code), startLine, startColumn, endLine, endColumn);
+	}
+	
+	/**
+	 * Create a code snippet from line/column pairs given for start- and end-position.
+	 * The real character offsets will be looked up in the given line index.
+	 * 
+	 * @param lines        Line index of the code this snippet is referencing.
+	 * @param startLine    Line number of the start position.
+	 * @param startColumn  Column number of the start position.
+	 * @param endLine      Line number of the end position.
+	 * @param endColumn    Column number of the end position.
+	 */
+	public CodeSnippet(LineIndex lines, int startLine, int startColumn, int endLine, int endColumn)
 	{
 		this.startLine   = startLine;
 		this.startColumn = startColumn;
 		this.endLine     = endLine;
 		this.endColumn   = endColumn;
-
-		int startPos = 0;
-		int endPos   = 0;
-		
-		int start = 0, end = 0, line = 1;
-		while ((end = code.indexOf('\n', start)) >= 0)
-		{
-			if (line == startLine) startPos = start + startColumn - 1;
-			if (line == endLine)   endPos   = start + endColumn;
-			start = end + 1;
-			++line;
-		}
-		
-		this.startPos = startPos;
-		this.endPos   = endPos;
+		this.startPos    = (startLine >= 1 && startLine <= lines.getLineCount()) ? lines.getPos(startLine, startColumn) : 0;
+		this.endPos      = (endLine   >= 1 && endLine   <= lines.getLineCount()) ? lines.getPos(endLine, endColumn) + 1 : 0;
 	}
 	
 	/**
@@ -158,6 +160,19 @@ public final class CodeSnippet implements Comparable<CodeSnippet>
 		this(code, element.beginLine, element.beginColumn, element.endLine, element.endColumn);
 	}
 	
+	/**
+	 * Create a code snippet from a lua syntax element.
+	 * The position information will be copied from the {@code luaj} {@link SyntaxElement}
+	 * object.
+	 *  
+	 * @param lines    Line index of the referenced source code.
+	 * @param element  Lua syntax element.
+	 */
+	public CodeSnippet(LineIndex lines, SyntaxElement element)
+	{
+		this(lines, element.beginLine, element.beginColumn, element.endLine, element.endColumn);
+	}
+	
 	public int getBeginLine()   {return startLine;}
 	public int getBeginColumn() {return startColumn;}
 	public int getBeginPos()    {return startPos;}
@@ -184,7 +199,20 @@ public final class CodeSnippet implements Comparable<CodeSnippet>
 	 */
 	public String getLine(String code)
 	{
-		return isNone() ? "" : code.substring(code.lastIndexOf('\n', startPos) + 1, code.indexOf('\n', startPos));
+		if (isNone()) return "";
+		final int end = code.indexOf('\n', startPos);
+		return code.substring(code.lastIndexOf('\n', startPos) + 1, end >= 0 ? end : code.length());
+	}
+	
+	/**
+	 * Get the complete line of code this code snippet starts in.
+	 * 
+	 * @param lines  Line index of the source code this snippet was created for.
+	 * @return       The line of code, that contains this snippet's start position. 
+	 */
+	public String getLine(LineIndex lines)
+	{
+		return isNone() ? "" : lines.getLineText(startLine);
 	}
 	
 	/**
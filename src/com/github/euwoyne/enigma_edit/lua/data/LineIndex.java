@@ -0,0 +1,136 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.lua.data;
+
+import java.util.Arrays;
+
+/**
+ * Index of the line start positions of a source code string.
+ * The index is built by a single pass over the code. Afterwards conversions
+ * between character offsets and line/column pairs are done by table lookup
+ * (or binary search) instead of scanning the code again. An index should be
+ * created once per code analysis and shared by all {@link CodeSnippet}s
+ * created during that analysis.
+ */
+public final class LineIndex
+{
+	/** indexed source code */
+	private final String code;
+	
+	/** character offset of the first character of each line ({@code starts[0]} is line 1) */
+	private final int[]  starts;
+	
+	/** number of lines */
+	private final int    count;
+	
+	/**
+	 * Build the index for the given source code.
+	 * 
+	 * @param code  Source code to be indexed.
+	 */
+	public LineIndex(String code)
+	{
+		int[] starts = new int[64];
+		int   count  = 1;
+		int   end    = -1;
+		while ((end = code.indexOf('\n', end + 1)) >= 0)
+		{
+			if (count == starts.length)
+				starts = Arrays.copyOf(starts, count * 2);
+			starts[count++] = end + 1;
+		}
+		this.code   = code;
+		this.starts = starts;
+		this.count  = count;
+	}
+	
+	/**
+	 * Return the indexed source code.
+	 */
+	public String getCode() {return code;}
+	
+	/**
+	 * Return the number of lines in the source code.
+	 */
+	public int getLineCount() {return count;}
+	
+	/**
+	 * Return the character offset of the first character in the given line.
+	 * 
+	 * @param line  Line number ({@code 1 <= line <= getLineCount()}).
+	 * @return      Character offset of the line start.
+	 */
+	public int getLineStart(int line)
+	{
+		return starts[line - 1];
+	}
+	
+	/**
+	 * Return the character offset behind the last character of the given line.
+	 * This is the position of the terminating line break or the length of the code.
+	 * 
+	 * @param line  Line number ({@code 1 <= line <= getLineCount()}).
+	 * @return      Character offset of the line end.
+	 */
+	public int getLineEnd(int line)
+	{
+		return line < count ? starts[line] - 1 : code.length();
+	}
+	
+	/**
+	 * Return the number of the line containing the given character offset.
+	 * A line break character belongs to the line it terminates.
+	 * 
+	 * @param pos  Character offset.
+	 * @return     Line number ({@code 1 <= line <= getLineCount()}).
+	 */
+	public int getLine(int pos)
+	{
+		final int idx = Arrays.binarySearch(starts, 0, count, pos);
+		return idx >= 0 ? idx + 1 : -idx - 1;
+	}
+	
+	/**
+	 * Return the character offset of the given line/column pair.
+	 * 
+	 * @param line    Line number ({@code 1 <= line <= getLineCount()}).
+	 * @param column  Column number (starting at {@code 1}).
+	 * @return        Character offset.
+	 */
+	public int getPos(int line, int column)
+	{
+		return starts[line - 1] + column - 1;
+	}
+	
+	/**
+	 * Return the text of the given line (without line break).
+	 * 
+	 * @param line  Line number ({@code 1 <= line <= getLineCount()}).
+	 * @return      The requested line of code.
+	 */
+	public String getLineText(int line)
+	{
+		return code.substring(getLineStart(line), getLineEnd(line));
+	}
+}
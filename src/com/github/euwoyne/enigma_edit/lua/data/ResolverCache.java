@@ -0,0 +1,106 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.lua.data;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memoization of resolved tiles.
+ * Most worlds use only a handful of different keys, while every cell has to
+ * be resolved. This cache stores the result of {@link Resolver#resolve} for
+ * every {@code (resolver, key, mode)} triple. The cached tiles are
+ * {@link Tile#seal() sealed}, so that they may safely be shared by all cells
+ * using the same key. An instance is meant to live for a single code analysis
+ * (see {@link com.github.euwoyne.enigma_edit.lua.CodeData CodeData}), since
+ * the declarations referenced by the cached tiles change with every analysis.
+ */
+public class ResolverCache
+{
+	/** cached tiles per resolver and mode */
+	private final Map<Resolver, EnumMap<Mode, Map<String, Tile>>> cache;
+	
+	/**
+	 * Create an empty cache.
+	 */
+	public ResolverCache()
+	{
+		cache = new ConcurrentHashMap<Resolver, EnumMap<Mode, Map<String, Tile>>>();
+	}
+	
+	/**
+	 * Get the cache map for the given resolver and mode.
+	 * 
+	 * @param resolver  Resolver the map is used for.
+	 * @param mode      Difficulty mode.
+	 * @return          Key to tile map.
+	 */
+	private Map<String, Tile> getMap(Resolver resolver, Mode mode)
+	{
+		EnumMap<Mode, Map<String, Tile>> modes = cache.get(resolver);
+		if (modes == null)
+		{
+			modes = new EnumMap<Mode, Map<String, Tile>>(Mode.class);
+			for (Mode m : Mode.values())
+				modes.put(m, new ConcurrentHashMap<String, Tile>());
+			final EnumMap<Mode, Map<String, Tile>> prev = cache.putIfAbsent(resolver, modes);
+			if (prev != null) modes = prev;
+		}
+		return modes.get(mode);
+	}
+	
+	/**
+	 * Resolve the given key using the cache.
+	 * If the triple {@code (resolver, key, mode)} has not been resolved before,
+	 * {@link Resolver#resolve} is called and the result is sealed and stored.
+	 * 
+	 * @param resolver  Resolver to use.
+	 * @param key       Key to resolve.
+	 * @param mode      Difficulty mode to use.
+	 * @return          The requested (sealed) tile.
+	 */
+	public Tile resolve(Resolver resolver, String key, Mode mode)
+	{
+		final Map<String, Tile> map = getMap(resolver, mode);
+		Tile tile = map.get(key);
+		if (tile == null)
+		{
+			tile = resolver.resolve(key, mode);
+			if (tile == null) return null;
+			tile.seal();
+			final Tile prev = map.putIfAbsent(key, tile);
+			if (prev != null) tile = prev;
+		}
+		return tile;
+	}
+	
+	/**
+	 * Drop all cached tiles.
+	 */
+	public void clear()
+	{
+		cache.clear();
+	}
+}
@@ -2,6 +2,9 @@ package com.github.euwoyne.enigma_edit.lua.data;
 
 import java.util.Iterator;
 
+import com.github.euwoyne.enigma_edit.lua.RevId;
+import com.github.euwoyne.enigma_edit.lua.ReverseIDProvider;
+
 public class Tile
 {
 	public interface Part
@@ -22,15 +25,16 @@ public class Tile
 	
 	protected class Part_private implements Part
 	{
-		public String     easyKey;
-		public ObjectDecl easy;
-		public String     difficultKey;
-		public ObjectDecl difficult;
+		private String     easyKey;
+		private ObjectDecl easy;
+		private String     difficultKey;
+		private ObjectDecl difficult;
 		
 		public Part_private() {easy = null; difficult = null;}
 		
 		public void set(String key, ObjectDecl part, Mode mode)
 		{
+			checkSealed();
 			if (mode != Mode.DIFFICULT) {easy      = part; if (key != null) easyKey      = key;}
 			if (mode != Mode.EASY)      {difficult = part; if (key != null) difficultKey = key;}
 		}
@@ -85,13 +89,56 @@ public class Tile
 	protected Part_private item;
 	protected Part_private actor;
 	protected Part_private stone;
+	protected boolean      sealed;
 	
 	public Tile()
 	{
-		floor = new Part_private();
-		item  = new Part_private();
-		actor = new Part_private();
-		stone = new Part_private();
+		floor  = new Part_private();
+		item   = new Part_private();
+		actor  = new Part_private();
+		stone  = new Part_private();
+		sealed = false;
+	}
+	
+	/**
+	 * Copy constructor.
+	 * The new tile references the same declarations, but is not sealed.
+	 * 
+	 * @param tile  Tile to copy.
+	 */
+	public Tile(Tile tile)
+	{
+		this();
+		add(this.floor, tile.floor, Mode.NORMAL);
+		add(this.item,  tile.item,  Mode.NORMAL);
+		add(this.actor, tile.actor, Mode.NORMAL);
+		add(this.stone, tile.stone, Mode.NORMAL);
+	}
+	
+	/**
+	 * Make this tile immutable.
+	 * Any further attempt to modify the tile will throw an {@link IllegalStateException}.
+	 * Sealed tiles may be shared (e.g. by all cells using the same key). Use
+	 * the {@link #Tile(Tile) copy constructor} to obtain a modifiable copy.
+	 * 
+	 * @return  This tile.
+	 */
+	public Tile seal()
+	{
+		sealed = true;
+		return this;
+	}
+	
+	/**
+	 * Check, if this tile has been {@link #seal() sealed}.
+	 * 
+	 * @return  {@code true}, if the tile may not be modified.
+	 */
+	public boolean isSealed() {return sealed;}
+	
+	private void checkSealed()
+	{
+		if (sealed) throw new IllegalStateException("attempt to modify a sealed tile");
 	}
 	
 	public boolean isNull() {return floor.isNull() && item.isNull() && actor.isNull() && stone.isNull();}
@@ -111,8 +158,106 @@ public class Tile
 	public Part ac() {return actor;}
 	public Part st() {return stone;}
 	
+	/**
+	 * Return the type mask.
+	 * That is the types of all parts (see {@link TileDecl#typeMask()}).
+	 * 
+	 * @return  Type bitmask of the tile.
+	 */
+	public int typeMask()
+	{
+		int type = 0;
+		if (floor.hasEasy())      type |= TileDeclPart.FL;
+		if (item.hasEasy())       type |= TileDeclPart.IT;
+		if (actor.hasEasy())      type |= TileDeclPart.AC;
+		if (stone.hasEasy())      type |= TileDeclPart.ST;
+		if (floor.hasDifficult()) type |= TileDeclPart.FL << TileDeclPart.T_SIZE;
+		if (item.hasDifficult())  type |= TileDeclPart.IT << TileDeclPart.T_SIZE;
+		if (actor.hasDifficult()) type |= TileDeclPart.AC << TileDeclPart.T_SIZE;
+		if (stone.hasDifficult()) type |= TileDeclPart.ST << TileDeclPart.T_SIZE;
+		return type;
+	}
+	
+	/**
+	 * Return the type mask (masked for given mode).
+	 * 
+	 * @param mode  Mode to get the types for.
+	 * @return      Type bitmask of the tile.
+	 */
+	public int typeMask(Mode mode)
+	{
+		return typeMask(typeMask(), mode);
+	}
+	
+	/**
+	 * Mask the given type mask for the given mode.
+	 * 
+	 * @param typeMask  Type bitmask of both modes.
+	 * @param mode      Mode to get the types for.
+	 * @return          Type bitmask of the given mode.
+	 */
+	public static int typeMask(int typeMask, Mode mode)
+	{
+		switch (mode)
+		{
+		case EASY:      return typeMask & TileDeclPart.T_MASK;
+		case DIFFICULT: return typeMask & ~TileDeclPart.T_MASK;
+		default:        return typeMask;
+		}
+	}
+	
+	private static String reverseID(ReverseIDProvider prorid, Part part, Mode2 mode, int typeMask, int type)
+	{
+		if (mode == Mode2.DIFFICULT) type <<= TileDeclPart.T_SIZE;
+		if ((typeMask & type) == 0 || !part.has(mode)) return "nil";
+		return prorid.getReverseID(part.get(mode), mode);
+	}
+	
+	private String reverseID(ReverseIDProvider prorid, Mode2 mode, int typeMask)
+	{
+		StringBuilder out = new StringBuilder();
+		out.append(reverseID(prorid, floor, mode, typeMask, TileDeclPart.FL));
+		out.append(';');
+		out.append(reverseID(prorid, item,  mode, typeMask, TileDeclPart.IT));
+		out.append(';');
+		out.append(reverseID(prorid, actor, mode, typeMask, TileDeclPart.AC));
+		out.append(';');
+		out.append(reverseID(prorid, stone, mode, typeMask, TileDeclPart.ST));
+		return out.toString();
+	}
+	
+	/**
+	 * Calculate the reverse IDs of the given parts of this tile.
+	 * The IDs have the same format as the ones of {@link TileDecl#reverseID},
+	 * so that a resolved tile can be compared to a requested one.
+	 * 
+	 * @param prorid    Provider of {@link ObjectDecl} reverse IDs.
+	 * @param typeMask  Parts to include (see {@link #typeMask()}).
+	 * @return          This tile's reverse ID.
+	 */
+	public RevId reverseID(ReverseIDProvider prorid, int typeMask)
+	{
+		final RevId revId = new RevId();
+		revId.easy      = reverseID(prorid, Mode2.EASY,      typeMask);
+		revId.difficult = reverseID(prorid, Mode2.DIFFICULT, typeMask);
+		if (revId.easy.equals(revId.difficult)) revId.normal = revId.difficult = revId.easy;
+		return revId;
+	}
+	
+	/**
+	 * Calculate the reverse IDs of this tile.
+	 * 
+	 * @param prorid  Provider of {@link ObjectDecl} reverse IDs.
+	 * @return        This tile's reverse ID.
+	 */
+	public RevId reverseID(ReverseIDProvider prorid)
+	{
+		return reverseID(prorid, typeMask());
+	}
+	
 	private void add(String key, ObjectDecl part, String kind, Mode mode)
 	{
+		checkSealed();
 		if (kind.startsWith("#")) kind = kind.substring(1);
 		switch (kind.substring(0, 2))
 		{
@@ -197,6 +342,7 @@ public class Tile
 	
 	public void add(Tile tile, Mode mode)
 	{
+		checkSealed();
 		if (tile.has_fl(mode)) add(this.floor, tile.floor, mode);
 		if (tile.has_it(mode)) add(this.item,  tile.item,  mode);
 		if (tile.has_ac(mode)) add(this.actor, tile.actor, mode);
@@ -70,12 +70,14 @@ public class WoCallAPI20 extends SourceData implements WoCall
 		/**
 		 * Create an empty map.
 		 * 
+		 * @param resolver    Resolver used to resolve the default tile.
+		 * @param cache       Resolution cache.
 		 * @param width       Width of the new world (should be an integer).
 		 * @param height      Height of the new world (should be an integer).
 		 * @param defaultkey  Default tile key (should be a string).
 		 * @param mode        Mode that {@code wo} was called in.
 		 */
-		Map(Resolver resolver, SimpleValue width, SimpleValue height, SimpleValue defaultkey, Mode mode)
+		Map(Resolver resolver, ResolverCache cache, SimpleValue width, SimpleValue height, SimpleValue defaultkey, Mode mode)
 		{
 			this.mode = mode;
 			this.map  = null;
@@ -97,19 +99,21 @@ public class WoCallAPI20 extends SourceData implements WoCall
 				throw new LevelLuaException.Runtime("IllegalWoDefaultKey", mode, defaultkey.typename(mode), defaultkey.code);
 			
 			// get default tile
-			this.defaulttile = resolver.resolve(this.defaultkey, Mode.NORMAL);
+			this.defaulttile = cache.resolve(resolver, this.defaultkey, Mode.NORMAL);
 		}
 		
 		
 		/**
 		 * Create a map from a lua table.
 		 * 
+		 * @param resolver    Resolver used to resolve the default tile.
+		 * @param cache       Resolution cache.
 		 * @param source      World map (should be a table of strings).
 		 * @param defaultkey  Default tile key (should be a string).
 		 * @param mode        Mode that {@code wo} was called in.
 		 * @param instmode    Mode, this instance is created for
 		 */
-		Map(Resolver resolver, Table source, SimpleValue defaultkey, Mode mode, Mode2 instmode) throws LevelLuaException.Runtime
+		Map(Resolver resolver, ResolverCache cache, Table source, SimpleValue defaultkey, Mode mode, Mode2 instmode) throws LevelLuaException.Runtime
 		{
 			this.mode = instmode.mode();
 			this.map = source;
@@ -120,7 +124,7 @@ public class WoCallAPI20 extends SourceData implements WoCall
 				throw new LevelLuaException.Runtime("IllegalWoDefaultKey", mode, defaultkey.typename(mode), defaultkey.code);
 			
 			// get default tile
-			this.defaulttile = resolver.resolve(this.defaultkey, mode);
+			this.defaulttile = cache.resolve(resolver, this.defaultkey, mode);
 			
 			// check height
 			int height = 0;
@@ -259,6 +263,7 @@ public class WoCallAPI20 extends SourceData implements WoCall
 	}
 	
 	final private Resolver      resolver;
+	final private ResolverCache cache;
 	
 	final private Source        defaultkeySrc;
 	final private Source        mapSrc;
@@ -277,16 +282,18 @@ public class WoCallAPI20 extends SourceData implements WoCall
 	 * Call to {@code wo(resolver, defaultkey, width, height)} to create an empty level.
 	 * 
 	 * @param resolver    Resolver instance (already checked by the {@link CodeAnalyser}).
+	 * @param cache       Resolution cache (shared by all world calls of the analysis).
 	 * @param defaultkey  Default tile key (should be a string).
 	 * @param width       Width of the new world (should be an integer).
 	 * @param height      Height of the new world (should be an integer).
 	 * @param mode        Mode that {@code wo} was called in.
 	 * @param code        Code snippet containing the call.
 	 */
-	public WoCallAPI20(Resolver resolver, Source defaultkey, Source width, Source height, Mode mode, CodeSnippet code) throws LevelLuaException.Runtime
+	public WoCallAPI20(Resolver resolver, ResolverCache cache, Source defaultkey, Source width, Source height, Mode mode, CodeSnippet code) throws LevelLuaException.Runtime
 	{
 		super(code);
 		this.resolver      = resolver;
+		this.cache         = cache;
 		this.defaultkeySrc = defaultkey.snapshot();
 		this.mapSrc        = null;
 		this.map           = null;
@@ -304,12 +311,12 @@ public class WoCallAPI20 extends SourceData implements WoCall
 		
 		// create empty map
 		if (this.defaultkey.hasEasy() && this.width.hasEasy() && this.height.hasEasy())
-			this.easyMap = new Map(resolver, this.width.easy, this.height.easy, this.defaultkey.easy, Mode.EASY);
+			this.easyMap = new Map(resolver, cache, this.width.easy, this.height.easy, this.defaultkey.easy, Mode.EASY);
 		else
 			this.easyMap = null;
 		
 		if (this.defaultkey.hasDifficult() && this.width.hasDifficult() && this.height.hasDifficult())
-			this.difficultMap = new Map(resolver, this.width.difficult,  this.height.difficult, this.defaultkey.difficult, Mode.DIFFICULT);
+			this.difficultMap = new Map(resolver, cache, this.width.difficult,  this.height.difficult, this.defaultkey.difficult, Mode.DIFFICULT);
 		else
 			this.difficultMap = null;
 	}
@@ -318,15 +325,17 @@ public class WoCallAPI20 extends SourceData implements WoCall
 	 * Call to {@code wo(resolver, defaultkey, map)} to create a world from map.
 	 * 
 	 * @param resolver    Resolver instance (already checked by the {@link CodeAnalyser}).
+	 * @param cache       Resolution cache (shared by all world calls of the analysis).
 	 * @param defaultkey  Default tile key (should be a string).
 	 * @param map         World map (should be a table of strings).
 	 * @param mode        Mode that {@code wo} was called in.
 	 * @param code        Code snippet containing the call.
 	 */
-	public WoCallAPI20(Resolver resolver, Source defaultkey, Source map, Mode mode, CodeSnippet code) throws LevelLuaException.Runtime
+	public WoCallAPI20(Resolver resolver, ResolverCache cache, Source defaultkey, Source map, Mode mode, CodeSnippet code) throws LevelLuaException.Runtime
 	{
 		super(code);
 		this.resolver      = resolver;
+		this.cache         = cache;
 		this.defaultkeySrc = defaultkey.snapshot();
 		this.mapSrc        = map.snapshot();
 		this.widthSrc      = null;
@@ -345,14 +354,14 @@ public class WoCallAPI20 extends SourceData implements WoCall
 			throw new LevelLuaException.Runtime("IllegalWoMap", mode, mapSrc.typename(mode), defaultkeySrc.getCode());
 		
 		if (this.defaultkey.hasEasy() && this.map.hasEasy())
-			this.easyMap = new Map(resolver, this.map.easy, this.defaultkey.easy, mode, Mode2.EASY);
+			this.easyMap = new Map(resolver, cache, this.map.easy, this.defaultkey.easy, mode, Mode2.EASY);
 		else
 			this.easyMap = null;
 		
 		if (this.defaultkey.isNormal() && this.map.isNormal())
 			this.difficultMap = this.easyMap;
 		else if (this.defaultkey.hasDifficult() && this.map.hasDifficult())
-			this.difficultMap = new Map(resolver, this.map.difficult, this.defaultkey.difficult, mode, Mode2.DIFFICULT);
+			this.difficultMap = new Map(resolver, cache, this.map.difficult, this.defaultkey.difficult, mode, Mode2.DIFFICULT);
 		else
 			this.difficultMap = null;
 	}
@@ -361,14 +370,16 @@ public class WoCallAPI20 extends SourceData implements WoCall
 	 * Call to {@code wo(resolver, libmap)} to create a world by the library {@code libmap}.
 	 * 
 	 * @param resolver  Resolver instance (already checked by the {@link CodeAnalyser CodeAnalyser}).
+	 * @param cache     Resolution cache (shared by all world calls of the analysis).
 	 * @param libmap    World map (should be an instance of {@link LibmapMap}).
 	 * @param mode      Mode that {@code wo} was called in.
 	 * @param code      Code snippet containing the call.
 	 */
-	public WoCallAPI20(Resolver resolver, Source libmap, Mode mode, CodeSnippet code) throws LevelLuaException.Runtime
+	public WoCallAPI20(Resolver resolver, ResolverCache cache, Source libmap, Mode mode, CodeSnippet code) throws LevelLuaException.Runtime
 	{
 		super(code);
 		this.resolver      = resolver;
+		this.cache         = cache;
 		this.defaultkeySrc = null;
 		this.defaultkey    = null;
 		this.mapSrc        = libmap;
@@ -392,17 +403,30 @@ public class WoCallAPI20 extends SourceData implements WoCall
 	 * @param y     Y coordinate of the field ({@code 1 <= y <= height})
 	 * @param mode  Use the map for this mode.
 	 * @return      Key at the specified position {@code (x,y)} on the map;
-	 *              or {@code null}, if the position is outside of the map.
+	 *              or {@code null}, if the position is outside of the map or
+	 *              there is no map for the given mode.
 	 */
 	public String getKey(int x, int y, Mode2 mode)
 	{
 		final Map map = mode == Mode2.EASY ? easyMap : difficultMap;
-		return map.getKey(x, y);
+		return map != null ? map.getKey(x, y) : null;
+	}
+	
+	/**
+	 * Returns the resolver given to the world call.
+	 * 
+	 * @return  Resolver used to resolve the keys of the map.
+	 */
+	public Resolver getResolver()
+	{
+		return resolver;
 	}
 	
 	/**
 	 * Resolve the tile for the given position.
 	 * This calls {@link Resolver#resolve} on the value returned by {@link #getKey}.
+	 * The result is memoized by the {@link ResolverCache} of this call and
+	 * thus sealed and shared with all other cells of the same key.
 	 * 
 	 * @param x     X coordinate of the field ({@code 1 <= x <= width})
 	 * @param y     Y coordinate of the field ({@code 1 <= y <= height})
@@ -415,17 +439,20 @@ public class WoCallAPI20 extends SourceData implements WoCall
 		final String easyKey = easyMap      != null ? easyMap.getKey(x, y)      : null;
 		final String diffKey = difficultMap != null ? difficultMap.getKey(x, y) : null;
 		final Tile tile;
+		// equal keys of different maps are resolved per mode (as some resolvers treat Mode.NORMAL differently)
 		if (easyKey == diffKey)
-			tile = (easyKey != null) ? resolver.resolve(easyKey, Mode.NORMAL) : new Tile();
+			tile = (easyKey != null) ? cache.resolve(resolver, easyKey, Mode.NORMAL) : new Tile();
 		else
-			tile = Tile.composeMode(easyKey != null ? resolver.resolve(easyKey, Mode.EASY)      : new Tile(),
-					                diffKey != null ? resolver.resolve(diffKey, Mode.DIFFICULT) : new Tile());
+			tile = Tile.composeMode(easyKey != null ? cache.resolve(resolver, easyKey, Mode.EASY)      : new Tile(),
+					                diffKey != null ? cache.resolve(resolver, diffKey, Mode.DIFFICULT) : new Tile());
 		return tile;
 	}
 	
 	/**
 	 * Resolve the tile for the given position.
 	 * This calls {@link Resolver#resolve} on the value returned by {@link #getKey}.
+	 * The result is memoized by the {@link ResolverCache} of this call and
+	 * thus sealed and shared with all other cells of the same key.
 	 * 
 	 * @param x     X coordinate of the field ({@code 1 <= x <= width})
 	 * @param y     Y coordinate of the field ({@code 1 <= y <= height})
@@ -440,14 +467,15 @@ public class WoCallAPI20 extends SourceData implements WoCall
 		final Tile tile;
 		switch (mode)
 		{
-		case EASY:      tile = (easyKey != null) ? resolver.resolve(easyKey, mode) : new Tile(); break;
-		case DIFFICULT: tile = (diffKey != null) ? resolver.resolve(diffKey, mode) : new Tile(); break;
+		case EASY:      tile = (easyKey != null) ? cache.resolve(resolver, easyKey, mode) : new Tile(); break;
+		case DIFFICULT: tile = (diffKey != null) ? cache.resolve(resolver, diffKey, mode) : new Tile(); break;
 		default:
+			// equal keys of different maps are resolved per mode (as some resolvers treat Mode.NORMAL differently)
 			if (easyKey == diffKey)
-				tile = (easyKey != null) ? resolver.resolve(easyKey, Mode.NORMAL) : new Tile();
+				tile = (easyKey != null) ? cache.resolve(resolver, easyKey, Mode.NORMAL) : new Tile();
 			else
-				tile = Tile.composeMode(easyKey != null ? resolver.resolve(easyKey, Mode.EASY)      : new Tile(),
-						                diffKey != null ? resolver.resolve(diffKey, Mode.DIFFICULT) : new Tile());
+				tile = Tile.composeMode(easyKey != null ? cache.resolve(resolver, easyKey, Mode.EASY)      : new Tile(),
+						                diffKey != null ? cache.resolve(resolver, diffKey, Mode.DIFFICULT) : new Tile());
 		}
 		return tile;
 	}
@@ -24,13 +24,19 @@
 package com.github.euwoyne.enigma_edit.lua.res;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
 import org.luaj.vm2.LuaValue;
 
 import com.github.euwoyne.enigma_edit.error.LevelLuaException;
+import com.github.euwoyne.enigma_edit.lua.ReverseIDProvider;
 import com.github.euwoyne.enigma_edit.lua.ReverseInfo;
 import com.github.euwoyne.enigma_edit.lua.data.CodeSnippet;
 import com.github.euwoyne.enigma_edit.lua.data.MMResolver;
@@ -59,10 +65,111 @@ public class Autotile extends SourceData implements Resolver
 		int    offset;
 	}
 	
-	private final MMResolver      subresolver;
-	private final ArrayList<Rule> easyRules;
-	private final ArrayList<Rule> difficultRules;
-	private       boolean         isNormal;
+	/**
+	 * Compiled rule list.
+	 * All rules match a common prefix (all but the last character of
+	 * {@code first}) followed by a character range. The rules are stored in
+	 * a prefix trie by their common prefix, so that finding the first
+	 * matching rule only needs a single pass over the key.
+	 */
+	private static class RuleIndex
+	{
+		private static class Node
+		{
+			final HashMap<Character, Node> children = new HashMap<Character, Node>();
+			final ArrayList<Integer>       rules    = new ArrayList<Integer>();
+		}
+		
+		private final List<Rule> rules;
+		private final Node       root;
+		private final int        always;
+		
+		RuleIndex(List<Rule> rules)
+		{
+			int always = Integer.MAX_VALUE;
+			this.rules = new ArrayList<Rule>(rules);
+			this.root  = new Node();
+			
+			for (int i = 0; i < rules.size(); ++i)
+			{
+				final Rule rule = rules.get(i);
+				if (rule == null) continue;
+				
+				// empty prefix matches any key
+				if (rule.first.isEmpty())
+				{
+					always = Math.min(always, i);
+					continue;
+				}
+				
+				// insert common prefix
+				Node node = root;
+				for (int j = 0; j < rule.first.length() - 1; ++j)
+					node = node.children.computeIfAbsent(rule.first.charAt(j), c -> new Node());
+				node.rules.add(i);
+			}
+			this.always = always;
+		}
+		
+		/**
+		 * Find the first rule matching the given key.
+		 * 
+		 * @param key  Key to match.
+		 * @return     First matching rule or {@code null}.
+		 */
+		Rule match(String key)
+		{
+			int  best = always;
+			Node node = root;
+			for (int depth = 0; node != null; ++depth)
+			{
+				if (depth >= key.length()) break;
+				final char c = key.charAt(depth);
+				for (int i : node.rules)
+				{
+					if (i >= best) break;
+					final Rule rule = rules.get(i);
+					if (rule.first.charAt(depth) <= c && c <= rule.last.charAt(depth))
+					{
+						best = i;
+						break;
+					}
+				}
+				node = node.children.get(c);
+			}
+			return best != Integer.MAX_VALUE ? rules.get(best) : null;
+		}
+	}
+	
+	/**
+	 * Reverse lookup index.
+	 * Maps the reverse IDs of the tiles generated by the rules to their keys
+	 * (separately for each {@link Mode}).
+	 */
+	private static class ReverseIndex
+	{
+		/** reverse ID to key (per mode) */
+		final EnumMap<Mode, HashMap<String, String>> keys;
+		
+		ReverseIndex()
+		{
+			this.keys     = new EnumMap<Mode, HashMap<String, String>>(Mode.class);
+			for (Mode mode : Mode.values())
+				keys.put(mode, new HashMap<String, String>());
+		}
+	}
+	
+	private final MMResolver                       subresolver;
+	private final ArrayList<Rule>                  easyRules;
+	private final ArrayList<Rule>                  difficultRules;
+	private       boolean                          isNormal;
+	
+	private       RuleIndex                        easyIndex;
+	private       RuleIndex                        difficultIndex;
+	private final Map<String, String[]>            templates;
+	private final EnumMap<Mode, Map<String, Tile>> tiles;
+	private final ConcurrentLinkedQueue<String>    pending;
+	private       ReverseIndex                     index;
 	
 	@Override public Tiles    getTiles(Mode2 mode)      {return subresolver.deref(mode).getTiles(mode);}
 	@Override public String   typename()                {return "res.autotile";}
@@ -104,6 +211,14 @@ public class Autotile extends SourceData implements Resolver
 		this.easyRules      = new ArrayList<Rule>();
 		this.difficultRules = new ArrayList<Rule>();
 		this.isNormal       = true;
+		this.easyIndex      = null;
+		this.difficultIndex = null;
+		this.templates      = new ConcurrentHashMap<String, String[]>();
+		this.tiles          = new EnumMap<Mode, Map<String, Tile>>(Mode.class);
+		for (Mode mode : Mode.values())
+			tiles.put(mode, new ConcurrentHashMap<String, Tile>());
+		this.pending        = new ConcurrentLinkedQueue<String>();
+		this.index          = null;
 	}
 	
 	public static Rule getRule(Table table, Source source, Mode2 mode) throws LevelLuaException.Runtime
@@ -179,6 +294,8 @@ public class Autotile extends SourceData implements Resolver
 			throw new LevelLuaException.Runtime("IllegalAutotileRule", mode, source.typename(mode), source.getCode());
 		
 		// add rule
+		easyIndex      = null;
+		difficultIndex = null;
 		switch (mode)
 		{
 		case EASY:
@@ -205,16 +322,66 @@ public class Autotile extends SourceData implements Resolver
 		}
 	}
 	
-	private static boolean substitute(SimpleValue value, Variable var, String sub, Mode mode)
+	/**
+	 * Split a template string at its placeholders ({@code "%%"}).
+	 * The segments are cached, as the same templates are used for many keys.
+	 * 
+	 * @param s  Template string.
+	 * @return   Segments between the placeholders.
+	 */
+	private String[] split(String s)
 	{
-		final String s = value.value.checkjstring();
-		final String r = s.replaceAll("%%", "%" + sub);
-		if (s.equals(r)) return false;
-		var.assign(new SimpleValue(LuaValue.valueOf(r), value.getCode()), var.getAssign(mode), mode);
+		String[] segments = templates.get(s);
+		if (segments == null)
+		{
+			final ArrayList<String> list = new ArrayList<String>();
+			int from = 0;
+			for (int pos = s.indexOf("%%"); pos >= 0; pos = s.indexOf("%%", from))
+			{
+				list.add(s.substring(from, pos));
+				from = pos + 2;
+			}
+			list.add(s.substring(from));
+			segments = list.toArray(new String[list.size()]);
+			templates.put(s, segments);
+		}
+		return segments;
+	}
+	
+	private boolean substitute(SimpleValue value, Variable var, String sub, Mode mode)
+	{
+		final String[] segments = split(value.value.checkjstring());
+		if (segments.length == 1) return false;
+		
+		final StringBuilder r = new StringBuilder(segments[0]);
+		for (int i = 1; i < segments.length; ++i)
+			r.append('%').append(sub).append(segments[i]);
+		
+		var.assign(new SimpleValue(LuaValue.valueOf(r.toString()), value.getCode()), var.getAssign(mode), mode);
+		return true;
+	}
+	
+	/**
+	 * Substitute a nested table.
+	 * Snapshots only copy the top level of a table, hence nested tables are
+	 * shared with the template. The substitution is applied to a copy, which
+	 * replaces the nested table, if anything has been substituted.
+	 * 
+	 * @param table  Nested table.
+	 * @param var    Variable containing the nested table.
+	 * @param sub    Substitution string.
+	 * @param mode   Mode of the nested table.
+	 * @return       {@code true}, if anything has been substituted.
+	 */
+	private boolean substitute(Table table, Variable var, String sub, Mode mode)
+	{
+		final Table copy = table.snapshot();
+		if (!substitute(copy, sub)) return false;
+		var.assign(copy, var.getAssign(mode), mode);
 		return true;
 	}
 	
-	private static boolean substitute(Table table, String sub)
+	private boolean substitute(Table table, String sub)
 	{
 		class SubLoop implements Consumer<Entry<String, Variable>>
 		{
@@ -231,7 +398,7 @@ public class Autotile extends SourceData implements Resolver
 				}
 				else if (table.hasNormal())
 				{
-					ret = ret | substitute(table.easy, sub);
+					ret = ret | substitute(table.easy, var, sub, Mode.NORMAL);
 				}
 				else
 				{
@@ -240,9 +407,9 @@ public class Autotile extends SourceData implements Resolver
 					if (value.hasDifficult() && value.difficult.value.isstring())
 						ret = ret | substitute(value.difficult, var, sub, Mode.DIFFICULT);
 					if (table.hasEasy())
-						ret = ret | substitute(table.easy, sub);
+						ret = ret | substitute(table.easy, var, sub, Mode.EASY);
 					if (table.hasDifficult())
-						ret = ret | substitute(table.difficult, sub);
+						ret = ret | substitute(table.difficult, var, sub, Mode.DIFFICULT);
 				}
 			}
 		};
@@ -252,7 +419,7 @@ public class Autotile extends SourceData implements Resolver
 		return loop.ret;
 	}
 	
-	private static void substitute(MMTable table, String sub, Tile target, Mode mode)
+	private void substitute(MMTable table, String sub, Tile target, Mode mode)
 	{
 		switch (mode)
 		{
@@ -282,7 +449,7 @@ public class Autotile extends SourceData implements Resolver
 		}
 	}
 	
-	private static void substitute(Tile template, String sub, Tile target, Mode mode)
+	private void substitute(Tile template, String sub, Tile target, Mode mode)
 	{
 		target.add(template, mode);
 		if (template.has_fl(mode)) substitute(template.fl().get(mode).checkTable(mode).snapshot(), sub, target, mode);
@@ -291,34 +458,40 @@ public class Autotile extends SourceData implements Resolver
 		if (template.has_st(mode)) substitute(template.st().get(mode).checkTable(mode).snapshot(), sub, target, mode);
 	}
 	
-	private Tile applyRules(ArrayList<Rule> rules, String key, Mode mode)
+	private Tile applyRules(RuleIndex rules, String key, Mode mode)
 	{
-		for (Rule rule : rules)
-		{
-			if (   key.substring(0, rule.first.length()).compareTo(rule.first) >= 0
-				&& key.substring(0, rule.last.length() ).compareTo(rule.last ) <= 0)
-			{
-				String sub;
-				if (rule.first == rule.last)	// {prefix, template}
-					sub = key.substring(rule.first.length());
-				else							// {first, last, template, [offset]}
-					sub = Integer.toString(rule.offset + key.charAt(rule.first.length() - 1) - rule.first.charAt(rule.first.length() - 1));
-				
-				Tile tile = new Tile();
-				substitute(subresolver.resolve(rule.template, mode), sub, tile, mode);
-				return tile;
-			}
-		}
-		return null;
+		final Rule rule = rules.match(key);
+		if (rule == null) return null;
+		
+		String sub;
+		if (rule.first == rule.last)	// {prefix, template}
+			sub = key.substring(rule.first.length());
+		else							// {first, last, template, [offset]}
+			sub = Integer.toString(rule.offset + key.charAt(rule.first.length() - 1) - rule.first.charAt(rule.first.length() - 1));
+		
+		Tile tile = new Tile();
+		substitute(subresolver.resolve(rule.template, mode), sub, tile, mode);
+		return tile;
 	}
 	
 	@Override
 	public Tile resolve(String key, Mode mode)
 	{
-		Tile tile = null;
+		// check memoized tiles (sealed, hence they may be shared)
+		final Map<String, Tile> memo = tiles.get(mode);
+		Tile tile = memo.get(key);
+		if (tile != null)
+			return tile;
+		
+		// compile rules
+		final RuleIndex easyRules      = (easyIndex      != null) ? easyIndex      : (easyIndex      = new RuleIndex(this.easyRules));
+		final RuleIndex difficultRules = (difficultIndex != null) ? difficultIndex : (difficultIndex = new RuleIndex(this.difficultRules));
+		
+		boolean complete;
 		if (isNormal)
 		{
 			tile = applyRules(easyRules, key, mode);
+			complete = (tile != null && !tile.isNull());
 		}
 		else
 		{
@@ -326,10 +499,12 @@ public class Autotile extends SourceData implements Resolver
 			{
 			case EASY:
 				tile = applyRules(easyRules, key, mode);
+				complete = (tile != null && !tile.isNull());
 				break;
 			
 			case DIFFICULT:
 				tile = applyRules(difficultRules, key, mode);
+				complete = (tile != null && !tile.isNull());
 				break;
 			
 			case NORMAL:
@@ -340,17 +515,90 @@ public class Autotile extends SourceData implements Resolver
 				else if (diff == null) tile = easy;
 				else                   tile = Tile.composeMode(easy, diff);
 				
+				complete = (tile != null && (easy == null || !easy.isNull()) && (diff == null || !diff.isNull()));
 				break;
+			
+			default:
+				complete = false;
 			}
 		}
 		
-		return (tile != null) ? tile : subresolver.resolve(key, mode);
+		if (tile == null)
+			return subresolver.resolve(key, mode);
+		
+		// memoize complete tiles only (a template might be declared later)
+		if (complete)
+		{
+			final Tile prev = memo.putIfAbsent(key, tile.seal());
+			if (prev != null) return prev;
+			pending.add(key);
+		}
+		return tile;
+	}
+	
+	private void addReverse(ReverseIndex index, String key, ReverseIDProvider provider)
+	{
+		for (Mode mode : Mode.values())
+		{
+			final Tile tile = resolve(key, mode);
+			if (tile == null || tile.isNull()) continue;
+			final String revId = tile.reverseID(provider).get(mode);
+			if (revId != null)
+				index.keys.get(mode).putIfAbsent(revId, key);
+		}
+	}
+	
+	private void addReverse(ReverseIndex index, List<Rule> rules, ReverseIDProvider provider)
+	{
+		for (Rule rule : rules)
+		{
+			if (rule == null || rule.first == rule.last || rule.first.isEmpty()) continue;
+			final String prefix = rule.first.substring(0, rule.first.length() - 1);
+			for (char c = rule.first.charAt(prefix.length()); c <= rule.last.charAt(prefix.length()); ++c)
+				addReverse(index, prefix + c, provider);
+		}
+	}
+	
+	/**
+	 * Get the reverse lookup index.
+	 * The index contains all keys of range rules (i.e. {@code {first, last,
+	 * template}}) and all keys resolved so far (as prefix rules allow for
+	 * arbitrary suffixes). It is created on first use and afterwards only
+	 * extended by the keys resolved since. As reverse IDs do not depend on
+	 * the request (see {@link ReverseIDProvider}), the index is kept for the
+	 * whole analysis.
+	 * 
+	 * @param provider  Provider of object reverse IDs.
+	 * @return          Up-to-date index.
+	 */
+	private ReverseIndex getIndex(ReverseIDProvider provider)
+	{
+		if (index == null)
+		{
+			pending.clear();
+			index = new ReverseIndex();
+			addReverse(index, easyRules,      provider);
+			addReverse(index, difficultRules, provider);
+			for (Map<String, Tile> memo : tiles.values())
+				for (String key : memo.keySet())
+					addReverse(index, key, provider);
+		}
+		for (String key = pending.poll(); key != null; key = pending.poll())
+			addReverse(index, key, provider);
+		return index;
 	}
 	
 	@Override
-	public int reverse(ReverseInfo info)
+	public synchronized int reverse(ReverseInfo info)
 	{
-		// TODO: implement reverse tile lookup (for 'res.autotile')
+		final Mode   mode  = info.getMode();
+		final String revId = info.reverseId().get(mode);
+		final String key   = (revId != null) ? getIndex(info).keys.get(mode).get(revId) : null;
+		if (key != null)
+		{
+			info.setKey(key);
+			return info.typeMask();
+		}
 		return subresolver.reverse(info);
 	}
 	
@@ -23,9 +23,17 @@
 
 package com.github.euwoyne.enigma_edit.lua.res;
 
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.github.euwoyne.enigma_edit.error.LevelLuaException;
+import com.github.euwoyne.enigma_edit.lua.ReverseIDProvider;
 import com.github.euwoyne.enigma_edit.lua.ReverseInfo;
 import com.github.euwoyne.enigma_edit.lua.data.CodeSnippet;
 import com.github.euwoyne.enigma_edit.lua.data.MMResolver;
@@ -33,16 +41,57 @@ import com.github.euwoyne.enigma_edit.lua.data.MMSimpleValue;
 import com.github.euwoyne.enigma_edit.lua.data.Mode;
 import com.github.euwoyne.enigma_edit.lua.data.Mode2;
 import com.github.euwoyne.enigma_edit.lua.data.Resolver;
+import com.github.euwoyne.enigma_edit.lua.data.SimpleValue;
 import com.github.euwoyne.enigma_edit.lua.data.Source;
 import com.github.euwoyne.enigma_edit.lua.data.SourceData;
 import com.github.euwoyne.enigma_edit.lua.data.Tile;
+import com.github.euwoyne.enigma_edit.lua.data.TileDeclPart;
 
 public class Composer extends SourceData implements Resolver
 {
-	private final MMResolver subresolver;
-	//private final Source     sequence;
-	private final String     easySequence;
-	private final String     difficultSequence;
+	/**
+	 * Reverse lookup index (separately for each {@link Mode}).
+	 * Besides the complete keys of the subresolver, this contains the
+	 * sub-keys usable for each layer of the sequence. A sub-key belongs to a
+	 * layer, if all its non-space characters are in positions of that layer.
+	 */
+	private static class ReverseIndex
+	{
+		/** reverse ID to complete key */
+		final EnumMap<Mode, HashMap<String, String>> keys;
+		
+		/** key length to layer to type mask to reverse ID to sub-key */
+		final EnumMap<Mode, TreeMap<Integer, TreeMap<Character, HashMap<Integer, HashMap<String, String>>>>> layers;
+		
+		ReverseIndex()
+		{
+			this.keys     = new EnumMap<Mode, HashMap<String, String>>(Mode.class);
+			this.layers   = new EnumMap<Mode, TreeMap<Integer, TreeMap<Character, HashMap<Integer, HashMap<String, String>>>>>(Mode.class);
+			for (Mode mode : Mode.values())
+			{
+				keys.put(mode, new HashMap<String, String>());
+				layers.put(mode, new TreeMap<Integer, TreeMap<Character, HashMap<Integer, HashMap<String, String>>>>());
+			}
+		}
+	}
+	
+	private final MMResolver                             subresolver;
+	//private final Source                                 sequence;
+	private final String                                 easySequence;
+	private final String                                 difficultSequence;
+	private       ReverseIndex                           index;
+	
+	/** layer positions per sequence and key length */
+	private final Map<String, Map<Integer, int[][]>>     layers;
+	
+	/** sub-keys per sequence and key */
+	private final Map<String, Map<String, String[]>>     subkeys;
+	
+	/** resolved sub-keys per mode */
+	private final EnumMap<Mode, Map<String, Tile>>       parts;
+	
+	/** composed tiles per mode */
+	private final EnumMap<Mode, Map<String, Tile>>       tiles;
 	
 	@Override public Tiles    getTiles(Mode2 mode)      {return subresolver.deref(mode).getTiles(mode);}
 	@Override public String   typename()                {return "res.composer";}
@@ -89,71 +138,396 @@ public class Composer extends SourceData implements Resolver
 	
 	public Composer(MMResolver subresolver, CodeSnippet code)
 	{
-		super(code);
-		this.subresolver       = subresolver;
 		//this.sequence          = new SimpleValue(LuaString.valueOf("123456789"), CodeSnippet.NONE);
-		this.easySequence      = "123456789";
-		this.difficultSequence = "123456789";
+		this(subresolver, "123456789", "123456789", code);
 	}
 	
 	public Composer(MMResolver subresolver, Source sequence, CodeSnippet code, Mode mode)
+	{
+		//this.sequence          = sequence.snapshot();
+		this(subresolver, getSequence(sequence, mode == Mode.DIFFICULT ? Mode2.DIFFICULT : Mode2.EASY),
+		                  getSequence(sequence, mode == Mode.EASY      ? Mode2.EASY      : Mode2.DIFFICULT), code);
+	}
+	
+	private Composer(MMResolver subresolver, String easySequence, String difficultSequence, CodeSnippet code)
 	{
 		super(code);
 		this.subresolver       = subresolver;
-		//this.sequence          = sequence.snapshot();
-		this.easySequence      = mode == Mode.DIFFICULT ? sequence.checkSimple(Mode.DIFFICULT).toString() : sequence.checkSimple(Mode.EASY).toString();
-		this.difficultSequence = mode == Mode.EASY      ? sequence.checkSimple(Mode.EASY).toString()      : sequence.checkSimple(Mode.DIFFICULT).toString();
+		this.easySequence      = easySequence;
+		this.difficultSequence = difficultSequence.equals(easySequence) ? easySequence : difficultSequence;
+		this.layers            = new ConcurrentHashMap<String, Map<Integer, int[][]>>();
+		this.subkeys           = new ConcurrentHashMap<String, Map<String, String[]>>();
+		this.parts             = new EnumMap<Mode, Map<String, Tile>>(Mode.class);
+		this.tiles             = new EnumMap<Mode, Map<String, Tile>>(Mode.class);
+		for (Mode m : Mode.values())
+		{
+			parts.put(m, new ConcurrentHashMap<String, Tile>());
+			tiles.put(m, new ConcurrentHashMap<String, Tile>());
+		}
+	}
+	
+	/**
+	 * Get the (unquoted) sequence string.
+	 * 
+	 * @param sequence  Sequence argument.
+	 * @param mode      Mode to get the sequence for (the other mode is used, if undefined).
+	 * @return          Layer sequence.
+	 */
+	private static String getSequence(Source sequence, Mode2 mode)
+	{
+		SimpleValue value = sequence.checkSimple(mode);
+		if (value == null)
+			value = sequence.checkSimple(mode == Mode2.EASY ? Mode2.DIFFICULT : Mode2.EASY);
+		return (value != null) ? value.toString_noquote() : "123456789";
+	}
+	
+	/**
+	 * Get the positions of every layer.
+	 * The positions are calculated once per sequence and key length.
+	 * 
+	 * @param seq     Layer sequence.
+	 * @param length  Key length.
+	 * @return        Key positions for the layers {@code '1'} to {@code '0' + length}.
+	 */
+	private int[][] getLayers(String seq, int length)
+	{
+		final Map<Integer, int[][]> bySeq = layers.computeIfAbsent(seq, s -> new ConcurrentHashMap<Integer, int[][]>());
+		int[][] layer = bySeq.get(length);
+		if (layer == null)
+		{
+			layer = new int[length][];
+			for (int c = 0; c < length; ++c)
+			{
+				int count = 0;
+				for (int i = 0; i < seq.length() && i < length; ++i)
+					if (seq.charAt(i) == '1' + c) ++count;
+				
+				layer[c] = new int[count];
+				count = 0;
+				for (int i = 0; i < seq.length() && i < length; ++i)
+					if (seq.charAt(i) == '1' + c) layer[c][count++] = i;
+			}
+			bySeq.putIfAbsent(length, layer);
+		}
+		return layer;
 	}
 	
-	public void resolve(String key, Tile target, String seq, Mode mode)
+	/**
+	 * Get the sub-keys of every layer.
+	 * The sub-keys are calculated once per sequence and key.
+	 * 
+	 * @param key  Key to split.
+	 * @param seq  Layer sequence.
+	 * @return     Sub-keys of the layers {@code '1'} to {@code '0' + key.length()}.
+	 */
+	private String[] getSubkeys(String key, String seq)
 	{
-		Tile temp;
-		StringBuilder str = new StringBuilder();;
-		for (char c = '1'; c <= '0' + key.length(); ++c)
+		final Map<String, String[]> bySeq = subkeys.computeIfAbsent(seq, s -> new ConcurrentHashMap<String, String[]>());
+		String[] subkey = bySeq.get(key);
+		if (subkey == null)
 		{
-			for (int i = 0; i < seq.length() && i < key.length(); ++i)
+			final int[][] layer  = getLayers(seq, key.length());
+			final char[]  buffer = new char[key.length()];
+			subkey = new String[layer.length];
+			for (int c = 0; c < layer.length; ++c)
 			{
-				if (seq.charAt(i) == c)
-					str.append(key.charAt(i));
-				else
-					str.append(' ');
+				Arrays.fill(buffer, ' ');
+				for (int i : layer[c])
+					buffer[i] = key.charAt(i);
+				subkey[c] = new String(buffer);
 			}
-			while (str.length() < key.length())
-				str.append(' ');
-			temp = subresolver.resolve(str.toString(), mode);
-			if (temp != null)
+			bySeq.putIfAbsent(key, subkey);
+		}
+		return subkey;
+	}
+	
+	/**
+	 * Resolve a sub-key by the subresolver.
+	 * The resolved parts are only added to other tiles, hence they are
+	 * shared by all keys using them.
+	 * 
+	 * @param subkey  Sub-key to resolve.
+	 * @param mode    Difficulty mode to use.
+	 * @return        The requested tile.
+	 */
+	private Tile resolvePart(String subkey, Mode mode)
+	{
+		final Map<String, Tile> memo = parts.get(mode);
+		Tile tile = memo.get(subkey);
+		if (tile == null)
+		{
+			tile = subresolver.resolve(subkey, mode);
+			if (tile != null && !tile.isNull())
+				memo.putIfAbsent(subkey, tile.seal());
+		}
+		return tile;
+	}
+	
+	/**
+	 * Add the tiles of all layers of the given key to the target tile.
+	 * 
+	 * @param key     Key to compose.
+	 * @param target  Tile to add the layers to.
+	 * @param seq     Layer sequence.
+	 * @param mode    Difficulty mode to use.
+	 * @return        {@code true}, if the sub-keys of all layers have been declared
+	 *                (sub-keys consisting of blanks only are optional).
+	 */
+	public boolean resolve(String key, Tile target, String seq, Mode mode)
+	{
+		boolean complete = true;
+		for (String subkey : getSubkeys(key, seq))
+		{
+			final Tile temp = resolvePart(subkey, mode);
+			if (temp != null && !temp.isNull())
 				target.add(temp, mode);
-			str.delete(0, str.length());
+			else if (!subkey.trim().isEmpty())
+				complete = false;
 		}
+		return complete;
 	}
 	
 	@Override
 	public Tile resolve(String key, Mode mode)
 	{
-		Tile tile = subresolver.resolve(key, mode);
-		if (!tile.isNull())
+		// check composed tiles (sealed, hence they may be shared)
+		final Map<String, Tile> memo = tiles.get(mode);
+		Tile tile = memo.get(key);
+		if (tile != null)
 			return tile;
-		else
+		
+		boolean complete = true;
+		tile = subresolver.resolve(key, mode);
+		if (tile == null || tile.isNull())
+		{
 			tile = new Tile();
+			complete = compose(key, tile, mode);
+		}
 		
+		// memoize complete tiles only (a layer might be declared later)
+		if (complete && !tile.isNull())
+		{
+			final Tile prev = memo.putIfAbsent(key, tile.seal());
+			if (prev != null) return prev;
+		}
+		return tile;
+	}
+	
+	private boolean compose(String key, Tile tile, Mode mode)
+	{
 		if (easySequence.equals(difficultSequence))
+			return resolve(key, tile, easySequence, mode);
+		
+		boolean complete = true;
+		if (mode != Mode.DIFFICULT) complete &= resolve(key, tile, easySequence,      Mode.EASY);
+		if (mode != Mode.EASY)      complete &= resolve(key, tile, difficultSequence, Mode.DIFFICULT);
+		return complete;
+	}
+	
+	/**
+	 * Get the sequence used for the given mode.
+	 * 
+	 * @param mode  Difficulty mode.
+	 * @return      Layer sequence or {@code null}, if the sequences of both
+	 *              modes are required but differ.
+	 */
+	private String getSequence(Mode mode)
+	{
+		switch (mode)
 		{
-			resolve(key, tile, easySequence, mode);
+		case EASY:      return easySequence;
+		case DIFFICULT: return difficultSequence;
+		default:        return easySequence.equals(difficultSequence) ? easySequence : null;
 		}
-		else
+	}
+	
+	/**
+	 * Find the layer a sub-key belongs to.
+	 * 
+	 * @param key  Sub-key.
+	 * @param seq  Layer sequence.
+	 * @return     Layer character, {@code ' '} if the key is blank (i.e. usable
+	 *             in every layer) or {@code 0} if there is no such layer.
+	 */
+	private static char getLayer(String key, String seq)
+	{
+		char layer = ' ';
+		for (int i = 0; i < key.length(); ++i)
 		{
-			if (mode != Mode.DIFFICULT) resolve(key, tile, easySequence,      Mode.EASY);
-			if (mode != Mode.EASY)      resolve(key, tile, difficultSequence, Mode.DIFFICULT);
+			if (key.charAt(i) == ' ') continue;
+			if (i >= seq.length()) return 0;
+			final char c = seq.charAt(i);
+			if (c < '1' || c > '0' + key.length() || (layer != ' ' && layer != c)) return 0;
+			layer = c;
 		}
+		return layer;
+	}
+	
+	/**
+	 * Get the reverse lookup index.
+	 * The index is created on first use, i.e. once per analysis, as reverse
+	 * IDs do not depend on the request (see {@link ReverseIDProvider}).
+	 * 
+	 * @param provider  Provider of object reverse IDs.
+	 * @return          Index.
+	 */
+	private ReverseIndex getIndex(ReverseIDProvider provider)
+	{
+		if (index != null)
+			return index;
 		
-		return tile;
+		index = new ReverseIndex();
+		for (Mode mode : Mode.values())
+		{
+			final Tiles tiles = subresolver.getTiles(mode == Mode.DIFFICULT ? Mode2.DIFFICULT : Mode2.EASY);
+			if (tiles == null) continue;
+			
+			final String seq = getSequence(mode);
+			for (String key : tiles.getKeys())
+			{
+				final Tile tile = subresolver.resolve(key, mode);
+				if (tile == null || tile.isNull()) continue;
+				final String revId = tile.reverseID(provider).get(mode);
+				if (revId == null) continue;
+				
+				// complete key
+				index.keys.get(mode).putIfAbsent(revId, key);
+				
+				// sub-key
+				if (seq == null) continue;
+				final char layer = getLayer(key, seq);
+				if (layer == 0) continue;
+				
+				final TreeMap<Character, HashMap<Integer, HashMap<String, String>>> layers =
+						index.layers.get(mode).computeIfAbsent(key.length(), l -> new TreeMap<Character, HashMap<Integer, HashMap<String, String>>>());
+				for (int i = 0; i < key.length() && i < seq.length(); ++i)
+				{
+					final char c = seq.charAt(i);
+					if (c < '1' || c > '0' + key.length() || (layer != ' ' && layer != c)) continue;
+					layers.computeIfAbsent(c, l -> new HashMap<Integer, HashMap<String, String>>())
+					      .computeIfAbsent(tile.typeMask(), m -> new HashMap<String, String>())
+					      .putIfAbsent(revId, key);
+				}
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Compose a key from the best matching sub-key of each layer.
+	 * 
+	 * @param info    Reversal information structure.
+	 * @param length  Key length.
+	 * @param layers  Layer index for the given key length.
+	 * @param seq     Layer sequence.
+	 * @return        Composed key or {@code null}, if no layer matches.
+	 */
+	private static String compose(ReverseInfo info, int length, TreeMap<Character, HashMap<Integer, HashMap<String, String>>> layers, String seq)
+	{
+		final Mode   mode    = info.getMode();
+		final char[] key     = new char[length];
+		int          covered = 0;
+		
+		Arrays.fill(key, ' ');
+		for (Entry<Character, HashMap<Integer, HashMap<String, String>>> layer : layers.entrySet())
+		{
+			// find the sub-key adding most of the requested parts
+			String subkey = null;
+			int    added  = 0;
+			for (Entry<Integer, HashMap<String, String>> entry : layer.getValue().entrySet())
+			{
+				final int mask = entry.getKey();
+				if ((mask & info.typeMask()) != mask) continue;
+				
+				final int modeMask = Tile.typeMask(mask, mode) & ~covered;
+				if (Integer.bitCount(modeMask) <= Integer.bitCount(added)) continue;
+				
+				final String candidate = entry.getValue().get(info.reverseId(mask).get(mode));
+				if (candidate != null)
+				{
+					subkey = candidate;
+					added  = modeMask;
+				}
+			}
+			
+			// insert sub-key
+			if (subkey == null) continue;
+			for (int i = 0; i < length && i < seq.length(); ++i)
+				if (seq.charAt(i) == layer.getKey())
+					key[i] = subkey.charAt(i);
+			covered |= added;
+		}
+		return (covered != 0) ? new String(key) : null;
+	}
+	
+	/**
+	 * Determine, which parts of the given tile match the request.
+	 * 
+	 * @param info  Reversal information structure.
+	 * @param tile  Resolved tile.
+	 * @return      The type-mask of the matching parts.
+	 */
+	private static int match(ReverseInfo info, Tile tile)
+	{
+		final Mode mode    = info.getMode();
+		int        matched = 0;
+		for (int type : new int[] {TileDeclPart.FL, TileDeclPart.IT, TileDeclPart.AC, TileDeclPart.ST})
+		{
+			final int mask = Tile.typeMask(type | type << TileDeclPart.T_SIZE, mode);
+			if ((info.typeMask() & mask) != mask) continue;
+			
+			final String revId = info.reverseId(mask).get(mode);
+			if (revId != null && revId.equals(tile.reverseID(info, mask).get(mode)))
+				matched |= mask;
+		}
+		return matched;
 	}
 	
 	@Override
-	public int reverse(ReverseInfo info)
+	public synchronized int reverse(ReverseInfo info)
 	{
-		// TODO: implement reverse tile lookup (for 'res.composer')
-		return subresolver.reverse(info);
+		final Mode         mode  = info.getMode();
+		final ReverseIndex index = getIndex(info);
+		
+		// check if the tile exists
+		final String revId = info.reverseId().get(mode);
+		if (revId == null)
+			return subresolver.reverse(info);
+		
+		String key = index.keys.get(mode).get(revId);
+		if (key != null)
+		{
+			info.setKey(key);
+			return info.typeMask();
+		}
+		
+		// compose the tile from its layers (for every key length)
+		int typeMask = 0;
+		for (Entry<Integer, TreeMap<Character, HashMap<Integer, HashMap<String, String>>>> entry : index.layers.get(mode).entrySet())
+		{
+			final String composed = compose(info, entry.getKey(), entry.getValue(), getSequence(mode));
+			if (composed == null) continue;
+			
+			final Tile tile = resolve(composed, mode);
+			if (revId.equals(tile.reverseID(info).get(mode)))
+			{
+				info.setKey(composed);
+				return info.typeMask();
+			}
+			
+			final int matched = match(info, tile);
+			if (Integer.bitCount(matched) > Integer.bitCount(typeMask))
+			{
+				typeMask = matched;
+				key      = composed;
+			}
+		}
+		
+		// return best approximation
+		if (key == null)
+			return subresolver.reverse(info);
+		info.setKey(key, typeMask);
+		return typeMask;
 	}
 	
 	@Override
@@ -167,7 +541,7 @@ public class Composer extends SourceData implements Resolver
 	{
 		if (easySequence == difficultSequence)
 			return "res.composer(" + subresolver + (easySequence.equals("123456789") ? ")" : ", \"" + easySequence + "\")");
-		return "res.composer(" + subresolver + ", cond(wo[\"IsDifficult\"], " + difficultSequence + ", " + easySequence + "))";
+		return "res.composer(" + subresolver + ", cond(wo[\"IsDifficult\"], \"" + difficultSequence + "\", \"" + easySequence + "\"))";
 	}
 }
 
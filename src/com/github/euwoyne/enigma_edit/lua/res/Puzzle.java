@@ -23,8 +23,11 @@
 
 package com.github.euwoyne.enigma_edit.lua.res;
 
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.luaj.vm2.LuaValue;
 
@@ -34,9 +37,64 @@ import com.github.euwoyne.enigma_edit.lua.data.*;
 
 public class Puzzle extends SourceData implements Resolver
 {
-	private final MMResolver      subresolver;
-	private final HashSet<String> easyKeys;
-	private final HashSet<String> difficultKeys;
+	/**
+	 * Puzzle stone attributes encoded by a key suffix.
+	 */
+	private static class Descriptor
+	{
+		final Value cluster;
+		final Value connections;
+		final Value hollow;
+		
+		Descriptor(Value cluster, Value connections, boolean hollow)
+		{
+			this.cluster     = cluster;
+			this.connections = connections;
+			this.hollow      = new SimpleValue(LuaValue.valueOf(hollow), CodeSnippet.NONE);
+		}
+		
+		Descriptor(int cluster, boolean hollow)
+		{
+			this(new SimpleValue(LuaValue.valueOf(cluster), CodeSnippet.NONE), new Nil(CodeSnippet.NONE), hollow);
+		}
+		
+		Descriptor(String connections, boolean hollow)
+		{
+			this(new Nil(CodeSnippet.NONE), new SimpleValue(LuaValue.valueOf(connections), CodeSnippet.NONE), hollow);
+		}
+		
+		void apply(Table table, Mode mode)
+		{
+			table.assign("cluster",     cluster,     CodeSnippet.NONE, mode);
+			table.assign("connections", connections, CodeSnippet.NONE, mode);
+			table.assign("hollow",      hollow,      CodeSnippet.NONE, mode);
+		}
+	}
+	
+	/** connections by suffix (starting with {@code 'a'}) */
+	private static final String[] CONNECTIONS = {"w", "s", "sw", "e", "ew", "es", "esw", "n", "nw", "ns", "nsw", "ne", "new", "nes", "nesw"};
+	
+	/** puzzle descriptors by suffix character ({@code null} for suffixes without meaning) */
+	private static final Descriptor[] DESCRIPTORS = new Descriptor[128];
+	
+	static
+	{
+		for (char c = '0'; c <= '9'; ++c) DESCRIPTORS[c] = new Descriptor(c - '0', c > '4');
+		for (char c = 'p'; c <= 'z'; ++c) DESCRIPTORS[c] = new Descriptor(c - 'p' + 10, false);
+		for (char c = 'P'; c <= 'Z'; ++c) DESCRIPTORS[c] = new Descriptor(c - 'P' + 10, true);
+		for (int  i = 0; i < CONNECTIONS.length; ++i)
+		{
+			DESCRIPTORS['a' + i] = new Descriptor(CONNECTIONS[i], false);
+			DESCRIPTORS['A' + i] = new Descriptor(CONNECTIONS[i], true);
+		}
+	}
+	
+	private final MMResolver                                           subresolver;
+	private final HashSet<String>                                      easyKeys;
+	private final HashSet<String>                                      difficultKeys;
+	
+	/** puzzle declarations derived from a base declaration (per mode and suffix) */
+	private final Map<Table, EnumMap<Mode, Map<Character, Table>>>    puzzles;
 	
 	@Override public Tiles    getTiles(Mode2 mode)      {return subresolver.deref(mode).getTiles(mode);}
 	@Override public String   typename()                {return "res.puzzle";}
@@ -77,6 +135,7 @@ public class Puzzle extends SourceData implements Resolver
 		this.subresolver   = subresolver;
 		this.easyKeys      = new HashSet<String>();
 		this.difficultKeys = new HashSet<String>();
+		this.puzzles       = new ConcurrentHashMap<Table, EnumMap<Mode, Map<Character, Table>>>();
 	}
 	
 	public void addRule(Source source, Mode mode)
@@ -94,7 +153,46 @@ public class Puzzle extends SourceData implements Resolver
 				difficultKeys.add(key.difficult.value.checkjstring());
 	}
 	
-	public static void createPuzzle(String key, Tile tile, Table decl, Mode mode)
+	/**
+	 * Get the puzzle declaration for the given suffix.
+	 * The declaration is derived from the base declaration only once and then
+	 * shared by all tiles using it. If the suffix has no meaning, the base
+	 * declaration is used unchanged.
+	 * 
+	 * @param decl  Base declaration.
+	 * @param c     Key suffix.
+	 * @param mode  Mode to assign the puzzle attributes for.
+	 * @return      Puzzle declaration.
+	 */
+	private Table getPuzzle(Table decl, char c, Mode mode)
+	{
+		final Descriptor descriptor = (c < DESCRIPTORS.length) ? DESCRIPTORS[c] : null;
+		if (descriptor == null)
+			return decl;
+		
+		EnumMap<Mode, Map<Character, Table>> modes = puzzles.get(decl);
+		if (modes == null)
+		{
+			modes = new EnumMap<Mode, Map<Character, Table>>(Mode.class);
+			for (Mode m : Mode.values())
+				modes.put(m, new ConcurrentHashMap<Character, Table>());
+			final EnumMap<Mode, Map<Character, Table>> prev = puzzles.putIfAbsent(decl, modes);
+			if (prev != null) modes = prev;
+		}
+		
+		final Map<Character, Table> suffixes = modes.get(mode);
+		Table table = suffixes.get(c);
+		if (table == null)
+		{
+			table = decl.snapshot();
+			descriptor.apply(table, mode);
+			final Table prev = suffixes.putIfAbsent(c, table);
+			if (prev != null) table = prev;
+		}
+		return table;
+	}
+	
+	public void createPuzzle(String key, Tile tile, Table decl, Mode mode)
 	{
 		// check declaration 
 		if (!decl.exist(1)) return;
@@ -113,53 +211,8 @@ public class Puzzle extends SourceData implements Resolver
 		if (!kind.get(mode).value.checkjstring().startsWith("st_puzzle"))
 			return;
 		
-		// generate connections
-		final Table table = decl.snapshot();
-		final char c = key.charAt(key.length()-1);
-		if (c >= '0' && c <= '9')
-		{
-			table.assign("cluster", new SimpleValue(LuaValue.valueOf((int)(c - '0')), CodeSnippet.NONE), CodeSnippet.NONE, mode);
-			table.assign("connections", new Nil(CodeSnippet.NONE), CodeSnippet.NONE, mode);
-			table.assign("hollow",  new SimpleValue(LuaValue.valueOf(c > '4'), CodeSnippet.NONE), CodeSnippet.NONE, mode);
-		}
-		else if (c >= 'a' && c <= 'o' || c >= 'A' && c <= 'O')
-		{
-			table.assign("cluster", new Nil(CodeSnippet.NONE), CodeSnippet.NONE, mode);
-			switch (c)
-			{
-			case 'a': case 'A': table.assign("connections", new SimpleValue(LuaValue.valueOf("w"),    CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'b': case 'B': table.assign("connections", new SimpleValue(LuaValue.valueOf("s"),    CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'c': case 'C': table.assign("connections", new SimpleValue(LuaValue.valueOf("sw"),   CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'd': case 'D': table.assign("connections", new SimpleValue(LuaValue.valueOf("e"),    CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'e': case 'E': table.assign("connections", new SimpleValue(LuaValue.valueOf("ew"),   CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'f': case 'F': table.assign("connections", new SimpleValue(LuaValue.valueOf("es"),   CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'g': case 'G': table.assign("connections", new SimpleValue(LuaValue.valueOf("esw"),  CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'h': case 'H': table.assign("connections", new SimpleValue(LuaValue.valueOf("n"),    CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'i': case 'I': table.assign("connections", new SimpleValue(LuaValue.valueOf("nw"),   CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'j': case 'J': table.assign("connections", new SimpleValue(LuaValue.valueOf("ns"),   CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'k': case 'K': table.assign("connections", new SimpleValue(LuaValue.valueOf("nsw"),  CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'l': case 'L': table.assign("connections", new SimpleValue(LuaValue.valueOf("ne"),   CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'm': case 'M': table.assign("connections", new SimpleValue(LuaValue.valueOf("new"),  CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'n': case 'N': table.assign("connections", new SimpleValue(LuaValue.valueOf("nes"),  CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			case 'o': case 'O': table.assign("connections", new SimpleValue(LuaValue.valueOf("nesw"), CodeSnippet.NONE), CodeSnippet.NONE, mode); break;
-			}
-			table.assign("hollow",  new SimpleValue(LuaValue.valueOf(c < 'a'), CodeSnippet.NONE), CodeSnippet.NONE, mode);
-		}
-		else if (c >= 'p' && c <= 'z')
-		{
-			table.assign("cluster", new SimpleValue(LuaValue.valueOf((int)(c - 'p') + 10), CodeSnippet.NONE), CodeSnippet.NONE, mode);
-			table.assign("connections", new Nil(CodeSnippet.NONE), CodeSnippet.NONE, mode);
-			table.assign("hollow",  new SimpleValue(LuaValue.valueOf(false), CodeSnippet.NONE), CodeSnippet.NONE, mode);
-		}
-		else if (c >= 'P' && c <= 'Z')
-		{
-			table.assign("cluster", new SimpleValue(LuaValue.valueOf((int)(c - 'P') + 10), CodeSnippet.NONE), CodeSnippet.NONE, mode);
-			table.assign("connections", new Nil(CodeSnippet.NONE), CodeSnippet.NONE, mode);
-			table.assign("hollow",  new SimpleValue(LuaValue.valueOf(true), CodeSnippet.NONE), CodeSnippet.NONE, mode);
-		}
-		
 		// set new stone
-		tile.substitute(table, mode);
+		tile.substitute(getPuzzle(decl, key.charAt(key.length()-1), mode), mode);
 	}
 	
 	@Override
@@ -168,10 +221,13 @@ public class Puzzle extends SourceData implements Resolver
 		final String subkey = key.substring(0, key.length()-1);
 		if (!easyKeys.contains(subkey) && !difficultKeys.contains(subkey))
 			return subresolver.resolve(key, mode);
-		final Tile tile = subresolver.resolve(subkey, mode);
-		final Tile.Part stone = tile.st();
+		final Tile resolved = subresolver.resolve(subkey, mode);
+		final Tile.Part stone = resolved.st();
 		if (stone.isNull())
-			return tile;
+			return resolved;
+		
+		// the resolved tile may be shared (sealed), so modify a copy
+		final Tile tile = new Tile(resolved);
 		
 		if (mode != Mode.NORMAL)
 		{
@@ -23,10 +23,14 @@
 
 package com.github.euwoyne.enigma_edit.lua.res;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map.Entry;
 
 import com.github.euwoyne.enigma_edit.error.LevelLuaException;
-import com.github.euwoyne.enigma_edit.lua.RevId;
+import com.github.euwoyne.enigma_edit.lua.ReverseIDProvider;
 import com.github.euwoyne.enigma_edit.lua.ReverseInfo;
 import com.github.euwoyne.enigma_edit.lua.data.CodeSnippet;
 import com.github.euwoyne.enigma_edit.lua.data.Mode;
@@ -42,8 +46,6 @@ import com.github.euwoyne.enigma_edit.lua.data.TileDeclPart;
 import com.github.euwoyne.enigma_edit.lua.data.TileReference;
 import com.github.euwoyne.enigma_edit.lua.data.Variable;
 
-import java.util.TreeMap;
-
 /**
  * Default resolver (by tile repository).
  * This resolver simply looks up the tile definition in a table provided to the
@@ -53,8 +55,65 @@ import java.util.TreeMap;
  */
 public class Tiles extends Table implements Resolver
 {
-	/** reverse id cache */
-	private final TreeMap<String, String> idToKey;
+	/**
+	 * Reverse lookup index.
+	 * Maps the reverse IDs of all declared tiles to their keys, once for
+	 * complete tiles and once per type mask for partial matches. There is
+	 * a separate map for each {@link Mode}. The keys are stored as tile keys
+	 * (i.e. without the quotes of the internal table keys), as they are
+	 * passed to {@link ReverseInfo#setKey}. Declarations with non-string keys
+	 * are not indexed, since they can not be referenced by a world map.
+	 */
+	private static class ReverseIndex
+	{
+		/** reverse ID to key (per mode) */
+		final EnumMap<Mode, HashMap<String, String>>                   complete;
+		
+		/** type mask to reverse ID to key (per mode) */
+		final EnumMap<Mode, HashMap<Integer, HashMap<String, String>>> partial;
+		
+		ReverseIndex()
+		{
+			this.complete = new EnumMap<Mode, HashMap<String, String>>(Mode.class);
+			this.partial  = new EnumMap<Mode, HashMap<Integer, HashMap<String, String>>>(Mode.class);
+			for (Mode mode : Mode.values())
+			{
+				complete.put(mode, new HashMap<String, String>());
+				partial .put(mode, new HashMap<Integer, HashMap<String, String>>());
+			}
+		}
+		
+		/**
+		 * Add a declaration.
+		 * If several declarations yield the same tile, the first one is used.
+		 * 
+		 * @param key       Declared key (internal representation).
+		 * @param var       Declared value.
+		 * @param provider  Provider of object reverse IDs.
+		 */
+		void add(String key, Variable var, ReverseIDProvider provider)
+		{
+			key = unquote(key);
+			if (key == null) return;
+			for (Mode mode : Mode.values())
+			{
+				if (!var.isDefined(mode)) continue;
+				final TileDecl decl = (TileDecl)var.get(mode);
+				if (decl == null) continue;
+				
+				final String revId = decl.reverseID(provider).get(mode);
+				if (revId == null) continue;
+				complete.get(mode).putIfAbsent(revId, key);
+				partial.get(mode).computeIfAbsent(decl.typeMask(), m -> new HashMap<String, String>()).putIfAbsent(revId, key);
+			}
+		}
+	}
+	
+	/** reverse lookup index (created on first use) */
+	private ReverseIndex                  index;
+	
+	/** keys declared since the index has been updated */
+	private final LinkedHashSet<String>   pending;
 	
 	/**
 	 * Default constructor.
@@ -62,7 +121,36 @@ public class Tiles extends Table implements Resolver
 	public Tiles()
 	{
 		super(null);
-		idToKey = new TreeMap<String, String>();
+		index   = null;
+		pending = new LinkedHashSet<String>();
+	}
+	
+	/**
+	 * Convert an internal table key to the tile key.
+	 * 
+	 * @param key  Internal key (see {@link Table#getI}).
+	 * @return     Tile key or {@code null}, if {@code key} is no string key.
+	 */
+	private static String unquote(String key)
+	{
+		if (key.length() < 2 || key.charAt(0) != '"') return null;
+		return key.substring(1, key.length() - 1);
+	}
+	
+	/**
+	 * Get all declared tile keys.
+	 * 
+	 * @return  Tile keys (in lexicographic order).
+	 */
+	public ArrayList<String> getKeys()
+	{
+		final ArrayList<String> keys = new ArrayList<String>();
+		for (Entry<String, Variable> entry : this)
+		{
+			final String key = unquote(entry.getKey());
+			if (key != null) keys.add(key);
+		}
+		return keys;
 	}
 	
 	/**
@@ -80,65 +168,66 @@ public class Tiles extends Table implements Resolver
 		return tile;
 	}
 	
+	/**
+	 * Get the reverse lookup index.
+	 * The index is created on first use and afterwards only extended by the
+	 * declarations added since. As the repository belongs to a single analysis,
+	 * so does the index. It does not depend on the request, since reverse IDs
+	 * only depend on the declaration (see {@link ReverseIDProvider}).
+	 * 
+	 * @param provider  Provider of object reverse IDs.
+	 * @return          Up-to-date index.
+	 */
+	private ReverseIndex getIndex(ReverseIDProvider provider)
+	{
+		if (index == null)
+		{
+			index = new ReverseIndex();
+			for (Entry<String, Variable> entry : this)
+				index.add(entry.getKey(), entry.getValue(), provider);
+		}
+		else
+		{
+			for (String key : pending)
+			{
+				final Variable var = getI(key);
+				if (var != null) index.add(key, var, provider);
+			}
+		}
+		pending.clear();
+		return index;
+	}
+	
 	@Override
-	public int reverse(ReverseInfo info)
+	public synchronized int reverse(ReverseInfo info)
 	{
-		final Mode mode = info.getMode();
+		final Mode         mode  = info.getMode();
+		final ReverseIndex index = getIndex(info);
 		
 		// check if the tile exists
-		String key = idToKey.get(mode.toString() + info.reverseId());
+		final String revId = info.reverseId().get(mode);
+		String key = revId != null ? index.complete.get(mode).get(revId) : null;
 		if (key != null)
 		{
 			info.setKey(key);
 			return info.typeMask();
 		}
 		
-		// search for tile parts
+		// find the declaration covering most of the requested parts
 		int typeMask = 0;
-		
-		// check each declared tile
-		for (Entry<String, Variable> entry : this)
+		for (Entry<Integer, HashMap<String, String>> entry : index.partial.get(mode).entrySet())
 		{
-			// get relevant tile declaration
-			final Variable tile = entry.getValue();
-			final TileDecl decl = (TileDecl)tile.get(mode);
+			final int declMask = entry.getKey();
+			if ((declMask & info.typeMask()) != declMask) continue;
 			
-			if (decl == null) continue;
-			if (!tile.isDefined(mode)) continue;
+			final int modeMask = Tile.typeMask(declMask, mode);
+			if (Integer.bitCount(typeMask) >= Integer.bitCount(modeMask)) continue;
 			
-			// get the declaration's reverse id
-			final RevId declRevId = decl.reverseID(info);
-			if (!idToKey.containsKey("KEY" + entry.getKey()))
+			final String partKey = entry.getValue().get(info.reverseId(declMask).get(mode));
+			if (partKey != null)
 			{
-				idToKey.put("KEY" + entry.getKey(), null);
-				if (declRevId.easy != null)
-					idToKey.put("EASY"      + declRevId.easy,      entry.getKey());
-				if (declRevId.difficult != null)
-					idToKey.put("DIFFICULT" + declRevId.difficult, entry.getKey());
-				if (declRevId.normal != null)
-					idToKey.put("NORMAL"    + declRevId.normal,    entry.getKey());
-			}
-			
-			// check, if the declaration fits the request
-			if (decl.typeMask(mode) == info.typeMask())
-			{
-				info.setKey(entry.getKey());
-				return info.typeMask();
-			}
-			
-			// if the declaration defines part of the tile...
-			if ((decl.typeMask() & info.typeMask()) == decl.typeMask())
-			{
-				// ...and the part declarations match...
-				if (info.reverseId(decl.typeMask()).equals(declRevId))
-				{
-					// ...and the declaration contains more parts than a previously found one...
-					if (Integer.bitCount(typeMask) < Integer.bitCount(decl.typeMask(mode)))	
-					{
-						typeMask = decl.typeMask(mode);
-						key = entry.getKey();
-					}
-				}
+				typeMask = modeMask;
+				key      = partKey;
 			}
 		}
 		
@@ -157,7 +246,10 @@ public class Tiles extends Table implements Resolver
 	/**
 	 * Assigns a tile to the given field.
 	 * This overrides {@link Table#assignI(String, Source, CodeSnippet, Mode)}
-	 * to add conversion of the {@code value} to {@link TileDeclPart}. 
+	 * to add conversion of the {@code value} to {@link TileDeclPart}. The key
+	 * is added to the reverse lookup index on its next use. The check for an
+	 * existing field and the assignment are done under the same lock as the
+	 * update of the index (see {@link #reverse}).
 	 * 
 	 * @param key     Name of the field.
 	 * @param value   Value to be assigned.
@@ -165,11 +257,13 @@ public class Tiles extends Table implements Resolver
 	 * @param mode    Mode to use the value for.
 	 */
 	@Override
-	public Variable assignI(String key, Source value, CodeSnippet assign, Mode mode)
+	public synchronized Variable assignI(String key, Source value, CodeSnippet assign, Mode mode)
 	{
 		if (this.exist(key))
 			throw new LevelLuaException.Runtime("IllegalTileRedefinition", key, assign);
 		
+		pending.add(key);
+		
 		if (value instanceof MultiMode)
 		{
 			if (((MultiMode)value).hasNormal() && mode == Mode.NORMAL)
@@ -25,6 +25,7 @@ package com.github.euwoyne.enigma_edit.model;
 
 import java.io.IOException;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.NoSuchElementException;
 
@@ -82,6 +83,14 @@ public class I18N
 			return out.protect;
 		}
 		
+		/**
+		 * @return  Languages, for which a translation exists (in alphabetical order).
+		 */
+		Set<String> languages()
+		{
+			return translations.keySet();
+		}
+		
 		public void put(String lang, String str)                  {translations.put(lang, new Translation(str, false));}
 		public void put(String lang, String str, boolean protect) {translations.put(lang, new Translation(str, protect));}
 	}
@@ -161,6 +170,14 @@ public class I18N
 	public void put(String key, boolean translate, String english)                 {map.put(key, new KeyString(translate, english));}
 	public void put(String key, boolean translate, String english, String comment) {map.put(key, new KeyString(translate, english, comment));}
 	
+	/**
+	 * @return  All strings by key (in alphabetical order).
+	 */
+	Set<Entry<String, KeyString>> entries()
+	{
+		return map.entrySet();
+	}
+	
 	public KeyString create(String key)
 	{
 		KeyString string = new KeyString();
@@ -23,14 +23,19 @@
 
 package com.github.euwoyne.enigma_edit.model;
 
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.github.euwoyne.enigma_edit.error.MissingImageException;
 import com.github.euwoyne.enigma_edit.lua.data.Mode;
 import com.github.euwoyne.enigma_edit.lua.data.Mode2;
+import com.github.euwoyne.enigma_edit.lua.data.ObjectDecl;
 import com.github.euwoyne.enigma_edit.lua.data.SimpleValue;
 import com.github.euwoyne.enigma_edit.lua.data.Table;
 import com.github.euwoyne.enigma_edit.lua.data.Tile;
+import com.github.euwoyne.enigma_edit.lua.data.Variable;
 import com.github.euwoyne.enigma_edit.model.Tileset.*;
 
 public class ImageTile
@@ -41,25 +46,84 @@ public class ImageTile
 		List<Variant>  variants;
 		SpriteStack    sprites;
 		
+		/** {@code true}, if {@link #sprites} is shared with other parts (copy-on-write). */
+		private boolean sharedSprites;
+		
 		public Part(TilePart tilepart)
 		{
-			part     = tilepart;
-			variants = tilepart.getVariant();
-			sprites  = tilepart.getImage();
+			this(tilepart, tilepart.getVariant());
+		}
+		
+		Part(TilePart tilepart, List<Variant> variants)
+		{
+			this.part          = tilepart;
+			this.variants      = variants;
+			this.sprites       = new SpriteStack();
+			this.sharedSprites = false;
+			for (Variant variant : variants)
+			{
+				if (variant != null)
+					sprites.add(variant.image.sprite);
+			}
+		}
+		
+		/**
+		 * Create a part sharing the variants and sprites of the given one.
+		 * The sprite stack is copied, as soon as it has to be changed.
+		 * 
+		 * @param tilepart  Resolved object declaration of the new part.
+		 * @param base      Part to share the sprites with.
+		 */
+		private Part(TilePart tilepart, Part base)
+		{
+			this.part          = tilepart;
+			this.variants      = base.variants;
+			this.sprites       = base.sprites;
+			this.sharedSprites = true;
+		}
+		
+		/**
+		 * Get a part, that may be modified by {@link #resolveCluster} without
+		 * affecting this one. Parts without cluster images are never modified
+		 * and thus returned as they are.
+		 * 
+		 * @return  A part sharing the sprites of this one (copy-on-write).
+		 */
+		Part detach()
+		{
+			return checkCluster(variants) ? new Part(part, this) : this;
 		}
 		
 		public boolean isEmpty()   {return sprites.isEmpty();}
 		
 		public boolean checkCluster()
+		{
+			return checkCluster(variants);
+		}
+		
+		private static boolean checkCluster(List<Variant> variants)
 		{
 			for (Variant variant : variants)
 			{
-				if (variant.image.isClusterImage())
+				if (variant != null && variant.image.isClusterImage())
 					return true;
 			}
 			return false;
 		}
 		
+		private void setSprite(int idx, Sprite sprite)
+		{
+			if (sprites.get(idx) == sprite) return;
+			if (sharedSprites)
+			{
+				final SpriteStack copy = new SpriteStack();
+				copy.addAll(sprites);
+				sprites = copy;
+				sharedSprites = false;
+			}
+			sprites.set(idx, sprite);
+		}
+		
 		private static boolean checkCluster(SimpleValue kind, SimpleValue cluster, Tile.Part neighbor, Mode2 mode)
 		{
 			if (!neighbor.has(mode)) return false;
@@ -78,6 +142,7 @@ public class ImageTile
 			int vIdx = 0;
 			for (Variant variant : variants)
 			{
+				if (variant == null) continue;
 				if (variant.image.isClusterImage())
 				{
 					if (cluster != null)
@@ -91,17 +156,17 @@ public class ImageTile
 							s.append('s');
 						if (wPart != null && checkCluster(kind, cluster, wPart, mode))
 							s.append('w');
-						sprites.set(vIdx, ((Tileset.ClusterImage)variant.image).get(s.toString()).sprite);
+						setSprite(vIdx, ((Tileset.ClusterImage)variant.image).get(s.toString()).sprite);
 					}
 					else if (table.exist("connections"))
 					{
 						final SimpleValue conn = table.get("connections").checkSimple(mode);
 						if (conn != null)
-							sprites.set(vIdx, ((Tileset.ClusterImage)variant.image).get(conn.toString_noquote()).sprite);
+							setSprite(vIdx, ((Tileset.ClusterImage)variant.image).get(conn.toString_noquote()).sprite);
 					}
 					else if (part.hasAttribute("connections"))
 					{
-						sprites.set(vIdx, ((Tileset.ClusterImage)variant.image).get(part.getAttribute("connections")).sprite);
+						setSprite(vIdx, ((Tileset.ClusterImage)variant.image).get(part.getAttribute("connections")).sprite);
 					}
 				}
 				++vIdx;
@@ -118,6 +183,119 @@ public class ImageTile
 		}
 	}
 	
+	/**
+	 * Pool of shared (flyweight) parts.
+	 * Most cells of a world consist of the same few objects. Instead of creating
+	 * a new {@link Part} for each of them, all parts resolving to the same list
+	 * of {@link Variant variants} share a single instance. Parts using cluster
+	 * images depend on their neighbours and thus need an instance of their own,
+	 * which starts out sharing the sprite stack of the pooled instance and copies
+	 * it only, if {@link Part#resolveCluster} actually changes any sprite.
+	 * As cells of the same key share their object declarations, the parts are
+	 * also pooled by declaration, so that the declaration is only resolved
+	 * against the tileset once. Declarations with random ({@code "*"})
+	 * attributes are resolved for every cell.
+	 * A pool is only valid for a single analysis.
+	 */
+	static class PartPool
+	{
+		private final ConcurrentHashMap<List<Variant>, Part>            parts;
+		private final EnumMap<Mode2, ConcurrentHashMap<ObjectDecl, Part>> decls;
+		
+		PartPool()
+		{
+			parts = new ConcurrentHashMap<List<Variant>, Part>();
+			decls = new EnumMap<Mode2, ConcurrentHashMap<ObjectDecl, Part>>(Mode2.class);
+			for (Mode2 mode : Mode2.values())
+				decls.put(mode, new ConcurrentHashMap<ObjectDecl, Part>());
+		}
+		
+		/**
+		 * Get the pooled part for the given resolved object declaration.
+		 * 
+		 * @param tilepart  Resolved object declaration.
+		 * @return          The shared part.
+		 */
+		private Part pooled(TilePart tilepart)
+		{
+			final List<Variant> variants = tilepart.getVariant();
+			Part part = parts.get(variants);
+			if (part == null)
+			{
+				part = new Part(tilepart, variants);
+				final Part prev = parts.putIfAbsent(variants, part);
+				if (prev != null) part = prev;
+			}
+			return part;
+		}
+		
+		/**
+		 * Get a part for the given pooled part.
+		 * 
+		 * @param part  Pooled part.
+		 * @return      The pooled part or a copy of it, if it uses cluster images.
+		 */
+		private static Part get(Part part)
+		{
+			return Part.checkCluster(part.variants) ? new Part(part.part, part) : part;
+		}
+		
+		/**
+		 * Get the part for the given resolved object declaration.
+		 * 
+		 * @param tilepart  Resolved object declaration.
+		 * @return          A (possibly shared) part.
+		 */
+		Part get(TilePart tilepart)
+		{
+			return get(pooled(tilepart));
+		}
+		
+		/**
+		 * Get the part for the given object declaration.
+		 * 
+		 * @param tileset  Tileset to resolve the declaration with.
+		 * @param decl     Object declaration.
+		 * @param mode     Mode to resolve the declaration for.
+		 * @return         A (possibly shared) part.
+		 */
+		Part get(Tileset tileset, ObjectDecl decl, Mode2 mode)
+		{
+			final ConcurrentHashMap<ObjectDecl, Part> byDecl = decls.get(mode);
+			Part part = byDecl.get(decl);
+			if (part == null)
+			{
+				final TilePart tilepart = tileset.resolve(decl, mode);
+				if (isRandom(decl.checkTable(mode), mode))
+					return get(tilepart);
+				part = pooled(tilepart);
+				if (Part.checkCluster(part.variants))
+					part = new Part(tilepart, part);	// keep the attributes of this declaration
+				byDecl.putIfAbsent(decl, part);
+			}
+			return get(part);
+		}
+		
+		/**
+		 * Check, if the given declaration has random attributes.
+		 * 
+		 * @param table  Object declaration.
+		 * @param mode   Mode of the declaration.
+		 * @return       {@code true}, if any attribute is {@code "*"}.
+		 */
+		private static boolean isRandom(Table table, Mode2 mode)
+		{
+			if (table == null) return false;
+			for (Entry<String, Variable> entry : table)
+			{
+				final SimpleValue value = entry.getValue().checkSimple(mode);
+				if (value != null && "*".equals(value.toString_noquote()))
+					return true;
+			}
+			return false;
+		}
+	}
+	
 	public static class MMPart
 	{
 		Part easy, difficult;
@@ -128,6 +306,19 @@ public class ImageTile
 			difficult = null;
 		}
 		
+		/**
+		 * Copy constructor.
+		 * The parts are {@link Part#detach detached} from the given ones.
+		 * 
+		 * @param base  Parts to copy.
+		 */
+		MMPart(MMPart base)
+		{
+			easy      = base.easy != null ? base.easy.detach() : null;
+			difficult = base.difficult == base.easy ? easy
+			          : base.difficult != null ? base.difficult.detach() : null;
+		}
+		
 		public Part get(Mode mode)
 		{
 			switch (mode)
@@ -165,40 +356,40 @@ public class ImageTile
 		}
 		
 		
-		void resolvePart(Tile.Part tilePart, Tileset tileset, Tile defaultTile)
+		void resolvePart(Tile.Part tilePart, Tileset tileset, Tile defaultTile, PartPool pool)
 		{
 			if (!tilePart.isNull())
 			{
 				if (tilePart.hasEasy())
-					easy = new Part(tileset.resolve(tilePart.get(Mode.EASY), Mode2.EASY));
+					easy = pool.get(tileset, tilePart.get(Mode.EASY), Mode2.EASY);
 				else
-					easy = new Part(tileset.resolve(defaultTile.fl().get(Mode.EASY), Mode2.EASY));
+					easy = pool.get(tileset, defaultTile.fl().get(Mode.EASY), Mode2.EASY);
 				
 				if (tilePart.hasNormal())
 					difficult = easy;
 				else if (tilePart.hasDifficult())
-					difficult = new Part(tileset.resolve(tilePart.get(Mode.DIFFICULT), Mode2.DIFFICULT));
+					difficult = pool.get(tileset, tilePart.get(Mode.DIFFICULT), Mode2.DIFFICULT);
 				else
-					difficult = new Part(tileset.resolve(defaultTile.fl().get(Mode.DIFFICULT), Mode2.DIFFICULT));
+					difficult = pool.get(tileset, defaultTile.fl().get(Mode.DIFFICULT), Mode2.DIFFICULT);
 			}
 			else
 			{
-				easy = new Part(tileset.resolve(defaultTile.fl().get(Mode.EASY), Mode2.EASY));
-				difficult = new Part(tileset.resolve(defaultTile.fl().get(Mode.DIFFICULT), Mode2.DIFFICULT));
+				easy = pool.get(tileset, defaultTile.fl().get(Mode.EASY), Mode2.EASY);
+				difficult = pool.get(tileset, defaultTile.fl().get(Mode.DIFFICULT), Mode2.DIFFICULT);
 			}
 		}
 		
-		void resolvePart(Tile.Part tilePart, Tileset tileset)
+		void resolvePart(Tile.Part tilePart, Tileset tileset, PartPool pool)
 		{
 			if (!tilePart.isNull())
 			{
 				if (tilePart.hasEasy())
-					easy = new Part(tileset.resolve(tilePart.get(Mode.EASY), Mode2.EASY));
+					easy = pool.get(tileset, tilePart.get(Mode.EASY), Mode2.EASY);
 				
 				if (tilePart.hasNormal())
 					difficult = easy;
 				else if (tilePart.hasDifficult())
-					difficult = new Part(tileset.resolve(tilePart.get(Mode.DIFFICULT), Mode2.DIFFICULT));
+					difficult = pool.get(tileset, tilePart.get(Mode.DIFFICULT), Mode2.DIFFICULT);
 			}
 		}
 		
@@ -223,18 +414,47 @@ public class ImageTile
 		this.stone = new MMPart();
 	}
 	
+	/**
+	 * Create a tile, that reuses the already resolved parts of another tile.
+	 * This is used by incremental analysis for cells, whose declaration did not change.
+	 * 
+	 * @param tile      New tile declaration (equivalent to the one of {@code resolved}).
+	 * @param resolved  Previously resolved tile.
+	 */
+	ImageTile(Tile tile, ImageTile resolved)
+	{
+		this.tile  = tile;
+		this.floor = resolved.floor;
+		this.item  = resolved.item;
+		this.actor = resolved.actor;
+		this.stone = resolved.stone;
+	}
+	
+	/**
+	 * Detach the parts from the tile these have been taken from.
+	 * A tile reusing the parts of another one has to be detached, before its
+	 * cluster images may be resolved again, since the other tile may still be in use.
+	 */
+	void detach()
+	{
+		this.floor = new MMPart(floor);
+		this.item  = new MMPart(item);
+		this.actor = new MMPart(actor);
+		this.stone = new MMPart(stone);
+	}
+	
 	public Tile    tile()  {return tile;}
 	public MMPart  fl()    {return floor;}
 	public MMPart  it()    {return item;}
 	public MMPart  ac()    {return actor;}
 	public MMPart  st()    {return stone;}
 	
-	void resolveTile(Tileset tileset, Tile defaultTile)
+	void resolveTile(Tileset tileset, Tile defaultTile, PartPool pool)
 	{
-		floor.resolvePart(tile.fl(), tileset, defaultTile);
-		item .resolvePart(tile.it(), tileset);
-		actor.resolvePart(tile.ac(), tileset);
-		stone.resolvePart(tile.st(), tileset);
+		floor.resolvePart(tile.fl(), tileset, defaultTile, pool);
+		item .resolvePart(tile.it(), tileset, pool);
+		actor.resolvePart(tile.ac(), tileset, pool);
+		stone.resolvePart(tile.st(), tileset, pool);
 	}
 	
 	void resolveCluster(ImageTile nTile, ImageTile eTile, ImageTile sTile, ImageTile wTile)
@@ -88,6 +88,44 @@ public class Level
 		worlds.getLast().analyse(tileset);
 	}
 	
+	public void update(Tileset tileset) throws ParseException, LevelLuaException
+	{
+		prepare(luamain, tileset).run();
+	}
+	
+	/**
+	 * Analyse the given code without changing the level.
+	 * The returned action sets {@link #luamain} and publishes the analysed world.
+	 * 
+	 * @param code                New lua source code.
+	 * @param tileset             ImageTile set used for sprite caching.
+	 * @return                    Action, that publishes the result.
+	 * 
+	 * @throws ParseException     This indicates a lua syntax error (thrown by the parser).
+	 * @throws LevelLuaException  This indicates special runtime errors or constructs, that are illegal in Enigma levels (thrown by the analyser).
+	 */
+	public Runnable prepare(String code, Tileset tileset) throws ParseException, LevelLuaException
+	{
+		final World current = worlds.size() == 1 ? worlds.getFirst() : null;
+		if (current == null || !current.isAnalysed())
+		{
+			final World world = new World(code);
+			world.analyse(tileset);
+			return () ->
+			{
+				luamain = code;
+				worlds.clear();
+				worlds.add(world);
+			};
+		}
+		final World.Analysis analysis = current.prepare(code, tileset);
+		return () ->
+		{
+			luamain = code;
+			analysis.publish();
+		};
+	}
+	
 	public void write(IndentWriter writer) throws IOException
 	{
 		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\" ?>\n");
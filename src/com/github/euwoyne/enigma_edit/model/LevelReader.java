@@ -37,6 +37,7 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.DefaultHandler;
 
+import com.github.euwoyne.enigma_edit.Metrics;
 import com.github.euwoyne.enigma_edit.error.LevelXMLException;
 
 public class LevelReader
@@ -68,11 +69,15 @@ public class LevelReader
 		this.target = target;
 	}
 	
+	@SuppressWarnings("try")
 	public void parse(String filename) throws IOException, SAXException
 	{
-		target.reset();
-		target.path = Paths.get(filename);
-		parser.getXMLReader().parse(convertToFileURL(filename));
+		try (Metrics.Timer t = Metrics.start("level.parse"))
+		{
+			target.reset();
+			target.path = Paths.get(filename);
+			parser.getXMLReader().parse(convertToFileURL(filename));
+		}
 	}
 	
 	private static class LevelParser extends DefaultHandler
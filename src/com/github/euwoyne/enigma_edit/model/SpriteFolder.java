@@ -2,19 +2,40 @@ package com.github.euwoyne.enigma_edit.model;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.github.euwoyne.enigma_edit.error.WrongSpriteDirException;
 
 public class SpriteFolder
 {
-	private TreeMap<Integer, Path> gfxPaths;
+	/**
+	 * Contents of all sprite directories.
+	 * An index is never changed after the scan, {@link #rescan()} replaces it.
+	 */
+	private static class Index
+	{
+		final TreeMap<Integer, Path>         gfxPaths = new TreeMap<Integer, Path>();
+		final Map<String, TreeSet<Integer>>  files    = new HashMap<String, TreeSet<Integer>>();
+		final Map<Path, Long>                modified = new ConcurrentHashMap<Path, Long>();
+	}
 	
-	private Path _getPath(String file, int size)
+	private final File     gfxPath;
+	private volatile Index index;
+	
+	private static Path _getPath(Index index, String file, int size)
 	{
-		final Path gfxDir = gfxPaths.get(size);
+		final Path gfxDir = index.gfxPaths.get(size);
 		if (gfxDir == null) return null;
 		return gfxDir.resolve(file);
 	}
@@ -26,7 +47,22 @@ public class SpriteFolder
 	
 	public SpriteFolder(File gfxPath) throws WrongSpriteDirException
 	{
-		this.gfxPaths = new TreeMap<Integer, Path>();
+		this.gfxPath = gfxPath;
+		rescan();
+	}
+	
+	/**
+	 * Scan all sprite directories.
+	 * Each {@code gfx<size>} directory is read once and its files are recorded
+	 * together with their modification times. All lookups are answered from
+	 * this index, so files added, removed or changed on disk are only noticed
+	 * after the next scan.
+	 * 
+	 * @throws WrongSpriteDirException  if the sprite folder is not a directory.
+	 */
+	public void rescan() throws WrongSpriteDirException
+	{
+		final Index index = new Index();
 		
 		if (!gfxPath.isDirectory())
 			throw new WrongSpriteDirException(gfxPath.getAbsolutePath());
@@ -38,69 +74,85 @@ public class SpriteFolder
 		{
 			try
 			{
-				gfxPaths.put(Integer.parseInt(subdir.getName().substring(3)), subdir.toPath());
+				final Integer size = Integer.parseInt(subdir.getName().substring(3));
+				final Path    dir  = subdir.toPath();
+				index.gfxPaths.put(size, dir);
+				Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+					@Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+						if (attrs.isRegularFile())
+						{
+							final String name = dir.relativize(file).toString().replace(File.separatorChar, '/');
+							index.files.computeIfAbsent(name, n -> new TreeSet<Integer>()).add(size);
+							index.modified.put(file, attrs.lastModifiedTime().toMillis());
+						}
+						return FileVisitResult.CONTINUE;
+					}
+					@Override public FileVisitResult visitFileFailed(Path file, IOException e) {
+						return FileVisitResult.CONTINUE;
+					}});
 			}
 			catch (NumberFormatException e) {}
+			catch (IOException e)
+			{
+				System.err.println("Unreadable sprite directory: " + subdir);
+			}
 		}
+		
+		this.index = index;
 	}
 	
 	public Set<Integer> getSizes()
 	{
-		return gfxPaths.keySet();
+		return index.gfxPaths.keySet();
 	}
 	
 	public boolean exist(String file, int size)
 	{
-		return _getPath(file, size).toFile().isFile();
+		return exist(index, file, size);
+	}
+	
+	private static boolean exist(Index index, String file, int size)
+	{
+		final TreeSet<Integer> sizes = index.files.get(file);
+		return sizes != null && sizes.contains(size);
 	}
 	
 	public Integer getBestSize(String file, int size)
 	{
-		Integer nsize = gfxPaths.ceilingKey(size);
-		while (nsize != null && !exist(file, nsize))
-		{
-			nsize = gfxPaths.higherKey(nsize);
-		}
-		if (nsize == null)
-		{
-			nsize = gfxPaths.floorKey(size);
-			while (nsize != null && !exist(file, nsize))
-			{
-				nsize = gfxPaths.lowerKey(nsize);
-			}
-		}
-		return nsize;
+		return getBestSize(index, file, size);
+	}
+	
+	private static Integer getBestSize(Index index, String file, int size)
+	{
+		final TreeSet<Integer> sizes = index.files.get(file);
+		if (sizes == null) return null;
+		final Integer nsize = sizes.ceiling(size);
+		return nsize != null ? nsize : sizes.floor(size);
 	}
 	
 	public Path getPath(String file, int size)
 	{
-		final Path path = _getPath(file, size);
-		if (path == null || !path.toFile().isFile())
-			return null;
-		return path;
+		final Index index = this.index;
+		return exist(index, file, size) ? _getPath(index, file, size) : null;
 	}
 	
 	public Path getBestPath(String file, int size)
 	{
-		Integer nsize = gfxPaths.ceilingKey(size);
-		Path    path  = null;
-		while (nsize != null)
-		{
-			path = _getPath(file, nsize);
-			if (path.toFile().isFile()) break;
-			nsize = gfxPaths.higherKey(nsize);
-		}
-		if (nsize == null)
-		{
-			nsize = gfxPaths.floorKey(size);
-			while (nsize != null)
-			{
-				path = _getPath(file, nsize);
-				if (path.toFile().isFile()) break;
-				nsize = gfxPaths.lowerKey(nsize);
-			}
-		}
-		return nsize != null ? path : null;
+		final Index   index = this.index;
+		final Integer nsize = getBestSize(index, file, size);
+		return nsize != null ? _getPath(index, file, nsize) : null;
+	}
+	
+	/**
+	 * Get the modification time of a sprite file.
+	 * The time is recorded by the last {@link #rescan() scan}, so that all
+	 * images rendered from the file agree on it.
+	 * 
+	 * @param path  Sprite file (as returned by {@link #getPath}).
+	 * @return      Modification time in milliseconds ({@code 0}, if the file does not exist).
+	 */
+	public long getModified(Path path)
+	{
+		return index.modified.computeIfAbsent(path, p -> p.toFile().lastModified());
 	}
 }
-
@@ -0,0 +1,162 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.model;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.euwoyne.enigma_edit.error.MissingImageException;
+
+/**
+ * Background loader for sprite images.
+ * Creates the images of all sprites of a tileset in the given sizes on a
+ * pool of worker threads. Progress is reported to a listener, which is
+ * called from the worker threads.
+ */
+public class SpritePreloader
+{
+	/**
+	 * Receiver of progress notifications.
+	 */
+	public static interface Listener
+	{
+		/**
+		 * Called, whenever the percentage of loaded images changes.
+		 * 
+		 * @param done   Number of images already loaded.
+		 * @param total  Total number of images.
+		 */
+		void progress(int done, int total);
+		
+		/**
+		 * Called once, after all images have been loaded.
+		 * 
+		 * @param failed  Number of images, that could not be loaded.
+		 */
+		void finished(int failed);
+	}
+	
+	private final List<Sprite>    sprites;
+	private final ExecutorService pool;
+	private final AtomicInteger   done;
+	private final AtomicInteger   failed;
+	
+	/**
+	 * Create a preloader for all sprites of the given tileset.
+	 * The sprites have to be loaded already (see {@link Tileset#loadSprites}).
+	 * 
+	 * @param tileset  Tileset providing the sprites.
+	 * @param threads  Number of worker threads.
+	 */
+	public SpritePreloader(Tileset tileset, int threads)
+	{
+		final AtomicInteger index = new AtomicInteger();
+		this.sprites = tileset.getSprites();
+		this.done    = new AtomicInteger();
+		this.failed  = new AtomicInteger();
+		this.pool    = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				final Thread thread = new Thread(r, "sprites-" + index.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Start loading.
+	 * Images are loaded size by size, i.e. all images of the first size are
+	 * loaded before those of the second size.
+	 * 
+	 * @param sizes     Sizes of the images to be loaded.
+	 * @param listener  Receiver of progress notifications.
+	 */
+	public void start(int[] sizes, Listener listener)
+	{
+		final int total = sprites.size() * sizes.length;
+		if (total == 0)
+		{
+			pool.shutdown();
+			listener.finished(0);
+			return;
+		}
+		
+		for (int size : sizes)
+		{
+			for (Sprite sprite : sprites)
+			{
+				pool.execute(() ->
+				{
+					try
+					{
+						sprite.getImage(size);
+					}
+					catch (MissingImageException e)
+					{
+						failed.incrementAndGet();
+					}
+					catch (RuntimeException e)
+					{
+						failed.incrementAndGet();
+						e.printStackTrace();
+					}
+					
+					final int count = done.incrementAndGet();
+					if (count == total)
+					{
+						pool.shutdown();
+						listener.finished(failed.get());
+					}
+					else if (count * 100L / total != (count - 1) * 100L / total)
+					{
+						listener.progress(count, total);
+					}
+				});
+			}
+		}
+	}
+	
+	/**
+	 * Stop loading. Images already loaded are kept.
+	 */
+	public void cancel()
+	{
+		pool.shutdownNow();
+	}
+	
+	/**
+	 * @return  {@code true}, if loading has finished or has been cancelled.
+	 */
+	public boolean isDone()
+	{
+		return pool.isTerminated();
+	}
+}
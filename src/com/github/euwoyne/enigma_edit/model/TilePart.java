@@ -34,6 +34,7 @@ import com.github.euwoyne.enigma_edit.lua.data.Variable;
 import com.github.euwoyne.enigma_edit.model.Tileset.Alias;
 import com.github.euwoyne.enigma_edit.model.Tileset.Group;
 import com.github.euwoyne.enigma_edit.model.Tileset.Kind;
+import com.github.euwoyne.enigma_edit.model.Tileset.NameEntry;
 import com.github.euwoyne.enigma_edit.model.Tileset.ObjectProvider;
 import com.github.euwoyne.enigma_edit.model.Tileset.Variant;
 
@@ -59,12 +60,14 @@ public class TilePart implements ObjectProvider
 	{
 		final SimpleValue kindVal = (table != null && table.exist(1)) ? table.get(1).checkSimple(mode) : null;
 		final String      name    = kindVal != null ? kindVal.toString_noquote() : null;
-		final String      kind    = name    != null ? (name.startsWith("#") ? name.substring(1) : name) : null;
+		final NameEntry   entry   = tileset.lookup(name);
 		
 		this.mode = mode;
 		this.table = table;
-		this.objdef = tileset.get(kind);
-		this.kindName = (objdef instanceof Alias) ? objdef.getKind().name : kind;
+		this.objdef = entry != null ? entry.get() : null;
+		this.kindName = (objdef instanceof Alias) ? objdef.getKind().name
+		              : (entry != null ? entry.name
+		              : (name != null && name.startsWith("#") ? name.substring(1) : name));
 	}
 	
 	boolean isResolved() {return objdef != null;}
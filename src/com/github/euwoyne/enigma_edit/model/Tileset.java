@@ -24,12 +24,16 @@
 package com.github.euwoyne.enigma_edit.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
@@ -572,6 +576,9 @@ public class Tileset implements Iterable<Tileset.Group>
 		ArrayList<String> attrs;
 		boolean           hasCompare;
 		
+		/** compiled selector (created by {@link #compile}) */
+		private VariantSelector selector;
+		
 		/**
 		 * Constructs a variant set for the specified kind.
 		 * @param parent  The variants parent kind. The default variant name will be initialized to the kind's name.
@@ -580,6 +587,7 @@ public class Tileset implements Iterable<Tileset.Group>
 		{
 			attrs      = new ArrayList<String>();
 			hasCompare = false;
+			selector   = null;
 		}
 		
 		public boolean add(AttributeVariant variant)
@@ -590,10 +598,22 @@ public class Tileset implements Iterable<Tileset.Group>
 			
 			variantMap.put(String.join(",", variant.val), variant);
 			hasCompare |= variant.hasCompare;
+			selector = null;
 			
 			return super.add(variant);
 		}
 		
+		/**
+		 * Compile the variant rules into a {@link VariantSelector}.
+		 * This is done by {@link Tileset#registerNames}, i.e. once after the
+		 * tileset has been read. If the set is modified afterwards, it will be
+		 * recompiled on the next call to {@link #getVariant(ObjectProvider)}.
+		 */
+		void compile()
+		{
+			selector = this.isEmpty() ? null : new VariantSelector(this);
+		}
+		
 		/**
 		 * Determines the default variant of this variant set.
 		 * It is chosen by the parent kind's attribute default values. For this
@@ -632,77 +652,218 @@ public class Tileset implements Iterable<Tileset.Group>
 			if (this.isEmpty())   return null;
 			if (this.size() == 1) return this.get(0);
 			
-			final TreeMap<String, Attribute> kindattrs = this.get(0).kind.attributes;
-			final ArrayList<String>          values    = new ArrayList<String>(attrs.size());
+			VariantSelector sel = selector;
+			if (sel == null)
+				selector = sel = new VariantSelector(this);
+			return sel.select(provider);
+		}
+	}
+	
+	/**
+	 * Compiled variant rules of an {@link AttributeVariantSet}.
+	 * Without compare expressions, the variants are arranged in a trie over the
+	 * attribute values. Otherwise, the rules of each variant are pre-parsed
+	 * (including numeric thresholds), and each attribute value is parsed at most
+	 * once per call. Selection does not allocate (except for error messages).
+	 */
+	private static final class VariantSelector
+	{
+		private static final byte EQUAL   = 0;
+		private static final byte PREFIX  = 1;
+		private static final byte LESS    = 2;
+		private static final byte GREATER = 3;
+		private static final byte INVALID = 4;
+		
+		/** trie node */
+		private static final class Node
+		{
+			HashMap<String, Node> next    = new HashMap<String, Node>();
+			AttributeVariant      variant = null;
+		}
+		
+		/** pre-parsed compare rules of a variant */
+		private static final class Rule
+		{
+			final AttributeVariant variant;
+			final byte[]           op;
+			final String[]         text;
+			final double[]         threshold;
 			
-			for (int i = 0; i < attrs.size(); ++i)
+			Rule(AttributeVariant variant, int size)
 			{
-				final String attrname = attrs.get(i);
-				final String attrval  = provider.getAttribute(attrname);
-				
-				if (attrval == null)
+				final int n = Math.min(size, variant.val.size());
+				this.variant   = variant;
+				this.op        = new byte[n];
+				this.text      = new String[n];
+				this.threshold = new double[n];
+				for (int i = 0; i < n; ++i)
 				{
-					values.add("nil");
+					final String val = variant.val.get(i);
+					switch (val.isEmpty() ? '\0' : val.charAt(0))
+					{
+					case '<': op[i] = LESS;    text[i] = val.substring(1); break;
+					case '>': op[i] = GREATER; text[i] = val.substring(1); break;
+					case '=': op[i] = PREFIX;  text[i] = val.substring(1); break;
+					default:  op[i] = EQUAL;   text[i] = val;              break;
+					}
+					if (op[i] == LESS || op[i] == GREATER)
+					{
+						try {threshold[i] = Double.parseDouble(text[i]);}
+						catch (NumberFormatException e) {op[i] = INVALID;}
+					}
 				}
-				else if (attrval.equals("*"))
+			}
+		}
+		
+		/** per-thread buffers for attribute values */
+		private static final class Scratch
+		{
+			String[] values  = new String[4];
+			double[] numbers = new double[4];
+			byte[]   parsed  = new byte[4];
+			
+			void ensure(int size)
+			{
+				if (values.length >= size) return;
+				values  = new String[size];
+				numbers = new double[size];
+				parsed  = new byte[size];
+			}
+		}
+		
+		private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+		
+		private final Kind        kind;
+		private final String[]    names;
+		private final Attribute[] attributes;
+		private final Node        root;
+		private final Rule[]      rules;
+		
+		VariantSelector(AttributeVariantSet set)
+		{
+			this.kind       = set.get(0).kind;
+			this.names      = set.attrs.toArray(new String[set.attrs.size()]);
+			this.attributes = new Attribute[names.length];
+			for (int i = 0; i < names.length; ++i)
+				attributes[i] = kind.attributes.get(names[i]);
+			
+			if (!set.hasCompare)
+			{
+				this.rules = null;
+				this.root  = new Node();
+				for (AttributeVariant variant : set)
 				{
-					final Attribute attr = kindattrs.get(attrname);
-					values.add(attr == null ? "*" : attr.getEnum((int)(Math.random() * attr.enumSize())));
+					if (variant.val.size() != names.length) continue;
+					Node node = root;
+					for (String val : variant.val)
+					{
+						Node next = node.next.get(val);
+						if (next == null)
+							node.next.put(val, next = new Node());
+						node = next;
+					}
+					node.variant = variant;
 				}
-				else values.add(attrval);
+			}
+			else
+			{
+				this.root  = null;
+				this.rules = new Rule[set.size()];
+				for (int i = 0; i < rules.length; ++i)
+					rules[i] = new Rule(set.get(i), names.length);
+			}
+		}
+		
+		/**
+		 * Get the value of the i-th attribute.
+		 * Missing values are reported as {@code "nil"}, the value {@code "*"}
+		 * is replaced by a random value of the attribute's enumeration.
+		 */
+		private String value(AttributeProvider provider, int i)
+		{
+			final String attrval = provider.getAttribute(names[i]);
+			if (attrval == null)
+				return "nil";
+			if (attrval.equals("*"))
+				return attributes[i] == null ? "*" : attributes[i].getEnum((int)(Math.random() * attributes[i].enumSize()));
+			return attrval;
+		}
+		
+		/**
+		 * Select the variant for the given attribute values.
+		 * 
+		 * @param provider  Source of attribute values.
+		 * @return          Selected variant or {@code null}.
+		 */
+		Variant select(AttributeProvider provider)
+		{
+			final Scratch buf = scratch.get();
+			buf.ensure(names.length);
+			for (int i = 0; i < names.length; ++i)
+			{
+				buf.values[i] = value(provider, i);
+				buf.parsed[i] = 0;
 			}
 			
 			Variant out = null;
-			
-			if (!hasCompare)
+			if (root != null)
 			{
-				out = variantMap.get(String.join(",", values));
+				Node node = root;
+				for (int i = 0; i < names.length && node != null; ++i)
+					node = node.next.get(buf.values[i]);
+				out = node != null ? node.variant : null;
 			}
-			else
+			else for (Rule rule : rules)
+			{
+				if (matches(rule, buf))
+				{
+					out = rule.variant;
+					break;
+				}
+			}
+			
+			if (out == null)
+				System.err.println("Unable to resolve variant '" + String.join(",", Arrays.asList(buf.values).subList(0, names.length))
+				                   + "' for kind '" + kind.getName() + "'");
+			
+			for (int i = 0; i < names.length; ++i)
+				buf.values[i] = null;
+			return out;
+		}
+		
+		private static boolean matches(Rule rule, Scratch buf)
+		{
+			for (int i = 0; i < rule.op.length; ++i)
 			{
-				for (Variant variant : this)
+				final String value = buf.values[i];
+				switch (rule.op[i])
 				{
-					out = variant;
-					final ArrayList<String> val = ((AttributeVariant)variant).val;
-					for (int i = 0; i < val.size() && out != null; ++i)
+				case EQUAL:
+					if (!rule.text[i].equals(value)) return false;
+					break;
+				case PREFIX:
+					if (!rule.text[i].startsWith(value)) return false;
+					break;
+				case LESS:
+				case GREATER:
+					if (buf.parsed[i] == 0)
 					{
 						try
 						{
-							switch (val.get(i).charAt(0))
-							{
-							case '<':
-								if (Double.parseDouble(values.get(i)) >= Double.parseDouble(val.get(i).substring(1)))
-									out = null;
-								break;
-							case '>':
-								if (Double.parseDouble(values.get(i)) <= Double.parseDouble(val.get(i).substring(1)))
-									out = null;
-								break;
-							case '=':
-								if (!val.get(i).regionMatches(1, values.get(i), 0, values.get(i).length()))
-									out = null;
-								break;
-							default:
-								if (!val.get(i).equals(values.get(i)))
-									out = null;
-								break;
-							}
-						}
-						catch (NumberFormatException e)
-						{
-							out = null;
-							break;
+							buf.numbers[i] = Double.parseDouble(value);
+							buf.parsed[i]  = 1;
 						}
+						catch (NumberFormatException e) {buf.parsed[i] = 2;}
 					}
-					if (out != null) break;
+					if (buf.parsed[i] != 1) return false;
+					if (rule.op[i] == LESS    && buf.numbers[i] >= rule.threshold[i]) return false;
+					if (rule.op[i] == GREATER && buf.numbers[i] <= rule.threshold[i]) return false;
+					break;
+				default:
+					return false;
 				}
 			}
-			
-			if (out == null)
-				System.err.println("Unable to resolve variant '" + String.join(",", values)
-				                   + "' for kind '" + this.get(0).kind.getName() + "'");
-			
-			return out;
+			return true;
 		}
 	}
 	
@@ -1130,23 +1291,67 @@ public class Tileset implements Iterable<Tileset.Group>
 		}
 	}
 	
+	/**
+	 * Entry of the {@link NameMap}.
+	 * A single name may refer to a kind, an alias and a variant at the same time.
+	 * Lookups prefer kinds over aliases over variants.
+	 */
+	static final class NameEntry
+	{
+		/** registered name */
+		final String  name;
+		
+		private Kind         kind;
+		private Alias        alias;
+		private NamedVariant variant;
+		
+		private NameEntry(String name)
+		{
+			this.name = name;
+		}
+		
+		/**
+		 * @return  The kind, alias or variant registered by this name (in that order of precedence).
+		 */
+		ObjectProvider get()
+		{
+			return kind != null ? kind : (alias != null ? alias : variant);
+		}
+	}
+	
 	/**
 	 * Map of all named objects.
 	 * The interface makes sure, that only {@link Kind Kinds} and {@link Variant Variants}
 	 * are registered. Thus either {@link NameMap#isKind(String)} or {@link NameMap#isVariant(String)}
 	 * returns {@code true}.
+	 * <p>
+	 * While names are being registered, entries are kept in a {@link HashMap}.
+	 * {@link #seal} compiles them into an open addressing hash table (linear
+	 * probing), which is used for all subsequent lookups and supports lookups
+	 * of a name suffix without creating a substring.
 	 */
 	private static class NameMap
 	{
-		private TreeMap<String, Kind>         kindMap;
-		private TreeMap<String, Alias>        aliasMap;
-		private TreeMap<String, NamedVariant> variantMap;
+		private HashMap<String, NameEntry> entries;
+		private String[]                   keys;
+		private NameEntry[]                table;
+		private int                        mask;
 		
 		NameMap()
 		{
-			kindMap    = new TreeMap<String, Kind>();
-			aliasMap   = new TreeMap<String, Alias>();
-			variantMap = new TreeMap<String, NamedVariant>();
+			entries = new HashMap<String, NameEntry>();
+			keys    = null;
+			table   = null;
+			mask    = 0;
+		}
+		
+		private NameEntry entry(String name)
+		{
+			if (table != null) throw new IllegalStateException("name map is sealed");
+			NameEntry entry = entries.get(name);
+			if (entry == null)
+				entries.put(name, entry = new NameEntry(name));
+			return entry;
 		}
 		
 		/**
@@ -1159,9 +1364,9 @@ public class Tileset implements Iterable<Tileset.Group>
 		void add(NamedVariant obj)
 		{
 			if (obj.hasName())
-				variantMap.put(obj.getName(), obj);
+				entry(obj.getName()).variant = obj;
 			if (obj.hasOldName())
-				variantMap.put(obj.getOldName(), obj);
+				entry(obj.getOldName()).variant = obj;
 		}
 		
 		/**
@@ -1174,9 +1379,9 @@ public class Tileset implements Iterable<Tileset.Group>
 		void add(Alias alias)
 		{
 			if (alias.hasName())
-				aliasMap.put(alias.name, alias);
+				entry(alias.name).alias = alias;
 			if (alias.hasOldName())
-				aliasMap.put(alias.oldname, alias);
+				entry(alias.oldname).alias = alias;
 		}
 		
 		/**
@@ -1189,43 +1394,102 @@ public class Tileset implements Iterable<Tileset.Group>
 		void add(Kind kind)
 		{
 			if (kind.hasName())
-				kindMap.put(kind.name, kind);
+				entry(kind.name).kind = kind;
 			if (kind.hasOldName())
-				kindMap.put(kind.oldname, kind);
+				entry(kind.oldname).kind = kind;
 			if (kind.framed)
-				kindMap.put(kind.name + "_framed", kind);
+				entry(kind.name + "_framed").kind = kind;
 			
 			for (Alias alias : kind.alias)
 			{
 				if (alias.attributes.isEmpty())
 				{
 					if (alias.hasName())
-						kindMap.put(alias.name, kind);
+						entry(alias.name).kind = kind;
 					if (alias.hasOldName())
-						kindMap.put(alias.oldname, kind);
+						entry(alias.oldname).kind = kind;
 				}
 				else this.add(alias);
 			}
 		}
 		
+		/**
+		 * Build the lookup table.
+		 * No more names may be registered afterwards.
+		 */
+		void seal()
+		{
+			final int capacity = Integer.highestOneBit(Math.max(entries.size(), 1) * 4 - 1);
+			keys  = new String[capacity];
+			table = new NameEntry[capacity];
+			mask  = capacity - 1;
+			for (NameEntry entry : entries.values())
+			{
+				int idx = spread(entry.name.hashCode()) & mask;
+				while (keys[idx] != null) idx = (idx + 1) & mask;
+				keys[idx]  = entry.name;
+				table[idx] = entry;
+			}
+			entries = null;
+		}
+		
+		private static int spread(int h)
+		{
+			return h ^ (h >>> 16);
+		}
+		
+		/**
+		 * Find the entry of the given name, ignoring the first {@code from} characters.
+		 * 
+		 * @param name  Name to look up.
+		 * @param from  Index of the first character of the name.
+		 * @return      Entry registered by {@code name.substring(from)} or {@code null}.
+		 */
+		NameEntry find(String name, int from)
+		{
+			if (name == null) return null;
+			if (table == null) return entries.get(from == 0 ? name : name.substring(from));
+			
+			int h = 0;
+			if (from == 0)
+				h = name.hashCode();
+			else for (int i = from; i < name.length(); ++i)
+				h = 31 * h + name.charAt(i);
+			
+			final int length = name.length() - from;
+			for (int idx = spread(h) & mask; keys[idx] != null; idx = (idx + 1) & mask)
+			{
+				final String key = keys[idx];
+				if (key.length() == length && name.startsWith(key, from))
+					return table[idx];
+			}
+			return null;
+		}
+		
+		NameEntry find(String name)
+		{
+			return find(name, 0);
+		}
+		
 		boolean has(String name)
 		{
-			return kindMap.containsKey(name) || aliasMap.containsKey(name) || variantMap.containsKey(name);
+			return find(name) != null;
 		}
 		
 		ObjectProvider get(String name)
 		{
-			return kindMap.containsKey(name) ? kindMap.get(name) : (aliasMap.containsKey(name) ? aliasMap.get(name) : variantMap.get(name));
+			final NameEntry entry = find(name);
+			return entry != null ? entry.get() : null;
 		}
 		
-		boolean isKind    (String name) {return kindMap.containsKey(name);}
-		Kind    getKind   (String name) {return kindMap.get(name);}
+		boolean isKind    (String name) {return getKind(name) != null;}
+		Kind    getKind   (String name) {final NameEntry entry = find(name); return entry != null ? entry.kind : null;}
 		
-		boolean isAlias   (String name) {return aliasMap.containsKey(name);}
-		Alias   getAlias  (String name) {return aliasMap.get(name);}
+		boolean isAlias   (String name) {return getAlias(name) != null;}
+		Alias   getAlias  (String name) {final NameEntry entry = find(name); return entry != null ? entry.alias : null;}
 		
-		boolean isVariant (String name) {return variantMap.containsKey(name);}
-		Variant getVariant(String name) {return variantMap.get(name);}
+		boolean isVariant (String name) {return getVariant(name) != null;}
+		Variant getVariant(String name) {final NameEntry entry = find(name); return entry != null ? entry.variant : null;}
 	}
 	
 	
@@ -1277,6 +1541,18 @@ public class Tileset implements Iterable<Tileset.Group>
 	public boolean        has(String id)    {return names.has(id);}
 	public ObjectProvider get(String id)    {return names.get(id);}
 	
+	/**
+	 * Look up a name, ignoring a leading {@code '#'}.
+	 * This does not create a substring of the given name.
+	 * 
+	 * @param id  Name to look up.
+	 * @return    Name entry or {@code null}, if the name is not known.
+	 */
+	NameEntry lookup(String id)
+	{
+		return names.find(id, (id != null && id.startsWith("#")) ? 1 : 0);
+	}
+	
 	public boolean    hasKind(String id)    {return names.isKind(id);}
 	public Kind       getKind(String id)    {return names.getKind(id);}
 	
@@ -1308,6 +1584,8 @@ public class Tileset implements Iterable<Tileset.Group>
 	
 	/**
 	 * Set up the name map.
+	 * The map is sealed afterwards, i.e. compiled into its lookup table.
+	 * Also compiles the selectors of all {@link AttributeVariantSet attribute variant sets}.
 	 */
 	void registerNames()
 	{
@@ -1328,10 +1606,15 @@ public class Tileset implements Iterable<Tileset.Group>
 								names.add(variant);
 							}
 						}
+						else if (variants instanceof AttributeVariantSet)
+						{
+							((AttributeVariantSet)variants).compile();
+						}
 					}
 				}
 			}
 		}
+		names.seal();
 	}
 	
 	/**
@@ -1374,6 +1657,51 @@ public class Tileset implements Iterable<Tileset.Group>
 		this.spriteset = spriteset;
 	}
 	
+	/**
+	 * Collect all sprites created by {@link #loadSprites}.
+	 * Kind icons come first, followed by the variant and cluster images.
+	 * Every sprite is contained only once.
+	 * 
+	 * @return  List of all sprites (empty, if the sprites have not been loaded).
+	 */
+	public List<Sprite> getSprites()
+	{
+		final Set<Sprite> icons   = new LinkedHashSet<Sprite>();
+		final Set<Sprite> sprites = new LinkedHashSet<Sprite>();
+		if (spriteset == null) return new ArrayList<Sprite>();
+		for (Group group : groups)
+		{
+			for (Page page : group)
+			{
+				for (Kind kind : page)
+				{
+					for (VariantSet variants : kind.stack)
+					{
+						for (Iterator<Variant> vIt = variants.viterator(); vIt.hasNext();)
+						{
+							final Variant variant = vIt.next();
+							if (variant.image.sprite != null)
+								sprites.add(variant.image.sprite);
+							
+							if (variant.image instanceof ClusterImage)
+							{
+								for (VariantImage connect : ((ClusterImage)variant.image).connect)
+								{
+									if (connect.sprite != null)
+										sprites.add(connect.sprite);
+								}
+							}
+						}
+					}
+					if (kind.icon != null && kind.icon.sprite != null)
+						icons.add(kind.icon.sprite);
+				}
+			}
+		}
+		icons.addAll(sprites);
+		return new ArrayList<Sprite>(icons);
+	}
+	
 	/**
 	 * Check, if the sprites have been loaded.
 	 * 
@@ -0,0 +1,615 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import com.github.euwoyne.enigma_edit.model.I18N.KeyString;
+import com.github.euwoyne.enigma_edit.model.Tileset.Alias;
+import com.github.euwoyne.enigma_edit.model.Tileset.AttrGroup;
+import com.github.euwoyne.enigma_edit.model.Tileset.Attribute;
+import com.github.euwoyne.enigma_edit.model.Tileset.AttributeVariant;
+import com.github.euwoyne.enigma_edit.model.Tileset.AttributeVariantSet;
+import com.github.euwoyne.enigma_edit.model.Tileset.ClusterImage;
+import com.github.euwoyne.enigma_edit.model.Tileset.Group;
+import com.github.euwoyne.enigma_edit.model.Tileset.Image;
+import com.github.euwoyne.enigma_edit.model.Tileset.Kind;
+import com.github.euwoyne.enigma_edit.model.Tileset.NamedVariant;
+import com.github.euwoyne.enigma_edit.model.Tileset.NamedVariantSet;
+import com.github.euwoyne.enigma_edit.model.Tileset.Page;
+import com.github.euwoyne.enigma_edit.model.Tileset.Variant;
+import com.github.euwoyne.enigma_edit.model.Tileset.VariantImage;
+import com.github.euwoyne.enigma_edit.model.Tileset.VariantSet;
+
+/**
+ * Binary snapshot of a parsed {@link Tileset}.
+ * The snapshot is written next to the tileset XML file (with the extension
+ * {@code .cache}) and contains the SHA-256 hash of all source files. It is
+ * only used, if format version and hash match. Otherwise the XML files are
+ * parsed and the snapshot is rewritten.
+ * <p>
+ * Format: magic, version, hash (32 bytes), followed by the tileset data.
+ * Strings are stored once and referenced by index afterwards, images are
+ * stored once and referenced by index, if they occur more than once.
+ */
+public class TilesetCache
+{
+	/** file magic ({@code "ETSC"}) */
+	private static final int MAGIC   = 0x45545343;
+	
+	/** format version (to be increased, whenever the format or the tileset model changes) */
+	private static final int VERSION = 1;
+	
+	/**
+	 * Load a tileset.
+	 * Uses the binary snapshot, if it is up to date, and parses the XML files otherwise.
+	 * 
+	 * @param filename      Tileset XML file.
+	 * @param i18nFilenames Additional translation files (see {@link TilesetReader#addI18n}).
+	 * @return              The loaded tileset.
+	 * @throws IOException                   if a source file could not be read.
+	 * @throws SAXException                  if a source file could not be parsed.
+	 * @throws ParserConfigurationException  if no XML parser is available.
+	 */
+	public static Tileset load(String filename, String... i18nFilenames) throws IOException, SAXException, ParserConfigurationException
+	{
+		final Path   cache = Paths.get(filename + ".cache");
+		final byte[] hash  = hash(filename, i18nFilenames);
+		
+		if (Files.isReadable(cache)) try
+		{
+			final Tileset tileset = read(cache, hash);
+			if (tileset != null) return tileset;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.err.println("Unable to read tileset cache '" + cache + "': " + e);
+		}
+		
+		final TilesetReader reader  = new TilesetReader();
+		final Tileset       tileset = reader.parse(filename);
+		for (String i18nFilename : i18nFilenames)
+			reader.addI18n(i18nFilename, tileset);
+		
+		try
+		{
+			write(cache, hash, tileset);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Unable to write tileset cache '" + cache + "': " + e);
+		}
+		return tileset;
+	}
+	
+	/**
+	 * Calculate the SHA-256 hash of the given files.
+	 */
+	private static byte[] hash(String filename, String... others) throws IOException
+	{
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(Files.readAllBytes(Paths.get(filename)));
+			for (String other : others)
+				digest.update(Files.readAllBytes(Paths.get(other)));
+			return digest.digest();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+	}
+	
+	/*
+	 * Writer.
+	 */
+	
+	/**
+	 * Write the snapshot.
+	 * The file is written to a temporary file first and moved into place
+	 * afterwards, so that concurrent readers never see partial data.
+	 */
+	static void write(Path cache, byte[] hash, Tileset tileset) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 18);
+		new Writer(new DataOutputStream(bytes)).write(hash, tileset);
+		
+		final Path temp = cache.resolveSibling(cache.getFileName() + ".tmp");
+		Files.write(temp, bytes.toByteArray());
+		Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	private static class Writer
+	{
+		private final DataOutputStream                       out;
+		private final HashMap<String, Integer>               strings;
+		private final IdentityHashMap<VariantImage, Integer> images;
+		
+		Writer(DataOutputStream out)
+		{
+			this.out     = out;
+			this.strings = new HashMap<String, Integer>();
+			this.images  = new IdentityHashMap<VariantImage, Integer>();
+		}
+		
+		void write(byte[] hash, Tileset tileset) throws IOException
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.write(hash);
+			
+			string(tileset.getEditorVersion());
+			string(tileset.getEnigmaVersion());
+			
+			int count = 0;
+			for (@SuppressWarnings("unused") Group group : tileset) ++count;
+			out.writeInt(count);
+			for (Group group : tileset)
+				group(group);
+			
+			i18n(tileset.getI18n());
+			out.flush();
+		}
+		
+		private void string(String s) throws IOException
+		{
+			if (s == null)
+			{
+				out.writeInt(-1);
+				return;
+			}
+			final Integer idx = strings.get(s);
+			if (idx != null)
+			{
+				out.writeInt(idx);
+				return;
+			}
+			strings.put(s, strings.size());
+			final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(-2 - utf8.length);
+			out.write(utf8);
+		}
+		
+		private void strings(Iterable<String> list, int size) throws IOException
+		{
+			out.writeInt(size);
+			for (String s : list)
+				string(s);
+		}
+		
+		private void map(Map<String, String> map) throws IOException
+		{
+			out.writeInt(map.size());
+			for (Map.Entry<String, String> entry : map.entrySet())
+			{
+				string(entry.getKey());
+				string(entry.getValue());
+			}
+		}
+		
+		private void group(Group group) throws IOException
+		{
+			string(group.getI18n());
+			string(group.getIcon());
+			out.writeInt(group.getAttrGroupCount());
+			for (AttrGroup attrgroup : group.getAttrGroups())
+			{
+				string(attrgroup.getI18n());
+				int count = 0;
+				for (@SuppressWarnings("unused") Attribute attr : attrgroup) ++count;
+				out.writeInt(count);
+				for (Attribute attr : attrgroup)
+					attribute(attr);
+			}
+			
+			out.writeInt(group.size());
+			for (Page page : group)
+			{
+				string(page.getI18n());
+				out.writeInt(page.size());
+				for (Kind kind : page)
+					kind(kind);
+			}
+		}
+		
+		private void attribute(Attribute attr) throws IOException
+		{
+			string(attr.name);
+			out.writeByte(attr.type.ordinal());
+			out.writeByte(attr.ui.ordinal());
+			strings(attr.enums, attr.enums.size());
+			string(attr.defaultValue);
+			out.writeBoolean(attr.min != null);
+			if (attr.min != null) out.writeDouble(attr.min);
+			out.writeBoolean(attr.max != null);
+			if (attr.max != null) out.writeDouble(attr.max);
+			string(attr.i18n);
+		}
+		
+		private void kind(Kind kind) throws IOException
+		{
+			string(kind.name);
+			string(kind.oldname);
+			string(kind.i18n);
+			out.writeByte(kind.type.ordinal());
+			out.writeByte(kind.access.ordinal());
+			out.writeBoolean(kind.framed);
+			
+			out.writeInt(kind.attributes.size());
+			for (Attribute attr : kind.attributes.values())
+				attribute(attr);
+			
+			strings(kind.messages, kind.messages.size());
+			
+			out.writeInt(kind.alias.size());
+			for (Alias alias : kind.alias)
+			{
+				string(alias.name);
+				string(alias.oldname);
+				string(alias.i18n);
+				map(alias.attributes);
+			}
+			
+			image(kind.icon);
+			
+			out.writeInt(kind.stack.size());
+			for (VariantSet variants : kind.stack)
+			{
+				out.writeBoolean(variants.showAll);
+				if (variants instanceof NamedVariantSet)
+				{
+					final NamedVariantSet nvariants = (NamedVariantSet)variants;
+					out.writeByte(0);
+					string(nvariants.defaultName);
+					out.writeInt(nvariants.size());
+					for (NamedVariant variant : nvariants)
+					{
+						string(variant.name.name);
+						string(variant.name.oldname);
+						string(variant.name.i18n);
+						variant(variant);
+					}
+				}
+				else if (variants instanceof AttributeVariantSet)
+				{
+					final AttributeVariantSet avariants = (AttributeVariantSet)variants;
+					out.writeByte(1);
+					strings(avariants.attrs, avariants.attrs.size());
+					out.writeBoolean(avariants.hasCompare);
+					out.writeInt(avariants.size());
+					for (AttributeVariant variant : avariants)
+					{
+						strings(variant.val, variant.val.size());
+						out.writeBoolean(variant.hasCompare);
+						variant(variant);
+					}
+				}
+				else throw new IOException("unknown variant set type: " + variants.getClass().getName());
+			}
+		}
+		
+		private void variant(Variant variant) throws IOException
+		{
+			map(variant.attributes);
+			image(variant.image);
+		}
+		
+		private void image(VariantImage image) throws IOException
+		{
+			if (image == null)
+			{
+				out.writeInt(-1);
+				return;
+			}
+			final Integer idx = images.get(image);
+			if (idx != null)
+			{
+				out.writeInt(idx);
+				return;
+			}
+			images.put(image, images.size());
+			out.writeInt(image instanceof ClusterImage ? -3 : -2);
+			out.writeInt(image.images.size());
+			for (Image img : image.images)
+			{
+				string(img.file);
+				string(img.text);
+				out.writeInt(img.x);
+				out.writeInt(img.y);
+			}
+			if (image instanceof ClusterImage)
+			{
+				final VariantImage[] connect = ((ClusterImage)image).connect;
+				for (int i = 0; i < connect.length; ++i)
+					image(connect[i]);
+			}
+		}
+		
+		private void i18n(I18N i18n) throws IOException
+		{
+			int count = 0;
+			for (@SuppressWarnings("unused") Map.Entry<String, KeyString> entry : i18n.entries()) ++count;
+			out.writeInt(count);
+			for (Map.Entry<String, KeyString> entry : i18n.entries())
+			{
+				final KeyString str = entry.getValue();
+				string(entry.getKey());
+				out.writeByte(str.translate == null ? 2 : (str.translate ? 1 : 0));
+				string(str.english);
+				string(str.comment);
+				out.writeInt(str.languages().size());
+				for (String lang : str.languages())
+				{
+					string(lang);
+					string(str.get(lang));
+					out.writeBoolean(str.is_protected(lang));
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Reader.
+	 */
+	
+	/**
+	 * Read the snapshot into a heap buffer.
+	 * The file is not memory mapped, since an outdated snapshot is replaced
+	 * by {@link #write} right afterwards (which fails on some platforms, as
+	 * long as a mapping of the file is alive).
+	 * 
+	 * @return  The tileset or {@code null}, if the snapshot is outdated.
+	 */
+	static Tileset read(Path cache, byte[] hash) throws IOException
+	{
+		return new Reader(ByteBuffer.wrap(Files.readAllBytes(cache))).read(hash);
+	}
+	
+	private static class Reader
+	{
+		private final ByteBuffer              in;
+		private final ArrayList<String>       strings;
+		private final ArrayList<VariantImage> images;
+		
+		Reader(ByteBuffer in)
+		{
+			this.in      = in;
+			this.strings = new ArrayList<String>();
+			this.images  = new ArrayList<VariantImage>();
+		}
+		
+		Tileset read(byte[] hash) throws IOException
+		{
+			if (in.remaining() < 8 + hash.length) return null;
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) return null;
+			final byte[] stored = new byte[hash.length];
+			in.get(stored);
+			if (!Arrays.equals(stored, hash)) return null;
+			
+			final Tileset tileset = new Tileset(string(), string());
+			for (int g = in.getInt(); g > 0; --g)
+				group(tileset.createGroup());
+			i18n(tileset.getI18n());
+			
+			if (in.hasRemaining())
+				throw new IOException("trailing data");
+			tileset.registerNames();
+			return tileset;
+		}
+		
+		private String string()
+		{
+			final int idx = in.getInt();
+			if (idx == -1) return null;
+			if (idx >= 0)  return strings.get(idx);
+			
+			final byte[] utf8 = new byte[-2 - idx];
+			in.get(utf8);
+			final String s = new String(utf8, StandardCharsets.UTF_8);
+			strings.add(s);
+			return s;
+		}
+		
+		private void strings(java.util.Collection<String> target)
+		{
+			for (int n = in.getInt(); n > 0; --n)
+				target.add(string());
+		}
+		
+		private void map(Map<String, String> target)
+		{
+			for (int n = in.getInt(); n > 0; --n)
+				target.put(string(), string());
+		}
+		
+		private void group(Group group) throws IOException
+		{
+			group.setI18n(string());
+			group.setIcon(string());
+			for (int a = in.getInt(); a > 0; --a)
+			{
+				group.addAttributeGroup(string());
+				for (int n = in.getInt(); n > 0; --n)
+					group.addAttribute(attribute());
+			}
+			
+			for (int p = in.getInt(); p > 0; --p)
+			{
+				final Page page = new Page(string());
+				for (int k = in.getInt(); k > 0; --k)
+					page.add(kind(group));
+				group.add(page);
+			}
+		}
+		
+		private Attribute attribute()
+		{
+			final String    name = string();
+			final Attribute attr = new Attribute(name, Attribute.Type.values()[in.get()], Attribute.Ui.values()[in.get()]);
+			strings(attr.enums);
+			attr.defaultValue = string();
+			attr.min          = (in.get() != 0) ? in.getDouble() : null;
+			attr.max          = (in.get() != 0) ? in.getDouble() : null;
+			attr.i18n         = string();
+			return attr;
+		}
+		
+		private Kind kind(Group group) throws IOException
+		{
+			final Kind kind = new Kind(string(), null, group);
+			kind.oldname = string();
+			kind.i18n    = string();
+			kind.type    = Kind.Type.values()[in.get()];
+			kind.access  = Kind.Access.values()[in.get()];
+			kind.framed  = in.get() != 0;
+			
+			for (int n = in.getInt(); n > 0; --n)
+			{
+				final Attribute attr = attribute();
+				kind.attributes.put(attr.name, attr);
+			}
+			
+			strings(kind.messages);
+			
+			for (int n = in.getInt(); n > 0; --n)
+			{
+				final Alias alias = new Alias(string(), kind);
+				alias.oldname = string();
+				alias.i18n    = string();
+				map(alias.attributes);
+				kind.alias.add(alias);
+			}
+			
+			kind.icon = image();
+			
+			for (int s = in.getInt(); s > 0; --s)
+			{
+				final boolean showAll = in.get() != 0;
+				switch (in.get())
+				{
+				case 0:
+				{
+					final NamedVariantSet nvariants = new NamedVariantSet(string());
+					for (int n = in.getInt(); n > 0; --n)
+					{
+						final NamedVariant variant = new NamedVariant(string(), kind);
+						variant.name.oldname = string();
+						variant.name.i18n    = string();
+						variant(variant);
+						nvariants.add(variant);
+					}
+					nvariants.showAll = showAll;
+					kind.stack.add(nvariants);
+					break;
+				}
+				case 1:
+				{
+					final AttributeVariantSet avariants = new AttributeVariantSet();
+					strings(avariants.attrs);
+					final boolean hasCompare = in.get() != 0;
+					for (int n = in.getInt(); n > 0; --n)
+					{
+						final AttributeVariant variant = new AttributeVariant(kind);
+						variant.val.clear();
+						strings(variant.val);
+						variant.hasCompare = in.get() != 0;
+						variant(variant);
+						avariants.add(variant);
+					}
+					avariants.hasCompare = hasCompare;
+					avariants.showAll    = showAll;
+					kind.stack.add(avariants);
+					break;
+				}
+				default:
+					throw new IOException("unknown variant set type");
+				}
+			}
+			return kind;
+		}
+		
+		private void variant(Variant variant) throws IOException
+		{
+			map(variant.attributes);
+			variant.image = image();
+		}
+		
+		private VariantImage image() throws IOException
+		{
+			final int idx = in.getInt();
+			if (idx == -1) return null;
+			if (idx >= 0)  return images.get(idx);
+			
+			final VariantImage image = (idx == -3) ? new ClusterImage() : new VariantImage();
+			images.add(image);
+			for (int n = in.getInt(); n > 0; --n)
+				image.images.add(new Image(string(), string(), in.getInt(), in.getInt()));
+			if (image instanceof ClusterImage)
+			{
+				final VariantImage[] connect = ((ClusterImage)image).connect;
+				for (int i = 0; i < connect.length; ++i)
+					connect[i] = image();
+			}
+			return image;
+		}
+		
+		private void i18n(I18N i18n)
+		{
+			for (int n = in.getInt(); n > 0; --n)
+			{
+				final String    key       = string();
+				final byte      translate = in.get();
+				final KeyString str       = new KeyString(translate != 0, string(), string());
+				if (translate == 2) str.translate = null;
+				for (int l = in.getInt(); l > 0; --l)
+				{
+					final String lang = string();
+					final String text = string();
+					str.put(lang, text, in.get() != 0);
+				}
+				i18n.put(key, str);
+			}
+		}
+	}
+}
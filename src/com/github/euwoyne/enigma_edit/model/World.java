@@ -23,17 +23,31 @@
 
 package com.github.euwoyne.enigma_edit.model;
 
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.luaj.vm2.parser.ParseException;
 
+import com.github.euwoyne.enigma_edit.Metrics;
 import com.github.euwoyne.enigma_edit.error.LevelLuaException;
 import com.github.euwoyne.enigma_edit.lua.CodeAnalyser;
 import com.github.euwoyne.enigma_edit.lua.CodeData;
 import com.github.euwoyne.enigma_edit.lua.data.Mode;
 import com.github.euwoyne.enigma_edit.lua.data.Mode2;
+import com.github.euwoyne.enigma_edit.lua.data.ObjectDecl;
 import com.github.euwoyne.enigma_edit.lua.data.Resolver;
 import com.github.euwoyne.enigma_edit.lua.data.Tile;
 import com.github.euwoyne.enigma_edit.lua.data.TileDecl;
 import com.github.euwoyne.enigma_edit.lua.data.WoCall;
+import com.github.euwoyne.enigma_edit.lua.data.WoCallAPI20;
 
 /**
  * A world as it is constructed from lua code.
@@ -43,6 +57,8 @@ import com.github.euwoyne.enigma_edit.lua.data.WoCall;
  * computed by calling {@link WoCall#getTile} which in turn uses the given
  * resolver instance. At last the thus determined {@link TileDecl tile declaration}
  * is converted to a {@link ImageTile} by the constructor of this class.
+ * The cells are resolved in two phases (tiles, then cluster images), each of
+ * which is executed in parallel on column bands (see {@link #setParallel}).
  */
 public class World
 {
@@ -52,11 +68,20 @@ public class World
 	/** Analysed code. This is the result of a {@link CodeAnalyser#analyse} call. */
 	private CodeData data;
 	
+	/** {@code <luamain>} content, that {@link #data} has been created from */
+	private String analysedCode;
+	
 	/** Default tile */
 	private Tile defaultTile;
 	
 	/** World grid */
-	private ImageTile[][] world;
+	private volatile ImageTile[][] world;
+	
+	/** Cells changed since the last call to {@link #takeChanges} (index {@code x * height + y}) */
+	private BitSet changedCells;
+	
+	/** {@code true}, if all cells have to be considered changed */
+	private boolean changedAll;
 	
 	/**
 	 * Creates a world from lua code.
@@ -109,7 +134,9 @@ public class World
 	
 	/**
 	 * Change the world source code to the given string (without re-analysis).
-	 * For the analysis of the new code an explicit call to {@link #analyse} is necessary.
+	 * For the analysis of the new code an explicit call to {@link #analyse} or
+	 * {@link #update} is necessary. The result of the previous analysis is kept,
+	 * so that {@link #update} may reuse it.
 	 * 
 	 * @param code                New lua source code.
 	 * 
@@ -119,7 +146,6 @@ public class World
 	public void resetCode(String code) throws ParseException, LevelLuaException
 	{
 		this.code = code;
-		data = null;
 	}
 	
 	/**
@@ -138,7 +164,7 @@ public class World
 	{
 		this.code = code;
 		if (data == null) return false;
-		analyse(tileset);
+		update(tileset);
 		return true;
 	}
 	
@@ -155,63 +181,520 @@ public class World
 	 */
 	public void analyse(Tileset tileset) throws ParseException, LevelLuaException
 	{
-		// analyse level code
-		data = CodeAnalyser.analyse(this.code);
+		build(this.code, CodeAnalyser.analyse(this.code), tileset, false).publish();
+	}
+	
+	/**
+	 * Execute an incremental code analysis.
+	 * The code is analysed like in {@link #analyse}. But if the world has been
+	 * analysed before and its dimensions and default tile did not change, only
+	 * those cells will be re-resolved, whose keys or whose resolved declarations
+	 * differ from the previous analysis. All other cells reuse the already
+	 * resolved {@link ImageTile} parts. Cluster images are re-resolved for the
+	 * changed cells and their direct neighbours.
+	 * 
+	 * @param tileset             ImageTile set used for sprite caching.  
+	 * 
+	 * @throws ParseException     This indicates a lua syntax error (thrown by the parser).
+	 * @throws LevelLuaException  This indicates special runtime errors or constructs, that are illegal in Enigma levels (thrown by the analyser).
+	 */
+	public void update(Tileset tileset) throws ParseException, LevelLuaException
+	{
+		if (world == null || data == null)
+			analyse(tileset);
+		else if (!code.equals(analysedCode))
+			build(this.code, CodeAnalyser.analyse(this.code), tileset, true).publish();
+	}
+	
+	/**
+	 * Analyse the given code without changing the world.
+	 * The code is analysed like in {@link #update}, reusing the result of the
+	 * previous analysis where possible. The world itself (including its source
+	 * code) is only changed, when the returned result is {@link Analysis#publish
+	 * published}. This allows to analyse the code of a displayed world on a
+	 * background thread and to drop the result, if it is outdated.
+	 * 
+	 * @param code                New lua source code.
+	 * @param tileset             ImageTile set used for sprite caching.  
+	 * @return                    Analysis result, not yet visible in this world.
+	 * 
+	 * @throws ParseException     This indicates a lua syntax error (thrown by the parser).
+	 * @throws LevelLuaException  This indicates special runtime errors or constructs, that are illegal in Enigma levels (thrown by the analyser).
+	 */
+	public Analysis prepare(String code, Tileset tileset) throws ParseException, LevelLuaException
+	{
+		return build(code, CodeAnalyser.analyse(code), tileset, true);
+	}
+	
+	/**
+	 * Result of an analysis, that has not been published yet.
+	 * 
+	 * @see World#prepare
+	 */
+	public final class Analysis
+	{
+		private final String        code;
+		private final CodeData      data;
+		private final Tile          defaultTile;
+		private final ImageTile[][] grid;
+		private final BitSet        cells;
+		
+		private Analysis(String code, CodeData data, Tile defaultTile, ImageTile[][] grid, BitSet cells)
+		{
+			this.code        = code;
+			this.data        = data;
+			this.defaultTile = defaultTile;
+			this.grid        = grid;
+			this.cells       = cells;
+		}
+		
+		/**
+		 * Replace the world's code and grid by the result of this analysis.
+		 * The changed cells are added to the cells reported by {@link World#takeChanges}.
+		 */
+		public void publish()
+		{
+			synchronized (World.this)
+			{
+				World.this.code         = code;
+				World.this.data         = data;
+				World.this.analysedCode = code;
+				World.this.defaultTile  = defaultTile;
+				World.this.world        = grid;
+				if (cells == null || changedCells == null)
+				{
+					changedAll   = true;
+					changedCells = null;
+				}
+				else if (!changedAll)
+					changedCells.or(cells);
+			}
+		}
+	}
+	
+	/**
+	 * Resolve cells in parallel.
+	 * Can be disabled by the system property {@code enigma_edit.singlethread}
+	 * or by {@link #setParallel}, e.g. to get a deterministic order of
+	 * evaluation for debugging.
+	 */
+	private static volatile boolean parallel = !Boolean.getBoolean("enigma_edit.singlethread");
+	
+	/**
+	 * Enable or disable parallel resolution of the world's cells.
+	 * 
+	 * @param enable  {@code false} to resolve all cells on the calling thread.
+	 */
+	public static void setParallel(boolean enable)
+	{
+		parallel = enable;
+	}
+	
+	/**
+	 * Action on a single column of the world grid.
+	 */
+	private static interface ColumnAction
+	{
+		void run(int x);
+	}
+	
+	/**
+	 * Fork-join task processing a band of columns.
+	 * The band is split, until it is small enough to be processed by a single worker.
+	 */
+	private static class ColumnBand extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final int          from, to, threshold;
+		private final ColumnAction action;
+		
+		ColumnBand(int from, int to, int threshold, ColumnAction action)
+		{
+			this.from      = from;
+			this.to        = to;
+			this.threshold = threshold;
+			this.action    = action;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if (to - from <= threshold)
+			{
+				for (int x = from; x < to; ++x)
+					action.run(x);
+			}
+			else
+			{
+				final int mid = (from + to) >>> 1;
+				invokeAll(new ColumnBand(from, mid, threshold, action),
+				          new ColumnBand(mid,  to,  threshold, action));
+			}
+		}
+	}
+	
+	/**
+	 * Start measuring a phase processed by {@link #forEachColumn}.
+	 * 
+	 * @param phase  Phase name.
+	 * @return       Timer to be closed at the end of the phase.
+	 */
+	private static Metrics.Timer startPhase(String phase)
+	{
+		return parallel ? Metrics.startParallel(phase) : Metrics.start(phase);
+	}
+	
+	/**
+	 * Execute the given action for every column {@code 0 <= x < width}.
+	 * If parallel resolution is enabled, the columns are split into bands, that
+	 * are processed by the common {@link ForkJoinPool}. The first exception
+	 * thrown by any of the bands is re-thrown (unwrapped) on the calling thread.
+	 * 
+	 * @param width   Number of columns.
+	 * @param action  Action to execute.
+	 * @throws CancellationException  if the calling thread has been interrupted.
+	 */
+	private static void forEachColumn(int width, ColumnAction action) throws CancellationException
+	{
+		final ForkJoinPool pool   = ForkJoinPool.commonPool();
+		final Thread       caller = Thread.currentThread();
+		if (!parallel || width < 2 || pool.getParallelism() < 2)
+		{
+			for (int x = 0; x < width; ++x)
+			{
+				checkCancelled(caller);
+				action.run(x);
+			}
+			return;
+		}
+		
+		final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+		final int threshold = Math.max(1, width / (pool.getParallelism() * 4));
+		pool.invoke(new ColumnBand(0, width, threshold, x ->
+		{
+			if (error.get() != null) return;
+			try
+			{
+				checkCancelled(caller);
+				action.run(x);
+			}
+			catch (RuntimeException e) {error.compareAndSet(null, e);}
+		}));
+		if (error.get() != null)
+			throw error.get();
+	}
+	
+	/**
+	 * Cooperative cancellation check.
+	 * 
+	 * @param caller  Thread, that started the analysis.
+	 * @throws CancellationException  if the given thread has been interrupted.
+	 */
+	private static void checkCancelled(Thread caller) throws CancellationException
+	{
+		if (caller.isInterrupted())
+			throw new CancellationException("world analysis cancelled");
+	}
+	
+	/**
+	 * Key pair of a single cell.
+	 * Used to remember, which keys have already been checked for changes.
+	 */
+	private static final class CellKey
+	{
+		final String easy;
+		final String difficult;
+		
+		CellKey(String easy, String difficult)
+		{
+			this.easy      = easy;
+			this.difficult = difficult;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof CellKey)) return false;
+			final CellKey other = (CellKey)obj;
+			return Objects.equals(easy, other.easy) && Objects.equals(difficult, other.difficult);
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return Objects.hashCode(easy) * 31 + Objects.hashCode(difficult);
+		}
+	}
+	
+	/**
+	 * Calculate a string representation of the resolved declarations of a tile.
+	 * Two tiles with equal signatures will be resolved to the same images.
+	 * 
+	 * @param tile  Tile to be described.
+	 * @return      Content of all tile parts in both modes.
+	 */
+	private static String signature(Tile tile)
+	{
+		final StringBuilder sig = new StringBuilder();
+		signature(sig, tile.fl());
+		signature(sig, tile.it());
+		signature(sig, tile.ac());
+		signature(sig, tile.st());
+		return sig.toString();
+	}
+	
+	private static void signature(StringBuilder sig, Tile.Part part)
+	{
+		for (Mode2 mode : Mode2.values())
+		{
+			final ObjectDecl decl = part.get(mode);
+			sig.append(decl != null ? decl.checkTable(mode).toString(mode.mode()) : "nil").append(';');
+		}
+	}
+	
+	/**
+	 * Resolve the declaration of a single cell.
+	 * 
+	 * @param easyCall  World call for easy mode.
+	 * @param diffCall  World call for difficult mode.
+	 * @param x         X coordinate of the field ({@code 1 <= x <= width})
+	 * @param y         Y coordinate of the field ({@code 1 <= y <= height})
+	 * @return          Tile declaration at the specified position {@code (x,y)}.
+	 */
+	private static Tile resolve(WoCallAPI20 easyCall, WoCallAPI20 diffCall, int x, int y)
+	{
+		if (easyCall == diffCall)
+			return easyCall.getTile(x, y);
+		
+		Tile easyTile = easyCall.getTile(x, y, Mode.EASY);
+		Tile diffTile = diffCall.getTile(x, y, Mode.DIFFICULT);
+		if (easyTile == null) easyTile = new Tile();
+		if (diffTile == null) diffTile = new Tile();
+		return Tile.composeMode(easyTile, diffTile);
+	}
+	
+	/**
+	 * Construct the world grid from the analysed code.
+	 * The world is not changed, until the result is {@link Analysis#publish published}.
+	 * 
+	 * @param newCode      Code, that has been analysed.
+	 * @param newData      Analysed code.
+	 * @param tileset      ImageTile set used for sprite caching.
+	 * @param incremental  Try to reuse the cells of the previous analysis.
+	 * @return             Analysis result.
+	 */
+	@SuppressWarnings("try")
+	private Analysis build(String newCode, CodeData newData, Tileset tileset, boolean incremental)
+	{
+		// previous analysis (may be replaced concurrently by a published result)
+		final ImageTile[][] world;
+		final CodeData      data;
+		final Tile          defaultTile;
+		synchronized (this)
+		{
+			world       = this.world;
+			data        = this.data;
+			defaultTile = this.defaultTile;
+		}
 		
 		// prepare world data
-		final WoCall easyCall   = data.getWorldCall(Mode2.EASY);
-		final WoCall diffCall   = data.getWorldCall(Mode2.DIFFICULT);
-		final int    easyWidth  = easyCall.getWidth(Mode.EASY);
-		final int    diffWidth  = diffCall.getWidth(Mode.DIFFICULT);
-		final int    easyHeight = easyCall.getHeight(Mode.EASY);
-		final int    diffHeight = diffCall.getHeight(Mode.DIFFICULT);
-		final int    width      = easyWidth  >= diffWidth  ? easyWidth  : diffWidth;
-		final int    height     = easyHeight >= diffHeight ? easyHeight : diffHeight;
-		
-		world = new ImageTile[width][height];
-		defaultTile = Tile.composeMode(easyCall.getDefaultTile(Mode2.EASY), diffCall.getDefaultTile(Mode2.DIFFICULT));
+		final WoCallAPI20 easyCall   = newData.getWorldCall(Mode2.EASY);
+		final WoCallAPI20 diffCall   = newData.getWorldCall(Mode2.DIFFICULT);
+		final int         easyWidth  = easyCall.getWidth(Mode.EASY);
+		final int         diffWidth  = diffCall.getWidth(Mode.DIFFICULT);
+		final int         easyHeight = easyCall.getHeight(Mode.EASY);
+		final int         diffHeight = diffCall.getHeight(Mode.DIFFICULT);
+		final int         width      = easyWidth  >= diffWidth  ? easyWidth  : diffWidth;
+		final int         height     = easyHeight >= diffHeight ? easyHeight : diffHeight;
+		
+		final ImageTile[][] grid = new ImageTile[width][height];
+		final Tile newDefault = Tile.composeMode(easyCall.getDefaultTile(Mode2.EASY), diffCall.getDefaultTile(Mode2.DIFFICULT));
+		
+		// check, if the previous analysis may be reused
+		final boolean reuse = incremental
+			&& world != null && data != null
+			&& width  == world.length
+			&& height == world[0].length
+			&& signature(newDefault).equals(signature(defaultTile));
+		
+		final WoCallAPI20 oldEasyCall = reuse ? data.getWorldCall(Mode2.EASY)      : null;
+		final WoCallAPI20 oldDiffCall = reuse ? data.getWorldCall(Mode2.DIFFICULT) : null;
+		final boolean[][] changed     = reuse ? new boolean[width][height]         : null;
+		final Map<CellKey, Boolean>     keyChanged = reuse ? new ConcurrentHashMap<CellKey, Boolean>() : null;
+		final ImageTile.PartPool        pool       = new ImageTile.PartPool();
 		
 		// resolve tiles (declaration -> tile-set reference)
-		if (easyCall == diffCall)
+		final AtomicInteger resolved = new AtomicInteger();
+		try (Metrics.Timer t = startPhase("world.resolve"))
 		{
-			for (int x = 0; x < width; ++x)
+			forEachColumn(width, x ->
 			{
 				for (int y = 0; y < height; ++y)
 				{
-					world[x][y] = new ImageTile(easyCall.getTile(x+1, y+1));
-					world[x][y].resolveTile(tileset, defaultTile);
+					final Tile tile = resolve(easyCall, diffCall, x+1, y+1);
+					if (reuse)
+					{
+						final String easyKey = easyCall.getKey(x+1, y+1, Mode2.EASY);
+						final String diffKey = diffCall.getKey(x+1, y+1, Mode2.DIFFICULT);
+						if (Objects.equals(easyKey, oldEasyCall.getKey(x+1, y+1, Mode2.EASY))
+						 && Objects.equals(diffKey, oldDiffCall.getKey(x+1, y+1, Mode2.DIFFICULT)))
+						{
+							final CellKey key = new CellKey(easyKey, diffKey);
+							Boolean isChanged = keyChanged.get(key);
+							if (isChanged == null)
+							{
+								isChanged = !signature(tile).equals(signature(world[x][y].tile()));
+								keyChanged.put(key, isChanged);
+							}
+							if (!isChanged)
+							{
+								grid[x][y] = new ImageTile(tile, world[x][y]);
+								continue;
+							}
+						}
+						changed[x][y] = true;
+					}
+					grid[x][y] = new ImageTile(tile);
+					grid[x][y].resolveTile(tileset, newDefault, pool);
+					resolved.incrementAndGet();
 				}
-			}
+			});
 		}
-		else
+		
+		// resolve cluster images (requires all neighbours to be resolved)
+		try (Metrics.Timer t = startPhase("world.cluster"))
 		{
-			Tile easyTile, diffTile;
-			for (int x = 0; x < width; ++x)
+			forEachColumn(width, x ->
 			{
 				for (int y = 0; y < height; ++y)
 				{
-					easyTile = easyCall.getTile(x+1, y+1, Mode.EASY);
-					diffTile = diffCall.getTile(x+1, y+1, Mode.DIFFICULT);
-					if (easyTile == null) easyTile = new Tile();
-					if (diffTile == null) diffTile = new Tile();
-					world[x][y] = new ImageTile(Tile.composeMode(easyTile, diffTile));
-					world[x][y].resolveTile(tileset, defaultTile);
+					if (reuse && !changed[x][y]
+					 && (y == 0          || !changed[x][y-1])
+					 && (x == width  - 1 || !changed[x+1][y])
+					 && (y == height - 1 || !changed[x][y+1])
+					 && (x == 0          || !changed[x-1][y]))
+						continue;
+					
+					// reused cells still share their parts with the previous (displayed) world
+					if (reuse && !changed[x][y])
+						grid[x][y].detach();
+					
+					grid[x][y].resolveCluster(
+						y > 0          ? grid[x][y-1] : null,
+						x < width  - 1 ? grid[x+1][y] : null,
+						y < height - 1 ? grid[x][y+1] : null,
+						x > 0          ? grid[x-1][y] : null);
+				}
+			});
+		}
+		
+		if (Metrics.isEnabled())
+		{
+			final HashSet<String> keys = new HashSet<String>();
+			for (int x = 1; x <= width; ++x)
+			{
+				for (int y = 1; y <= height; ++y)
+				{
+					keys.add(easyCall.getKey(x, y, Mode2.EASY));
+					keys.add(diffCall.getKey(x, y, Mode2.DIFFICULT));
 				}
 			}
+			Metrics.count("world.cells",    width * height);
+			Metrics.count("world.resolved", resolved.get());
+			Metrics.count("world.keys",     keys.size());
 		}
 		
-		// resolve cluster images
-		for (int x = 0; x < width; ++x)
+		// collect changed cells (including the neighbours of changed cells, since their cluster images may have changed)
+		BitSet cells = null;
+		if (reuse)
 		{
-			for (int y = 0; y < height; ++y)
+			cells = new BitSet(width * height);
+			for (int x = 0; x < width; ++x)
 			{
-				world[x][y].resolveCluster(
-					y > 0                   ? world[x][y-1] : null,
-					x < world.length    - 1 ? world[x+1][y] : null,
-					y < world[0].length - 1 ? world[x][y+1] : null,
-					x > 0                   ? world[x-1][y] : null);
+				for (int y = 0; y < height; ++y)
+				{
+					if (!changed[x][y]) continue;
+					cells.set(x * height + y);
+					if (y > 0)          cells.set(x * height + y - 1);
+					if (y < height - 1) cells.set(x * height + y + 1);
+					if (x > 0)          cells.set((x - 1) * height + y);
+					if (x < width  - 1) cells.set((x + 1) * height + y);
+				}
 			}
 		}
+		
+		return new Analysis(newCode, newData, newDefault, grid, cells);
+	}
+	
+	/**
+	 * Visitor for the cells of a {@link Changes change set}.
+	 */
+	public static interface CellVisitor
+	{
+		/**
+		 * Visit a single cell.
+		 * 
+		 * @param x  X coordinate of the field ({@code 1 <= x <= width})
+		 * @param y  Y coordinate of the field ({@code 1 <= y <= height})
+		 */
+		void visit(int x, int y);
+	}
+	
+	/**
+	 * Set of cells, that changed during one or more analyses.
+	 * 
+	 * @see World#takeChanges
+	 */
+	public static final class Changes
+	{
+		private final boolean all;
+		private final BitSet  cells;
+		private final int     height;
+		
+		Changes(boolean all, BitSet cells, int height)
+		{
+			this.all    = all;
+			this.cells  = cells;
+			this.height = height;
+		}
+		
+		/**
+		 * Check, if the whole world has to be considered changed.
+		 */
+		public boolean isAll() {return all;}
+		
+		/**
+		 * Check, if no cell has changed.
+		 */
+		public boolean isEmpty() {return !all && (cells == null || cells.isEmpty());}
+		
+		/**
+		 * Visit all changed cells.
+		 * This does nothing, if {@link #isAll()} is set.
+		 * 
+		 * @param visitor  Visitor to be called for each changed cell.
+		 */
+		public void forEach(CellVisitor visitor)
+		{
+			if (all || cells == null) return;
+			for (int idx = cells.nextSetBit(0); idx >= 0; idx = cells.nextSetBit(idx + 1))
+				visitor.visit(idx / height + 1, idx % height + 1);
+		}
+	}
+	
+	/**
+	 * Return and reset the cells, that changed since the last call.
+	 * After a full {@link #analyse analysis} (or if the dimensions changed)
+	 * the change set {@link Changes#isAll() contains all cells}.
+	 * 
+	 * @return  Changed cells.
+	 */
+	public synchronized Changes takeChanges()
+	{
+		final Changes changes = new Changes(changedAll, changedCells, world != null ? world[0].length : 1);
+		changedAll   = false;
+		changedCells = world != null ? new BitSet() : null;
+		return changes;
 	}
 }
-
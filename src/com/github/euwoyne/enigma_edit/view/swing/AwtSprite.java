@@ -24,8 +24,8 @@
 package com.github.euwoyne.enigma_edit.view.swing;
 
 import java.awt.Font;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.github.euwoyne.enigma_edit.error.MissingImageException;
 import com.github.euwoyne.enigma_edit.model.RenderingAgent;
@@ -37,13 +37,32 @@ import com.github.euwoyne.enigma_edit.model.Tileset;
 public class AwtSprite extends AwtSpriteBase implements Sprite
 {
 	private final Tileset.VariantImage data;
+	private final AwtSpriteSet         owner;
 	private Map<Integer, AwtImage>     sizes;
+	private String                     key;
 	
 	public AwtSprite(Tileset.VariantImage image, SpriteFolder gfxPath, Font font)
 	{
 		super(gfxPath, font);
 		this.data    = image;
-		this.sizes   = new HashMap<Integer, AwtImage>();
+		this.owner   = null;
+		this.sizes   = new ConcurrentHashMap<Integer, AwtImage>();
+	}
+	
+	/**
+	 * Create a sprite of a sprite set.
+	 * The sprite shares the sheet cache of the set and draws the set's
+	 * placeholder, while the set is loading and the image is not available yet.
+	 * 
+	 * @param image  Image description.
+	 * @param owner  Sprite set owning the new sprite.
+	 */
+	AwtSprite(Tileset.VariantImage image, AwtSpriteSet owner)
+	{
+		super(owner.gfxPath, owner.font, owner.sheets);
+		this.data    = image;
+		this.owner   = owner;
+		this.sizes   = new ConcurrentHashMap<Integer, AwtImage>();
 	}
 	
 	@Override
@@ -56,15 +75,41 @@ public class AwtSprite extends AwtSpriteBase implements Sprite
 	public AwtImage getImage(int size) throws MissingImageException
 	{
 		AwtImage image = sizes.get(size);
-		if (image == null)
+		if (image == null) synchronized (this)
 		{
-			image = new AwtImage(size);
-			image.draw(data);
-			sizes.put(size,  image);
+			image = sizes.get(size);
+			if (image == null)
+			{
+				image = new AwtImage(size);
+				final SpritePack pack = owner != null ? owner.getPack() : null;
+				if (pack == null)
+					image.draw(data);
+				else if (!pack.read(getKey(), image))
+					pack.write(getKey(), image, image.draw(data));
+				sizes.put(size,  image);
+			}
 		}
 		return image;
 	}
 	
+	/**
+	 * @return  Unique description of the rendered image (used as sprite pack key).
+	 */
+	private String getKey()
+	{
+		if (key == null)
+		{
+			final StringBuilder sb = new StringBuilder();
+			for (Tileset.Image i : data)
+			{
+				if (sb.length() > 0) sb.append('|');
+				sb.append(i.getFile()).append(':').append(i.getX()).append(',').append(i.getY()).append(':').append(i.getText());
+			}
+			key = sb.toString();
+		}
+		return key;
+	}
+	
 	@Override
 	public void freeImage(int size)
 	{
@@ -79,7 +124,11 @@ public class AwtSprite extends AwtSpriteBase implements Sprite
 	@Override
 	public void draw(RenderingAgent renderer, int x, int y, int size) throws MissingImageException
 	{
-		renderer.draw(getImage(size), x, y);
+		final AwtImage image = sizes.get(size);
+		if (image == null && owner != null && owner.isLoading())
+			renderer.draw(owner.getPlaceholder(size), x, y);
+		else
+			renderer.draw(image != null ? image : getImage(size), x, y);
 	}
 	
 	public static AwtImage create(AwtSpriteBase base, SpriteStack stack, int size) throws MissingImageException
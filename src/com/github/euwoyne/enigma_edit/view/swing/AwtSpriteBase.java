@@ -8,8 +8,8 @@ import java.awt.font.TextLayout;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.nio.file.Path;
-
-import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.github.euwoyne.enigma_edit.error.InternalError;
 import com.github.euwoyne.enigma_edit.error.MissingImageException;
@@ -22,11 +22,26 @@ public class AwtSpriteBase
 {
 	protected final SpriteFolder gfxPath;
 	protected final Font         font;
+	protected final SheetCache   sheets;
 	
 	protected AwtSpriteBase(SpriteFolder gfxPath, Font font)
+	{
+		this(gfxPath, font, new SheetCache());
+	}
+	
+	protected AwtSpriteBase(SpriteFolder gfxPath, Font font, SheetCache sheets)
 	{
 		this.gfxPath = gfxPath;
 		this.font    = font;
+		this.sheets  = sheets;
+	}
+	
+	/**
+	 * @return  The cache of decoded sprite sheets used by this instance.
+	 */
+	public SheetCache getSheetCache()
+	{
+		return sheets;
 	}
 	
 	public class AwtImage extends BufferedImage implements Sprite.Image, RenderingAgent
@@ -39,10 +54,18 @@ public class AwtSpriteBase
 			this.size = size;
 		}
 		
-		protected void draw(Tileset.VariantImage image) throws MissingImageException
+		/**
+		 * Render an image description.
+		 * 
+		 * @param image  Image description.
+		 * @return       Source files used.
+		 * @throws MissingImageException  if a source file is missing.
+		 */
+		protected List<Path> draw(Tileset.VariantImage image) throws MissingImageException
 		{
-			Graphics2D     g;
-			java.awt.Image file;
+			final List<Path> sources = new ArrayList<Path>();
+			Graphics2D       g;
+			java.awt.Image   file;
 			
 			g = this.createGraphics();
 			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
@@ -74,7 +97,8 @@ public class AwtSpriteBase
 						pngPath = gfxPath.getPath(data.getFile() + ".png", pngSize);
 					}
 					
-					file = ImageIO.read(pngPath.toFile());
+					file = sheets.get(data.getFile(), pngSize, pngPath);
+					sources.add(pngPath);
 					final int x, y;
 					if (data.getFile().startsWith("ac"))
 					{
@@ -98,6 +122,7 @@ public class AwtSpriteBase
 				
 			}
 			g.dispose();
+			return sources;
 		}
 		
 		private void drawText(Graphics2D g, Tileset.Image data)
@@ -23,9 +23,12 @@
 
 package com.github.euwoyne.enigma_edit.view.swing;
 
+import java.awt.Color;
 import java.awt.Font;
+import java.awt.Graphics2D;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.github.euwoyne.enigma_edit.model.Sprite;
 import com.github.euwoyne.enigma_edit.model.SpriteFolder;
@@ -35,36 +38,119 @@ import com.github.euwoyne.enigma_edit.model.Tileset.VariantImage;
 public class AwtSpriteSet extends AwtSpriteBase implements SpriteSet
 {
 	private final Map<VariantImage, AwtSprite> sprites;
+	private final Map<Integer, SpriteAtlas>    atlases;
+	private final Map<Integer, AwtImage>       placeholders;
+	private volatile boolean                   loading;
+	private volatile SpritePack                pack;
 	
 	public AwtSpriteSet(SpriteFolder gfxPath, Font font)
 	{
 		super(gfxPath, font);
-		this.sprites = new LinkedHashMap<VariantImage, AwtSprite>();
+		this.sprites      = new LinkedHashMap<VariantImage, AwtSprite>();
+		this.atlases      = new ConcurrentHashMap<Integer, SpriteAtlas>();
+		this.placeholders = new ConcurrentHashMap<Integer, AwtImage>();
+		this.loading      = false;
+	}
+	
+	/**
+	 * Set the loading state.
+	 * While loading, sprites draw a placeholder instead of images not yet
+	 * created, rather than creating them on the spot.
+	 * 
+	 * @param loading  {@code true}, if images are being loaded in the background.
+	 */
+	public void setLoading(boolean loading)
+	{
+		this.loading = loading;
+	}
+	
+	/**
+	 * @return  {@code true}, if images are being loaded in the background.
+	 */
+	public boolean isLoading()
+	{
+		return loading;
+	}
+	
+	/**
+	 * Set the persistent cache of rendered images.
+	 * Sprites read their images from the pack, if available, and add newly
+	 * rendered images to it.
+	 * 
+	 * @param pack  Sprite pack ({@code null} to render all images).
+	 */
+	public void setPack(SpritePack pack)
+	{
+		this.pack = pack;
+	}
+	
+	/**
+	 * @return  The persistent cache of rendered images (or {@code null}).
+	 */
+	public SpritePack getPack()
+	{
+		return pack;
+	}
+	
+	/**
+	 * Get the placeholder drawn for images not loaded yet.
+	 * 
+	 * @param size  Image size.
+	 * @return      Placeholder image of the given size.
+	 */
+	AwtImage getPlaceholder(int size)
+	{
+		return placeholders.computeIfAbsent(size, s ->
+		{
+			final AwtImage   image = new AwtImage(s);
+			final Graphics2D g     = image.createGraphics();
+			g.setColor(new Color(128, 128, 128, 96));
+			g.fillRect(0, 0, s, s);
+			g.setColor(new Color(128, 128, 128, 160));
+			g.drawRect(0, 0, s - 1, s - 1);
+			g.dispose();
+			return image;
+		});
+	}
+	
+	/**
+	 * Get the texture atlas of all sprite images of the given size.
+	 * The atlas is filled on demand and discarded by {@link #free(int)}.
+	 * 
+	 * @param size  Sprite size.
+	 * @return      Atlas for sprite images of the given size.
+	 */
+	SpriteAtlas getAtlas(int size)
+	{
+		return atlases.computeIfAbsent(size, SpriteAtlas::new);
 	}
 	
 	@Override
-	public Sprite get(VariantImage image)
+	public synchronized Sprite get(VariantImage image)
 	{
 		AwtSprite sprite = sprites.get(image);
 		if (sprite == null)
 		{
-			sprite = new AwtSprite(image, gfxPath, font);
+			sprite = new AwtSprite(image, this);
 			sprites.put(image, sprite);
 		}
 		return sprite;
 	}
 	
 	@Override
-	public void free(int size)
+	public synchronized void free(int size)
 	{
 		for (Map.Entry<VariantImage, AwtSprite> i : sprites.entrySet())
 			i.getValue().freeImage(size);
+		atlases.remove(size);
 	}
 	
 	@Override
-	public void free()
+	public synchronized void free()
 	{
 		sprites.clear();
+		sheets.clear();
+		atlases.clear();
 	}
 }
 
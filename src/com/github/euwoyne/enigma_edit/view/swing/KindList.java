@@ -90,11 +90,35 @@ public class KindList extends JPanel
 	{
 		private static final long serialVersionUID = 1L;
 		
+		private final Tileset.Group group;
+		private JPopupMenu          popup;
+		
 		GroupButton(Tileset.Group group, String label, Icon icon)
 		{
 			super(label, icon);
+			this.group = group;
+			this.popup = null;
 			
-			JPopupMenu popup = new JPopupMenu();
+			this.addActionListener(new ActionListener()
+			{
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					getPopup().show(GroupButton.this, getWidth(), 0);
+				}
+			});
+		}
+		
+		/**
+		 * Get the popup menu of this group.
+		 * The menu (including all kind icons) is created on first use, so
+		 * that the icons need not be ready when the list is constructed.
+		 * 
+		 * @return  Popup menu listing the kinds of this group.
+		 */
+		private JPopupMenu getPopup()
+		{
+			if (popup != null) return popup;
+			popup = new JPopupMenu();
 			if (group.size() == 1)
 			{
 				for (Tileset.Kind kind : group.get(0))
@@ -110,14 +134,7 @@ public class KindList extends JPanel
 					popup.add(new PageMenu(page, i18n != null ? tileset.getString(page.getI18n()).get(lang) : "..."));
 				}
 			}
-			
-			this.addActionListener(new ActionListener()
-			{
-				@Override
-				public void actionPerformed(ActionEvent e) {
-					popup.show(GroupButton.this, getWidth(), 0);
-				}
-			});
+			return popup;
 		}
 	}
 	
@@ -0,0 +1,187 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.view.swing;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.euwoyne.enigma_edit.lua.data.Mode;
+
+/**
+ * Cache of pre-rendered layer images.
+ * Holds one image per layer and mode. If the total size of all cached images
+ * exceeds the given capacity, the least recently used images are evicted.
+ * Images, which are currently displayed, may be pinned to avoid eviction.
+ * Pinned images are not bounded by the cache, so the user has to check
+ * with {@link #fits}, that they may be cached at all.
+ */
+class LayerCache
+{
+	/**
+	 * Cache key (layer and mode).
+	 */
+	static final class Key
+	{
+		final int  layer;
+		final Mode mode;
+		
+		Key(int layer, Mode mode)
+		{
+			this.layer = layer;
+			this.mode  = mode;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return layer * 31 + mode.ordinal();
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key)) return false;
+			final Key other = (Key)obj;
+			return layer == other.layer && mode == other.mode;
+		}
+	}
+	
+	private final long                               capacity;
+	private final LinkedHashMap<Key, BufferedImage> images;
+	private long                                     used;
+	
+	/**
+	 * Create an empty cache.
+	 * 
+	 * @param capacity  Maximal number of bytes used by the cached images.
+	 */
+	LayerCache(long capacity)
+	{
+		this.capacity = capacity;
+		this.images   = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+		this.used     = 0;
+	}
+	
+	/**
+	 * Retrieve a cached layer image.
+	 * The image will be marked as most recently used.
+	 * 
+	 * @param layer  Layer index.
+	 * @param mode   Mode the layer was rendered for.
+	 * @return       The cached image or {@code null}.
+	 */
+	BufferedImage get(int layer, Mode mode)
+	{
+		return images.get(new Key(layer, mode));
+	}
+	
+	/**
+	 * Add a layer image to the cache.
+	 * Does not evict any images (see {@link #trim}).
+	 * 
+	 * @param layer  Layer index.
+	 * @param mode   Mode the layer was rendered for.
+	 * @param image  Rendered layer image.
+	 */
+	void put(int layer, Mode mode, BufferedImage image)
+	{
+		final BufferedImage old = images.put(new Key(layer, mode), image);
+		if (old != null) used -= sizeOf(old);
+		used += sizeOf(image);
+	}
+	
+	/**
+	 * Evict least recently used images, until the capacity is no longer exceeded.
+	 * Images of the given mode whose layer flag is set in {@code pinned}
+	 * are never evicted.
+	 * 
+	 * @param mode    Mode of the pinned layers.
+	 * @param pinned  Bit mask of layers ({@code 1 << layer}) not to be evicted.
+	 */
+	void trim(Mode mode, int pinned)
+	{
+		final Iterator<Map.Entry<Key, BufferedImage>> it = images.entrySet().iterator();
+		while (used > capacity && it.hasNext())
+		{
+			final Map.Entry<Key, BufferedImage> entry = it.next();
+			final Key key = entry.getKey();
+			if (key.mode == mode && (pinned & (1 << key.layer)) != 0) continue;
+			used -= sizeOf(entry.getValue());
+			it.remove();
+		}
+	}
+	
+	/**
+	 * Check, if the given number of layer images may be held by the cache.
+	 * 
+	 * @param count   Number of layer images.
+	 * @param width   Width of each image (in pixels).
+	 * @param height  Height of each image (in pixels).
+	 * @return        {@code true}, if the images do not exceed the capacity.
+	 */
+	boolean fits(int count, int width, int height)
+	{
+		return count * sizeOf(width, height) <= capacity;
+	}
+	
+	/**
+	 * Access all cached images.
+	 * The access order is not changed by iterating over the returned view.
+	 * 
+	 * @return  View of all cache entries.
+	 */
+	Iterable<Map.Entry<Key, BufferedImage>> entries()
+	{
+		return images.entrySet();
+	}
+	
+	/**
+	 * Remove all images.
+	 */
+	void clear()
+	{
+		images.clear();
+		used = 0;
+	}
+	
+	/**
+	 * @return  Number of bytes used by all cached images.
+	 */
+	long getUsed()
+	{
+		return used;
+	}
+	
+	private static long sizeOf(BufferedImage image)
+	{
+		return sizeOf(image.getWidth(), image.getHeight());
+	}
+	
+	private static long sizeOf(int width, int height)
+	{
+		return (long)width * height * 4;
+	}
+}
@@ -23,14 +23,21 @@
 
 package com.github.euwoyne.enigma_edit.view.swing;
 
+import java.awt.AlphaComposite;
+import java.awt.Composite;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Map;
 
 import javax.swing.JPanel;
 
+import com.github.euwoyne.enigma_edit.Metrics;
 import com.github.euwoyne.enigma_edit.control.LevelClickListener;
 import com.github.euwoyne.enigma_edit.control.Updateable;
 import com.github.euwoyne.enigma_edit.error.MissingImageException;
@@ -49,112 +56,403 @@ public class LevelView extends JPanel implements MouseListener, Updateable
 	private static final byte FLAG_ACTORS      = 0x4;
 	private static final byte FLAG_STONES      = 0x8;
 	
+	private static final int  LAYER_COUNT      = 4;
+	
 	private World         world;
 	private int           displaySize;
 	private BufferedImage buffer;
-	private boolean       dirty;
+	private Graphics2D    bufferGraphics;
 	
 	private Mode          mode;
 	private byte          visibility;
 	
+	/** {@code true}, if all cells have changed (i.e. all cached layers are invalid) */
+	private boolean       dirtyAll;
+	
+	/** {@code true}, if the buffer has to be recomposed from the layers (visibility or mode changed) */
+	private boolean       recompose;
+	
+	/** cells to be redrawn (index {@code x * height + y}, 0-based) */
+	private final BitSet  dirtyCells;
+	
+	/** pre-rendered layer images (layer index corresponds to the visibility flag bit) */
+	private final LayerCache layers;
+	
+	/** renderer drawing into the current target graphics */
+	private final LayerRenderer renderer;
+	
+	/** sprite set providing the texture atlas */
+	private final AwtSpriteSet  spriteset;
+	
 	private ArrayList<LevelClickListener> listeners;
 	
-	public void setFloorVisibility(boolean b) {if (b) visibility |= FLAG_FLOORS; else visibility &= ~FLAG_FLOORS; dirty = true;}
-	public void setItemVisibility (boolean b) {if (b) visibility |= FLAG_ITEMS;  else visibility &= ~FLAG_ITEMS;  dirty = true;}
-	public void setActorVisibility(boolean b) {if (b) visibility |= FLAG_ACTORS; else visibility &= ~FLAG_ACTORS; dirty = true;}
-	public void setStoneVisibility(boolean b) {if (b) visibility |= FLAG_STONES; else visibility &= ~FLAG_STONES; dirty = true;}
-	public void setMode           (Mode mode) {this.mode = mode; dirty = true;}
+	public synchronized void setFloorVisibility(boolean b) {if (b) visibility |= FLAG_FLOORS; else visibility &= ~FLAG_FLOORS; recompose = true;}
+	public synchronized void setItemVisibility (boolean b) {if (b) visibility |= FLAG_ITEMS;  else visibility &= ~FLAG_ITEMS;  recompose = true;}
+	public synchronized void setActorVisibility(boolean b) {if (b) visibility |= FLAG_ACTORS; else visibility &= ~FLAG_ACTORS; recompose = true;}
+	public synchronized void setStoneVisibility(boolean b) {if (b) visibility |= FLAG_STONES; else visibility &= ~FLAG_STONES; recompose = true;}
+	public synchronized void setMode           (Mode mode) {this.mode = mode; recompose = true;}
+	
+	/**
+	 * Rendering agent drawing from the sprite atlas into an exchangeable target.
+	 */
+	private class LayerRenderer implements RenderingAgent
+	{
+		Graphics2D  target;
+		SpriteAtlas atlas;
+		
+		@Override
+		public void draw(Sprite.Image sprite, int x, int y)
+		{
+			if (atlas != null)
+				atlas.draw(target, (AwtSprite.AwtImage)sprite, x * displaySize, y * displaySize);
+			else
+				target.drawImage((AwtSprite.AwtImage)sprite, x * displaySize, y * displaySize, null);
+		}
+	}
 	
-	LevelView(int size)
+	/**
+	 * Create a level view.
+	 * 
+	 * @param size           Display size of a single field in pixels.
+	 * @param layerCacheSize Maximal number of bytes used for cached layer images.
+	 * @param spriteset      Sprite set providing the texture atlas ({@code null} to draw sprites directly).
+	 */
+	LevelView(int size, long layerCacheSize, AwtSpriteSet spriteset)
 	{
 		this.world       = null;
 		this.displaySize = size;
 		this.buffer      = null;
-		this.dirty       = false;
+		this.dirtyAll    = true;
+		this.recompose   = true;
+		this.dirtyCells  = new BitSet();
+		this.layers      = new LayerCache(layerCacheSize);
+		this.renderer    = new LayerRenderer();
+		this.spriteset   = spriteset;
 		this.mode        = Mode.DIFFICULT;
 		this.visibility  = 0xf;
 		this.listeners   = new ArrayList<LevelClickListener>();
 		this.addMouseListener(this);
 	}
 	
-	void load(World world)
+	/**
+	 * Show the given world.
+	 * If the world is already shown and its dimensions did not change, the
+	 * buffers are kept and only the cells reported by {@link World#takeChanges}
+	 * will be redrawn.
+	 * 
+	 * @param world  World to be shown.
+	 */
+	synchronized void load(World world)
 	{
+		final boolean same = world == this.world && buffer != null && world != null && world.isAnalysed()
+			&& buffer.getWidth()  == world.getWidth()  * displaySize
+			&& buffer.getHeight() == world.getHeight() * displaySize;
 		this.world = world;
-		if (world == null || !world.isAnalysed()) return;
+		if (same || world == null || !world.isAnalysed()) return;
 		this.setPreferredSize(new java.awt.Dimension(world.getWidth() * displaySize, world.getHeight() * displaySize));
-		this.buffer = null;
+		this.buffer   = null;
+		this.dirtyAll = true;
+		this.dirtyCells.clear();
+		this.layers.clear();
 	}
 	
-	private void drawBuffer()
+	/**
+	 * Redraw the whole world (e.g. after the sprite images have changed).
+	 * All cached layers are discarded.
+	 */
+	synchronized void reload()
+	{
+		this.dirtyAll = true;
+	}
+	
+	/**
+	 * Draw a single layer of a cell.
+	 * The cell is cleared first, so that removed objects disappear.
+	 * 
+	 * @param g      Target graphics.
+	 * @param layer  Layer index.
+	 * @param mode   Mode to draw.
+	 * @param x      X coordinate of the field ({@code 1 <= x <= width})
+	 * @param y      Y coordinate of the field ({@code 1 <= y <= height})
+	 */
+	private void drawCell(Graphics2D g, int layer, Mode mode, int x, int y)
+	{
+		clearCell(g, x, y);
+		drawTile(g, layer, mode, x, y);
+	}
+	
+	/**
+	 * Clear a single cell.
+	 * 
+	 * @param g      Target graphics.
+	 * @param x      X coordinate of the field ({@code 1 <= x <= width})
+	 * @param y      Y coordinate of the field ({@code 1 <= y <= height})
+	 */
+	private void clearCell(Graphics2D g, int x, int y)
+	{
+		final Composite composite = g.getComposite();
+		g.setComposite(AlphaComposite.Clear);
+		g.fillRect((x-1) * displaySize, (y-1) * displaySize, displaySize, displaySize);
+		g.setComposite(composite);
+	}
+	
+	/**
+	 * Draw a single layer of a cell on top of the current content.
+	 * 
+	 * @param g      Target graphics.
+	 * @param layer  Layer index.
+	 * @param mode   Mode to draw.
+	 * @param x      X coordinate of the field ({@code 1 <= x <= width})
+	 * @param y      Y coordinate of the field ({@code 1 <= y <= height})
+	 */
+	private void drawTile(Graphics2D g, int layer, Mode mode, int x, int y)
 	{
-		final Graphics g = buffer.getGraphics();
+		final ImageTile tile = world.getTile(x, y);
+		if (tile == null) return;
 		
-		RenderingAgent render = new RenderingAgent()
+		renderer.target = g;
+		try
 		{
-			@Override
-			public void draw(Sprite.Image sprite, int x, int y)
+			switch (layer)
 			{
-				g.drawImage((AwtSprite.AwtImage)sprite, x * displaySize, y * displaySize, null);
+			case 0: tile.draw_fl(renderer, x-1, y-1, displaySize, mode); break;
+			case 1: tile.draw_it(renderer, x-1, y-1, displaySize, mode); break;
+			case 2: tile.draw_ac(renderer, x-1, y-1, displaySize, mode); break;
+			case 3: tile.draw_st(renderer, x-1, y-1, displaySize, mode); break;
 			}
-		};
-		
-		ImageTile tile;
+		}
+		catch (MissingImageException e) {System.err.println(e.getLocalizedMessage());}
+	}
+	
+	/**
+	 * Render a complete layer image.
+	 * 
+	 * @param layer  Layer index.
+	 * @param mode   Mode to draw.
+	 * @return       The new layer image.
+	 */
+	private BufferedImage drawLayer(int layer, Mode mode)
+	{
+		final BufferedImage image = new BufferedImage(world.getWidth() * displaySize, world.getHeight() * displaySize, BufferedImage.TYPE_INT_ARGB);
+		final Graphics2D    g     = image.createGraphics();
 		for (int x = 1; x <= world.getWidth(); ++x)
-		{
 			for (int y = 1; y <= world.getHeight(); ++y)
+				drawCell(g, layer, mode, x, y);
+		g.dispose();
+		return image;
+	}
+	
+	/**
+	 * Bring the buffer up to date.
+	 * Dirty cells are redrawn in all cached layers. Visible layers missing
+	 * in the cache are rendered. Then the buffer is (partially) recomposed
+	 * from the visible layers. If the visible layers do not fit into the layer
+	 * cache, no layers are cached and the cells are drawn directly into the
+	 * buffer instead. Has to be called with the lock on this view held.
+	 */
+	private void drawBuffer()
+	{
+		final int width  = world.getWidth();
+		final int height = world.getHeight();
+		renderer.atlas = spriteset != null ? spriteset.getAtlas(displaySize) : null;
+		if (buffer == null)
+		{
+			if (bufferGraphics != null) bufferGraphics.dispose();
+			buffer         = new BufferedImage(width * displaySize, height * displaySize, BufferedImage.TYPE_INT_ARGB);
+			bufferGraphics = buffer.createGraphics();
+			recompose      = true;
+		}
+		
+		// draw directly, if the visible layers exceed the cache capacity
+		if (!layers.fits(Integer.bitCount(visibility), buffer.getWidth(), buffer.getHeight()))
+		{
+			layers.clear();
+			drawDirect();
+			return;
+		}
+		
+		// update cached layers
+		if (dirtyAll)
+		{
+			layers.clear();
+			recompose = true;
+		}
+		else if (!dirtyCells.isEmpty())
+		{
+			for (Map.Entry<LayerCache.Key, BufferedImage> entry : layers.entries())
 			{
-				tile = world.getTile(x, y);
-				if (tile == null) continue;
-				if ((visibility & FLAG_FLOORS) != 0) try
-				{
-					tile.draw_fl(render, x-1, y-1, displaySize, mode);
-				}
-				catch (MissingImageException e) {System.err.println(e.getLocalizedMessage());}
-				
-				if ((visibility & FLAG_ITEMS)  != 0) try
+				final Graphics2D g = entry.getValue().createGraphics();
+				for (int idx = dirtyCells.nextSetBit(0); idx >= 0; idx = dirtyCells.nextSetBit(idx + 1))
 				{
-					tile.draw_it(render, x-1, y-1, displaySize, mode);
+					final int x = idx / height + 1;
+					final int y = idx % height + 1;
+					if (x <= width) drawCell(g, entry.getKey().layer, entry.getKey().mode, x, y);
 				}
-				catch (MissingImageException e) {System.err.println(e.getLocalizedMessage());}
-				
-				if ((visibility & FLAG_ACTORS) != 0) try
-				{
-					tile.draw_ac(render, x-1, y-1, displaySize, mode);
-				}
-				catch (MissingImageException e) {System.err.println(e.getLocalizedMessage());}
-				
-				if ((visibility & FLAG_STONES) != 0) try
-				{
-					tile.draw_st(render, x-1, y-1, displaySize, mode);
-				}
-				catch (MissingImageException e) {System.err.println(e.getLocalizedMessage());};
+				g.dispose();
+			}
+		}
+		
+		// collect visible layers (rendering missing ones)
+		final BufferedImage[] visible = new BufferedImage[LAYER_COUNT];
+		for (int layer = 0; layer < LAYER_COUNT; ++layer)
+		{
+			if ((visibility & (1 << layer)) == 0) continue;
+			visible[layer] = layers.get(layer, mode);
+			if (visible[layer] == null)
+				layers.put(layer, mode, visible[layer] = drawLayer(layer, mode));
+		}
+		layers.trim(mode, visibility);
+		
+		// compose buffer
+		final Composite composite = bufferGraphics.getComposite();
+		if (recompose)
+		{
+			bufferGraphics.setComposite(AlphaComposite.Clear);
+			bufferGraphics.fillRect(0, 0, buffer.getWidth(), buffer.getHeight());
+			bufferGraphics.setComposite(composite);
+			for (BufferedImage image : visible)
+				if (image != null) bufferGraphics.drawImage(image, 0, 0, null);
+		}
+		else
+		{
+			for (int idx = dirtyCells.nextSetBit(0); idx >= 0; idx = dirtyCells.nextSetBit(idx + 1))
+			{
+				final int x = (idx / height) * displaySize;
+				final int y = (idx % height) * displaySize;
+				if (x >= buffer.getWidth()) continue;
+				bufferGraphics.setComposite(AlphaComposite.Clear);
+				bufferGraphics.fillRect(x, y, displaySize, displaySize);
+				bufferGraphics.setComposite(composite);
+				for (BufferedImage image : visible)
+					if (image != null) bufferGraphics.drawImage(image, x, y, x + displaySize, y + displaySize, x, y, x + displaySize, y + displaySize, null);
+			}
+		}
+		
+		dirtyAll  = false;
+		recompose = false;
+		dirtyCells.clear();
+	}
+	
+	/**
+	 * Bring the buffer up to date without using the layer cache.
+	 * All visible layers of the dirty cells (or of all cells, if the buffer
+	 * has to be recomposed) are drawn directly into the buffer.
+	 */
+	private void drawDirect()
+	{
+		final int width  = world.getWidth();
+		final int height = world.getHeight();
+		if (dirtyAll || recompose)
+		{
+			final Composite composite = bufferGraphics.getComposite();
+			bufferGraphics.setComposite(AlphaComposite.Clear);
+			bufferGraphics.fillRect(0, 0, buffer.getWidth(), buffer.getHeight());
+			bufferGraphics.setComposite(composite);
+			for (int layer = 0; layer < LAYER_COUNT; ++layer)
+			{
+				if ((visibility & (1 << layer)) == 0) continue;
+				for (int x = 1; x <= width; ++x)
+					for (int y = 1; y <= height; ++y)
+						drawTile(bufferGraphics, layer, mode, x, y);
+			}
+		}
+		else
+		{
+			for (int idx = dirtyCells.nextSetBit(0); idx >= 0; idx = dirtyCells.nextSetBit(idx + 1))
+			{
+				final int x = idx / height + 1;
+				final int y = idx % height + 1;
+				if (x > width) continue;
+				bufferGraphics.setClip((x-1) * displaySize, (y-1) * displaySize, displaySize, displaySize);
+				clearCell(bufferGraphics, x, y);
+				for (int layer = 0; layer < LAYER_COUNT; ++layer)
+					if ((visibility & (1 << layer)) != 0) drawTile(bufferGraphics, layer, mode, x, y);
 			}
+			bufferGraphics.setClip(null);
 		}
+		
+		dirtyAll  = false;
+		recompose = false;
+		dirtyCells.clear();
 	}
 	
 	@Override
+	@SuppressWarnings("try")
 	protected void paintComponent(Graphics g)
 	{
 		super.paintComponent(g);
-		if (world == null) return;
-		if (buffer == null)
-		{
-			buffer = new BufferedImage(world.getWidth() * displaySize, world.getHeight() * displaySize, BufferedImage.TYPE_INT_ARGB);
-			drawBuffer();
-		}
-		else if (dirty)
+		synchronized (this)
 		{
-			drawBuffer();
+			if (world == null || !world.isAnalysed()) return;
+			if (buffer == null || dirtyAll || recompose || !dirtyCells.isEmpty())
+			{
+				Metrics.count("view.cells", dirtyAll || buffer == null ? world.getWidth() * world.getHeight() : dirtyCells.cardinality());
+				try (Metrics.Timer t = Metrics.start("view.draw"))
+				{
+					drawBuffer();
+				}
+			}
+			g.drawImage(buffer, 0, 0, null);
 		}
-		g.drawImage(buffer, 0, 0, null);
 	}
 	
+	@Override
+	public Lane getLane()
+	{
+		return Lane.LEVEL;
+	}
+	
+	/**
+	 * Collect the changed cells of the world and request a repaint.
+	 * Only the area covered by changed cells will be repainted, unless the
+	 * whole view has to be recomposed (e.g. after a change of visibility or mode).
+	 */
 	@Override
 	public void update()
 	{
-		dirty = true;
-		this.invalidate();
-		this.repaint();
+		Rectangle area = null;
+		synchronized (this)
+		{
+			if (world == null || !world.isAnalysed()) return;
+			final World.Changes changes = world.takeChanges();
+			if (changes.isAll())
+				dirtyAll = true;
+			
+			if (!dirtyAll && !changes.isEmpty())
+			{
+				final int height = world.getHeight();
+				final int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0};
+				changes.forEach((x, y) ->
+				{
+					dirtyCells.set((x-1) * height + (y-1));
+					bounds[0] = Math.min(bounds[0], x-1);
+					bounds[1] = Math.min(bounds[1], y-1);
+					bounds[2] = Math.max(bounds[2], x);
+					bounds[3] = Math.max(bounds[3], y);
+				});
+				area = new Rectangle(bounds[0] * displaySize, bounds[1] * displaySize,
+				                     (bounds[2] - bounds[0]) * displaySize, (bounds[3] - bounds[1]) * displaySize);
+			}
+			else if (!dirtyAll && !recompose && buffer != null)
+			{
+				return;
+			}
+			
+			// changed cells have to be tracked even if the whole view is
+			// recomposed, as they are redrawn in the cached layers
+			if (dirtyAll || recompose || buffer == null)
+				area = null;
+		}
+		
+		if (area == null)
+		{
+			this.invalidate();
+			this.repaint();
+		}
+		else
+		{
+			this.repaint(area);
+		}
 	}
 	
 	public void addLevelClickListener(LevelClickListener l)
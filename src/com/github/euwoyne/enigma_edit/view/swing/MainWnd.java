@@ -40,6 +40,7 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenuBar;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTabbedPane;
@@ -74,6 +75,12 @@ public class MainWnd extends JFrame implements WindowListener
 	private static final String TILEPANEL        = "tilePanel";
 	private static final String METAPANEL        = "metaPanel";
 	
+	/** display size of the level view */
+	public  static final int    LEVEL_SIZE       = 32;
+	
+	/** display size of the kind list */
+	public  static final int    KIND_SIZE        = 24;
+	
 	private static final String strTitleLong       = Resources.uiText.getString("MainWnd.title.long");
 	private static final String strFileMenu        = Resources.uiText.getString("MainWnd.fileMenu");
 	private static final String strFileMenu_new    = Resources.uiText.getString("MainWnd.fileMenu.new");
@@ -110,6 +117,8 @@ public class MainWnd extends JFrame implements WindowListener
 	private KindList    kindList;
 	private JMenuBar    menuBar;
 	private ToolBar     toolBar;
+	private JProgressBar progress;
+	private long        worldGeneration;
 	
 	private static ImageIcon loadIcon(String path, int size)
 	{
@@ -147,7 +156,7 @@ public class MainWnd extends JFrame implements WindowListener
 		this.setMinimumSize(new Dimension(640, 480));
 		
 		// setup widgets
-		levelView   = new LevelView(32);
+		levelView   = new LevelView(LEVEL_SIZE, options.layerCacheSize, (AwtSpriteSet)tileset.getSpriteset());
 		infoLayout  = new CardLayout();
 		infoPanel   = new JPanel(infoLayout);
 		objectPanel = new ObjectPanel(tileset);
@@ -169,9 +178,10 @@ public class MainWnd extends JFrame implements WindowListener
 				this.setTabComponentAt(this.getTabCount() - 1, lbl);
 			}
 		};
-		kindList    = new KindList(tileset, 24);
+		kindList    = new KindList(tileset, KIND_SIZE);
 		menuBar     = new JMenuBar();
 		toolBar     = new ToolBar("Editor Tools");
+		progress    = new JProgressBar();
 		
 		JSplitPane    editorPane  = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, editTabs, infoPanel);
 		JSplitPane    kindPane    = new JSplitPane(JSplitPane.VERTICAL_SPLIT,   editorPane, kindList);
@@ -238,6 +248,11 @@ public class MainWnd extends JFrame implements WindowListener
 		// setup main pane
 		this.add(kindPane, java.awt.BorderLayout.CENTER);
 		
+		// setup progress bar (shown while loading sprites)
+		progress.setStringPainted(true);
+		progress.setVisible(false);
+		this.add(progress, java.awt.BorderLayout.SOUTH);
+		
 		// setup menu
 		MainMenu menu;
 		menu = new MainMenu(strFileMenu);
@@ -271,6 +286,38 @@ public class MainWnd extends JFrame implements WindowListener
 		this.setVisible(true);
 	}
 	
+	/**
+	 * Show the progress of background sprite loading.
+	 * 
+	 * @param done   Number of images already loaded.
+	 * @param total  Total number of images.
+	 */
+	public void setSpriteProgress(int done, int total)
+	{
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override public void run() {
+				progress.setMaximum(total);
+				progress.setValue(done);
+				progress.setVisible(true);
+			}
+		});
+	}
+	
+	/**
+	 * Hide the progress bar and replace the placeholders in the level view
+	 * after background sprite loading has finished.
+	 */
+	public void spritesLoaded()
+	{
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override public void run() {
+				progress.setVisible(false);
+				levelView.reload();
+				controller.scheduleUpdate(levelView);
+			}
+		});
+	}
+	
 	public void setWorld(Level level, int worldIndex)
 	{
 		SwingUtilities.invokeLater(new Runnable() {
@@ -318,9 +365,25 @@ public class MainWnd extends JFrame implements WindowListener
 		controller.scheduleUpdate(levelView);
 	}
 	
-	public void redrawWorld()
+	/**
+	 * Show the (re-)analysed world.
+	 * Results of outdated analyses are ignored, i.e. if a world with a higher
+	 * generation number has already been shown, this call has no effect.
+	 * 
+	 * @param level       Analysed level.
+	 * @param worldIndex  Index of the world to be shown.
+	 * @param generation  Generation number of the analysis.
+	 */
+	public void redrawWorld(Level level, int worldIndex, long generation)
 	{
-		controller.scheduleUpdate(levelView);
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override public void run() {
+				if (generation < worldGeneration) return;
+				worldGeneration = generation;
+				levelView.load(level.worlds.get(worldIndex));
+				controller.scheduleUpdate(levelView);
+			}
+		});
 	}
 	
 	public void moveCursorToSnippet(CodeSnippet code)
@@ -0,0 +1,209 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.view.swing;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Cache of decoded sprite sheets.
+ * Sheets are identified by their file name (without extension) and gfx size.
+ * The cache is bounded by the number of bytes of all decoded sheets and
+ * evicts the least recently used sheets first. Additionally, all sheets are
+ * held by soft references, so that they may be reclaimed on memory shortage.
+ */
+public class SheetCache
+{
+	/** default capacity in bytes */
+	public static final long DEFAULT_CAPACITY = 32L << 20;
+	
+	/**
+	 * Cache key (file and size).
+	 */
+	private static final class Key
+	{
+		final String file;
+		final int    size;
+		
+		Key(String file, int size)
+		{
+			this.file = file;
+			this.size = size;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return file.hashCode() * 31 + size;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key)) return false;
+			final Key other = (Key)obj;
+			return size == other.size && file.equals(other.file);
+		}
+	}
+	
+	/**
+	 * Cache entry (soft reference with size information).
+	 */
+	private static final class Entry extends SoftReference<BufferedImage>
+	{
+		final long bytes;
+		
+		Entry(BufferedImage image)
+		{
+			super(image);
+			this.bytes = (long)image.getWidth() * image.getHeight() * 4;
+		}
+	}
+	
+	private final long                      capacity;
+	private final LinkedHashMap<Key, Entry> sheets;
+	private long                            used;
+	private long                            hits;
+	private long                            misses;
+	
+	/**
+	 * Create an empty cache with default capacity.
+	 */
+	public SheetCache()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Create an empty cache.
+	 * 
+	 * @param capacity  Maximal number of bytes of all decoded sheets.
+	 */
+	public SheetCache(long capacity)
+	{
+		this.capacity = capacity;
+		this.sheets   = new LinkedHashMap<Key, Entry>(64, 0.75f, true);
+		this.used     = 0;
+		this.hits     = 0;
+		this.misses   = 0;
+	}
+	
+	/**
+	 * Retrieve a decoded sprite sheet.
+	 * If the sheet is not cached (or has been reclaimed), it is read from
+	 * the given path.
+	 * 
+	 * @param file  File name of the sheet (without extension).
+	 * @param size  Gfx size of the sheet.
+	 * @param path  Path to the PNG file.
+	 * @return      The decoded sheet.
+	 * @throws IOException  if the file could not be read.
+	 */
+	public BufferedImage get(String file, int size, Path path) throws IOException
+	{
+		final Key key = new Key(file, size);
+		synchronized (this)
+		{
+			final Entry entry = sheets.get(key);
+			if (entry != null)
+			{
+				final BufferedImage image = entry.get();
+				if (image != null)
+				{
+					++hits;
+					return image;
+				}
+				sheets.remove(key);
+				used -= entry.bytes;
+			}
+			++misses;
+		}
+		
+		final BufferedImage image = ImageIO.read(path.toFile());
+		if (image == null) throw new IOException("unsupported image format: " + path);
+		
+		synchronized (this)
+		{
+			final Entry entry = new Entry(image);
+			final Entry old   = sheets.put(key, entry);
+			if (old != null) used -= old.bytes;
+			used += entry.bytes;
+			
+			final Iterator<Entry> it = sheets.values().iterator();
+			while (used > capacity && it.hasNext())
+			{
+				final Entry evict = it.next();
+				if (evict == entry) continue;
+				used -= evict.bytes;
+				it.remove();
+			}
+		}
+		return image;
+	}
+	
+	/**
+	 * Remove all cached sheets.
+	 */
+	public synchronized void clear()
+	{
+		sheets.clear();
+		used = 0;
+	}
+	
+	/**
+	 * @return  Number of requests answered from the cache.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+	
+	/**
+	 * @return  Number of requests, that required the sheet to be decoded.
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+	
+	/**
+	 * @return  Number of bytes used by cached sheets.
+	 */
+	public synchronized long getUsed()
+	{
+		return used;
+	}
+	
+	@Override
+	public synchronized String toString()
+	{
+		return "sheets: " + sheets.size() + " (" + (used >> 10) + " KiB), hits: " + hits + ", misses: " + misses;
+	}
+}
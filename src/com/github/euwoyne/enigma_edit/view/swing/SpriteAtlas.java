@@ -0,0 +1,136 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.view.swing;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Texture atlas of sprite images of a single size.
+ * Sprite images are copied into a few large pages on first use. Drawing
+ * from the pages instead of thousands of small images keeps Java2D on its
+ * managed image path and reduces per-call overhead.
+ * The atlas is owned by an {@link AwtSpriteSet} and discarded, whenever the
+ * sprite images of its size are freed.
+ */
+class SpriteAtlas
+{
+	/** maximal edge length of a page in pixels */
+	private static final int PAGE_SIZE = 2048;
+	
+	private final int                                              size;
+	private final int                                              columns;
+	private final int                                              slotsPerPage;
+	private final ArrayList<BufferedImage>                         pages;
+	private final IdentityHashMap<AwtSpriteBase.AwtImage, Integer> slots;
+	
+	/**
+	 * Create an empty atlas.
+	 * 
+	 * @param size  Size of the sprite images.
+	 */
+	SpriteAtlas(int size)
+	{
+		this.size         = size;
+		this.columns      = Math.max(1, PAGE_SIZE / size);
+		this.slotsPerPage = columns * columns;
+		this.pages        = new ArrayList<BufferedImage>();
+		this.slots        = new IdentityHashMap<AwtSpriteBase.AwtImage, Integer>();
+	}
+	
+	/**
+	 * @return  Size of the sprite images.
+	 */
+	int getSize()
+	{
+		return size;
+	}
+	
+	/**
+	 * @return  Number of sprite images stored in the atlas.
+	 */
+	synchronized int getCount()
+	{
+		return slots.size();
+	}
+	
+	/**
+	 * Find (or allocate) the slot of the given image.
+	 * 
+	 * @param image  Sprite image.
+	 * @return       Slot index.
+	 */
+	private int slot(AwtSpriteBase.AwtImage image)
+	{
+		Integer slot = slots.get(image);
+		if (slot == null)
+		{
+			slot = slots.size();
+			if (slot / slotsPerPage >= pages.size())
+				pages.add(new BufferedImage(columns * size, columns * size, BufferedImage.TYPE_INT_ARGB));
+			
+			final BufferedImage page = pages.get(slot / slotsPerPage);
+			final int x = (slot % slotsPerPage) % columns * size;
+			final int y = (slot % slotsPerPage) / columns * size;
+			final Graphics2D g = page.createGraphics();
+			g.setComposite(AlphaComposite.Src);
+			g.drawImage(image, x, y, null);
+			g.dispose();
+			slots.put(image, slot);
+		}
+		return slot;
+	}
+	
+	/**
+	 * Draw a sprite image from the atlas.
+	 * Images of another size are drawn directly.
+	 * 
+	 * @param g      Target graphics.
+	 * @param image  Sprite image to be drawn.
+	 * @param x      Target x coordinate in pixels.
+	 * @param y      Target y coordinate in pixels.
+	 */
+	void draw(Graphics2D g, AwtSpriteBase.AwtImage image, int x, int y)
+	{
+		if (image.getSize() != size)
+		{
+			g.drawImage(image, x, y, null);
+			return;
+		}
+		
+		final BufferedImage page;
+		final int           sx, sy;
+		synchronized (this)
+		{
+			final int slot = slot(image);
+			page = pages.get(slot / slotsPerPage);
+			sx   = (slot % slotsPerPage) % columns * size;
+			sy   = (slot % slotsPerPage) / columns * size;
+		}
+		g.drawImage(page, x, y, x + size, y + size, sx, sy, sx + size, sy + size, null);
+	}
+}
@@ -0,0 +1,360 @@
+
+/*
+  Enigma Editor
+  Copyright (C) 2015 Dominik Lehmann
+  
+  Licensed under the EUPL, Version 1.1 or – as soon they
+  will be approved by the European Commission - subsequent
+  versions of the EUPL (the "Licence");
+  You may not use this work except in compliance with the
+  Licence.
+  You may obtain a copy of the Licence at:
+  
+  https://joinup.ec.europa.eu/software/page/eupl
+  
+  Unless required by applicable law or agreed to in
+  writing, software distributed under the Licence is
+  distributed on an "AS IS" basis,
+  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+  express or implied.
+  See the Licence for the specific language governing
+  permissions and limitations under the Licence.
+*/
+
+package com.github.euwoyne.enigma_edit.view.swing;
+
+import java.awt.Font;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.euwoyne.enigma_edit.model.SpriteFolder;
+import com.github.euwoyne.enigma_edit.view.swing.AwtSpriteBase.AwtImage;
+
+/**
+ * Persistent cache of rendered sprite images.
+ * The pack stores the pixels of every sprite image rendered in a previous
+ * session in a single file, together with the modification times of the
+ * source files used to render it. An image is only taken from the pack,
+ * if all these times match the ones recorded by the {@link SpriteFolder}.
+ * <p>
+ * Format: magic, version, font name and size, number of entries, followed by
+ * the entries. Each entry consists of key, image size, source files with
+ * modification times and the ARGB pixels of the image.
+ */
+public class SpritePack
+{
+	/** file magic ({@code "ESPC"}) */
+	private static final int MAGIC   = 0x45535043;
+	
+	/** format version (to be increased, whenever the format or the rendering changes) */
+	private static final int VERSION = 1;
+	
+	/** pack entry identifier */
+	private static final class Key
+	{
+		final String image;
+		final int    size;
+		
+		Key(String image, int size)
+		{
+			this.image = image;
+			this.size  = size;
+		}
+		
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			final Key k = (Key)o;
+			return size == k.size && image.equals(k.image);
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return image.hashCode() * 31 + size;
+		}
+	}
+	
+	/** image stored in the pack file or rendered in this session */
+	private static final class Entry
+	{
+		final String[]   sources;
+		final long[]     stamps;
+		final ByteBuffer data;
+		final int        offset;
+		final int[]      pixels;
+		
+		Entry(String[] sources, long[] stamps, ByteBuffer data, int offset, int[] pixels)
+		{
+			this.sources = sources;
+			this.stamps  = stamps;
+			this.data    = data;
+			this.offset  = offset;
+			this.pixels  = pixels;
+		}
+	}
+	
+	private final Path             file;
+	private final SpriteFolder     gfxPath;
+	private final Font             font;
+	private final Map<Key, Entry>  entries;
+	private volatile boolean       modified;
+	
+	/**
+	 * Create an empty pack.
+	 * 
+	 * @param file     Pack file.
+	 * @param gfxPath  Sprite folder providing the source files.
+	 * @param font     Font used to render image texts.
+	 */
+	public SpritePack(Path file, SpriteFolder gfxPath, Font font)
+	{
+		this.file     = file;
+		this.gfxPath  = gfxPath;
+		this.font     = font;
+		this.entries  = new ConcurrentHashMap<Key, Entry>();
+		this.modified = false;
+	}
+	
+	/**
+	 * Read the pack file, if it exists.
+	 * Only the entry headers are parsed. The pixels stay in the file buffer,
+	 * until an image is requested. If the file is corrupt, or has been written
+	 * by a different version or with a different font, the pack stays empty.
+	 * 
+	 * @return  Number of entries read.
+	 */
+	public synchronized int load()
+	{
+		entries.clear();
+		if (!Files.isReadable(file)) return 0;
+		
+		try
+		{
+			entries.putAll(readPack());
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.err.println("Sprite pack '" + file + "' unreadable: " + e.getMessage());
+		}
+		return entries.size();
+	}
+	
+	/**
+	 * Parse the entry headers of the pack file.
+	 * The file is read into a heap buffer instead of being memory mapped,
+	 * since a mapping can not be released before {@link #save} replaces the
+	 * file (which fails on some platforms, as long as the mapping is alive).
+	 * 
+	 * @return  Entries of the pack file (empty, if the file is outdated).
+	 * @throws IOException  if the file could not be read.
+	 */
+	private Map<Key, Entry> readPack() throws IOException
+	{
+		final HashMap<Key, Entry> result = new HashMap<Key, Entry>();
+		final ByteBuffer          in     = ByteBuffer.wrap(Files.readAllBytes(file));
+		if (in.getInt() != MAGIC || in.getInt() != VERSION) return result;
+		if (!readString(in).equals(font.getFontName()) || in.getInt() != font.getSize()) return result;
+		
+		for (int count = in.getInt(); count > 0; --count)
+		{
+			final String   key     = readString(in);
+			final int      size    = in.getInt();
+			final String[] sources = new String[in.getInt()];
+			final long[]   stamps  = new long[sources.length];
+			for (int i = 0; i < sources.length; ++i)
+			{
+				sources[i] = readString(in);
+				stamps[i]  = in.getLong();
+			}
+			result.put(new Key(key, size), new Entry(sources, stamps, in, in.position(), null));
+			in.position(in.position() + size * size * 4);
+		}
+		return result;
+	}
+	
+	/**
+	 * Fill an image with the pixels stored for it.
+	 * An entry, whose source files have changed, is dropped.
+	 * 
+	 * @param key    Image key (description of the rendered image).
+	 * @param image  Image to fill.
+	 * @return       {@code true}, if the image was found and is up to date.
+	 */
+	public boolean read(String key, AwtImage image)
+	{
+		final Key   k     = new Key(key, image.getSize());
+		final Entry entry = entries.get(k);
+		if (entry == null) return false;
+		
+		for (int i = 0; i < entry.sources.length; ++i)
+		{
+			if (gfxPath.getModified(Paths.get(entry.sources[i])) != entry.stamps[i])
+			{
+				entries.remove(k, entry);
+				modified = true;
+				return false;
+			}
+		}
+		
+		final int size = image.getSize();
+		int[] pixels = entry.pixels;
+		if (pixels == null)
+		{
+			final ByteBuffer view = entry.data.duplicate();
+			view.position(entry.offset);
+			pixels = new int[size * size];
+			view.asIntBuffer().get(pixels);
+		}
+		image.getRaster().setDataElements(0, 0, size, size, pixels);
+		return true;
+	}
+	
+	/**
+	 * Store a rendered image.
+	 * 
+	 * @param key      Image key (description of the rendered image).
+	 * @param image    Rendered image.
+	 * @param sources  Source files used to render the image.
+	 */
+	public void write(String key, AwtImage image, List<Path> sources)
+	{
+		final int      size    = image.getSize();
+		final String[] names   = new String[sources.size()];
+		final long[]   stamps  = new long[names.length];
+		for (int i = 0; i < names.length; ++i)
+		{
+			names[i]  = sources.get(i).toString();
+			stamps[i] = gfxPath.getModified(sources.get(i));
+		}
+		entries.put(new Key(key, size), new Entry(names, stamps, null, 0, (int[])image.getRaster().getDataElements(0, 0, size, size, null)));
+		modified = true;
+	}
+	
+	/**
+	 * Write the pack file, if entries have been added or dropped.
+	 * The file is written to a temporary file first, which then replaces the pack.
+	 * Afterwards the saved entries are read back from the new file, so that
+	 * the pixels rendered in this session are no longer held separately.
+	 * 
+	 * @throws IOException  if the pack could not be written.
+	 */
+	public synchronized void save() throws IOException
+	{
+		if (!modified) return;
+		modified = false;
+		
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		final Map<Key, Entry> snapshot = new HashMap<Key, Entry>(entries);
+		try
+		{
+			Files.createDirectories(file.toAbsolutePath().getParent());
+			write(temp, snapshot);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			modified = true;
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		
+		// reload the offsets (entries changed in the meantime are kept)
+		try
+		{
+			for (Map.Entry<Key, Entry> i : readPack().entrySet())
+				entries.replace(i.getKey(), snapshot.get(i.getKey()), i.getValue());
+		}
+		catch (IOException | RuntimeException e)
+		{
+			System.err.println("Sprite pack '" + file + "' unreadable: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Write the given entries to a file.
+	 * 
+	 * @param target    Target file.
+	 * @param snapshot  Entries to be written.
+	 * @throws IOException  if the file could not be written.
+	 */
+	private void write(Path target, Map<Key, Entry> snapshot) throws IOException
+	{
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target), 1 << 16)))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, font.getFontName());
+			out.writeInt(font.getSize());
+			
+			out.writeInt(snapshot.size());
+			for (Map.Entry<Key, Entry> i : snapshot.entrySet())
+			{
+				final Entry entry = i.getValue();
+				final int   size  = i.getKey().size;
+				writeString(out, i.getKey().image);
+				out.writeInt(size);
+				out.writeInt(entry.sources.length);
+				for (int j = 0; j < entry.sources.length; ++j)
+				{
+					writeString(out, entry.sources[j]);
+					out.writeLong(entry.stamps[j]);
+				}
+				if (entry.pixels != null)
+				{
+					for (int pixel : entry.pixels)
+						out.writeInt(pixel);
+				}
+				else
+				{
+					final ByteBuffer view = entry.data.duplicate();
+					view.position(entry.offset);
+					final IntBuffer pixels = view.asIntBuffer();
+					for (int j = size * size; j > 0; --j)
+						out.writeInt(pixels.get());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return  Number of stored images.
+	 */
+	public int getCount()
+	{
+		return entries.size();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return entries.size() + " images in " + file;
+	}
+	
+	private static String readString(ByteBuffer in)
+	{
+		final byte[] bytes = new byte[in.getShort() & 0xffff];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}